@@ -0,0 +1,157 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Fila de espera (hold-back) para a entrega causal das mensagens.
+ *
+ * Uma mensagem m do membro j com timestamp V pode ser entregue quando o processo local já
+ * entregou exatamente V[j] mensagens de j e pelo menos V[k] mensagens de cada outro membro k.
+ * Enquanto isso não acontece, m fica indexada pela primeira dependência que falta, na forma
+ * (membro, contagem): ela só é reavaliada quando a contagem de entregas daquele membro chega
+ * ao valor esperado. Assim, entregar uma mensagem acorda apenas as que dependiam dela, sem
+ * percorrer a fila inteira.
+ */
+class CausalDeliveryQueue {
+
+    // Mensagens em espera, indexadas pela dependência (membro, contagem) que aguardam
+    private final HashMap<Long, ArrayList<Message>> aguardando = new HashMap<>();
+
+    // Quantidade de mensagens em espera
+    private int tamanho;
+
+    /**
+     * Retorna a quantidade de mensagens retidas na fila.
+     * @return número de mensagens aguardando dependências
+     */
+    public int tamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Recebe uma mensagem de outro membro e entrega, em ordem causal, ela e todas as que
+     * ficarem prontas em consequência. A função de entrega deve incrementar a contagem de
+     * entregas do remetente na linha local da matriz antes de retornar.
+     * @param mensagem mensagem recebida
+     * @param relogios matriz de relógios, cuja linha local guarda as contagens de entregas
+     * @param local ID do processo local
+     * @param entregar ação executada para cada mensagem entregue
+     * @return quantidade de mensagens entregues
+     */
+    public int receber(Message mensagem, ClockMatrix relogios, int local, Consumer<Message> entregar) {
+        int remetente = mensagem.cliente().getID();
+        if (!relogios.contem(remetente)) {
+            return 0; // O remetente saiu do grupo: suas mensagens não são mais ordenáveis
+        }
+        if (mensagem.timestamp()[remetente] < relogios.get(local, remetente)) {
+            return 0; // Já entregue anteriormente: cópia duplicada
+        }
+        if (!reter(mensagem, relogios, local)) {
+            return 0;
+        }
+
+        // Entrega a mensagem e acorda, em cadeia, as que aguardavam as entregas realizadas
+        int entregues = 0;
+        ArrayDeque<Message> prontas = new ArrayDeque<>();
+        prontas.add(mensagem);
+        while (!prontas.isEmpty()) {
+            Message pronta = prontas.poll();
+            int origem = pronta.cliente().getID();
+            if (pronta.timestamp()[origem] < relogios.get(local, origem)) {
+                continue; // Duas cópias acordadas juntas: a outra acabou de ser entregue
+            }
+            entregar.accept(pronta);
+            entregues++;
+
+            ArrayList<Message> acordadas = aguardando.remove(chave(origem, relogios.get(local, origem)));
+            if (acordadas == null) {
+                continue;
+            }
+            tamanho -= acordadas.size();
+            for (Message acordada : acordadas) {
+                int remetenteAcordada = acordada.cliente().getID();
+                if (!relogios.contem(remetenteAcordada)) {
+                    continue; // O remetente saiu do grupo
+                }
+                if (acordada.timestamp()[remetenteAcordada] < relogios.get(local, remetenteAcordada)) {
+                    continue; // Cópia duplicada de uma mensagem já entregue
+                }
+                if (reter(acordada, relogios, local)) {
+                    prontas.add(acordada);
+                }
+            }
+        }
+        return entregues;
+    }
+
+    /**
+     * Reavalia todas as mensagens retidas, para quando as contagens de entregas mudam
+     * por outro caminho que não a entrega de mensagens (por exemplo, uma mudança de visão).
+     * @param relogios matriz de relógios
+     * @param local ID do processo local
+     * @param entregar ação executada para cada mensagem entregue
+     * @return quantidade de mensagens entregues
+     */
+    public int reavaliar(ClockMatrix relogios, int local, Consumer<Message> entregar) {
+        List<Message> retidas = new ArrayList<>(tamanho);
+        for (ArrayList<Message> lista : aguardando.values()) {
+            retidas.addAll(lista);
+        }
+        aguardando.clear();
+        tamanho = 0;
+
+        int entregues = 0;
+        for (Message retida : retidas) {
+            entregues += receber(retida, relogios, local, entregar);
+        }
+        return entregues;
+    }
+
+    /**
+     * Retém a mensagem sob a primeira dependência não satisfeita.
+     * @return true se a mensagem já pode ser entregue, false se ficou retida
+     */
+    private boolean reter(Message mensagem, ClockMatrix relogios, int local) {
+        int[] timestamp = mensagem.timestamp();
+        int remetente = mensagem.cliente().getID();
+
+        // Mensagens anteriores do próprio remetente
+        int entreguesRemetente = relogios.get(local, remetente);
+        if (timestamp[remetente] > entreguesRemetente) {
+            aguardar(chave(remetente, timestamp[remetente]), mensagem);
+            return false;
+        }
+
+        // Mensagens de outros membros que o remetente já havia entregue
+        for (int membro = 0; membro < timestamp.length; membro++) {
+            if (membro != remetente && relogios.contem(membro) && timestamp[membro] > relogios.get(local, membro)) {
+                aguardar(chave(membro, timestamp[membro]), mensagem);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Põe a mensagem na lista da chave, a menos que uma cópia dela (mesmo remetente e sequência)
+     * já esteja lá: as duas acordariam juntas e seriam entregues em dobro.
+     */
+    private void aguardar(long chave, Message mensagem) {
+        ArrayList<Message> lista = aguardando.computeIfAbsent(chave, k -> new ArrayList<>(2));
+        int remetente = mensagem.cliente().getID();
+        int sequencia = mensagem.timestamp()[remetente];
+        for (Message retida : lista) {
+            if (retida.cliente().getID() == remetente && retida.timestamp()[remetente] == sequencia) {
+                return; // Cópia duplicada de uma mensagem já retida
+            }
+        }
+        lista.add(mensagem);
+        tamanho++;
+    }
+
+    /**
+     * Monta a chave de espera (membro, contagem de entregas esperada).
+     */
+    private static long chave(int membro, int contagem) {
+        return ((long) membro << 32) | (contagem & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Transporte sobre canais DatagramChannel não bloqueantes, registrados em um {@link EventLoop}
+ * que pode ser compartilhado por vários nós.
+ */
+class ChannelTransport implements Transport {
+
+    private final EventLoop eventLoop;
+    private InetSocketAddress grupo;
+    private DatagramChannel canalUnicast;
+    private DatagramChannel canalMulticast;
+
+    /**
+     * Construtor do transporte.
+     * @param eventLoop laço de eventos em que os canais são registrados
+     */
+    public ChannelTransport(EventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    @Override
+    public void abrir(InetAddress grupo, int portaGrupo, InetAddress local, int portaLocal, Receptor receptor) throws IOException {
+        this.grupo = new InetSocketAddress(grupo, portaGrupo);
+        NetworkInterface redeInterface = Transport.interfaceMulticast();
+
+        this.canalMulticast = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                .bind(new InetSocketAddress(portaGrupo));
+        this.canalMulticast.setOption(StandardSocketOptions.IP_MULTICAST_IF, redeInterface);
+        this.canalMulticast.join(grupo, redeInterface);
+
+        this.canalUnicast = DatagramChannel.open(StandardProtocolFamily.INET)
+                .bind(new InetSocketAddress(local, portaLocal));
+
+        this.eventLoop.registrar(this.canalMulticast, receptor::receber);
+        this.eventLoop.registrar(this.canalUnicast, receptor::receber);
+    }
+
+    @Override
+    public void enviarParaGrupo(ByteBuffer dados) throws IOException {
+        transmitir(this.canalMulticast, dados, this.grupo);
+    }
+
+    @Override
+    public void enviar(ByteBuffer dados, InetAddress endereco, int porta) throws IOException {
+        transmitir(this.canalUnicast, dados, new InetSocketAddress(endereco, porta));
+    }
+
+    @Override
+    public boolean usaMemoriaNativa() {
+        return true; // Os canais enviam direto de memória nativa
+    }
+
+    /**
+     * Fecha os canais, o que também os retira do laço de eventos. O laço não é encerrado.
+     */
+    @Override
+    public void close() {
+        for (Closeable recurso : new Closeable[] { canalMulticast, canalUnicast }) {
+            try {
+                if (recurso != null) {
+                    recurso.close();
+                }
+            } catch (IOException ex) {
+                System.err.println("Falha ao fechar o canal!");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static void transmitir(DatagramChannel canal, ByteBuffer dados, InetSocketAddress destino) throws IOException {
+        // Em modo não bloqueante, 0 bytes enviados significa que o buffer do kernel está cheio
+        if (canal.send(dados, destino) == 0) {
+            throw new IOException("Buffer de envio do socket cheio, datagrama descartado.");
+        }
+    }
+}
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.io.*;
 
 /**
@@ -23,11 +25,31 @@ public class Client implements IStableMulticast, Serializable {
 
         // Cria um novo cliente
         Client cliente = new Client();
-        // Inicializa o middleware com endereço de host, porta e o cliente
-        StableMulticast middleware = new StableMulticast("localhost", Integer.valueOf(args[0]), cliente);
         // Scanner para ler comandos da linha de comando
         Scanner scanner = new Scanner(System.in);
 
+        // Coleta o nome do cliente
+        System.out.println("Por favor, insira seu nome:");
+        String nomeCliente = scanner.nextLine();
+
+        // Inicializa o middleware com endereço de host, porta, nome e o cliente
+        StableMulticast middleware;
+        try {
+            middleware = StableMulticast.builder()
+                    .endereco("localhost")
+                    .porta(Integer.valueOf(args[0]))
+                    .nome(nomeCliente)
+                    .cliente(cliente)
+                    .construir();
+        } catch (UncheckedIOException ex) {
+            System.err.println("Falha ao iniciar o middleware: " + ex.getCause().getMessage());
+            scanner.close();
+            return;
+        }
+
+        // Indica se o rastreamento periódico do buffer está ativo
+        boolean rastreando = false;
+
         // Loop principal para leitura de comandos do usuário
         while (true) {
             // Lê o próximo comando do usuário
@@ -41,17 +63,70 @@ public class Client implements IStableMulticast, Serializable {
             else if (comando.equals("\\buffer")) {
                 middleware.exibirConteudoETimestamps(); // Chama o método para exibir o buffer e os timestamps
             }
+            // Verifica se o comando é para ligar ou desligar o rastreamento do buffer
+            else if (comando.equals("\\rastrear")) {
+                rastreando = !rastreando;
+                if (rastreando) {
+                    middleware.ativarRastreamento(1, TimeUnit.SECONDS); // Imprime o diagnóstico a cada segundo, se mudou
+                } else {
+                    middleware.desativarRastreamento();
+                }
+            }
             // Verifica se o comando é para sair do loop
             else if (comando.equals("\\exit")) {
+                middleware.close(); // Avisa o grupo da saída e libera os sockets
                 break; // Sai do loop e encerra o programa
             }
             // Caso o comando não seja um dos comandos especiais, envia a mensagem em multicast
             else {
-                middleware.msend(comando); // Envia a mensagem para todos os clientes
+                enviar(middleware, scanner, comando); // Pergunta como a mensagem deve ser enviada
             }
         }
 
         // Fecha o scanner
         scanner.close();
     }
+
+    /**
+     * Pergunta ao usuário se a mensagem vai para todos de uma vez ou para cada membro
+     * individualmente, aguardando o Enter antes de cada envio.
+     * @param middleware middleware usado para o envio
+     * @param scanner leitor da entrada do usuário
+     * @param conteudoMensagem o conteúdo da mensagem a ser enviada
+     */
+    private static void enviar(StableMulticast middleware, Scanner scanner, String conteudoMensagem) {
+        // Pergunta ao usuário se deseja enviar a mensagem para todos
+        System.out.println("Deseja enviar para todos? 's' para sim ou 'n' para nao.");
+        String resposta = scanner.nextLine();
+
+        switch (resposta) {
+            case "s":
+                // Envia a mensagem para todos os clientes
+                middleware.msend(conteudoMensagem);
+                break;
+            case "n":
+                // Envia a mesma mensagem para cada cliente individualmente
+                SentMessage mensagem = null;
+                try {
+                    for (ClientInfo destino : middleware.getClientes()) {
+                        if (!destino.getID().equals(middleware.getClientInfo().getID())) {
+                            System.out.println("Pressione Enter para enviar para: " + middleware.COLOR_CYAN + destino.getName() + middleware.COLOR_RESET);
+                            scanner.nextLine();  // Espera o usuário pressionar Enter
+                        }
+                        // O primeiro envio carimba a mensagem; os seguintes reenviam a mesma
+                        if (mensagem == null) {
+                            mensagem = middleware.msendAsync(conteudoMensagem, List.of(destino)).join();
+                        } else {
+                            middleware.reenviarAsync(mensagem, List.of(destino)).join();
+                        }
+                    }
+                } catch (CompletionException ex) {
+                    System.err.println("Falha ao enviar a mensagem: " + ex.getCause().getMessage());
+                }
+                break;
+            default:
+                System.err.println("Comando nao reconhecido. Tente novamente.");
+                break;
+        }
+    }
 }
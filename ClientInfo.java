@@ -0,0 +1,76 @@
+import java.io.*;
+import java.net.*;
+
+/**
+ * Identifica um membro do grupo: nome, ID atribuído pela visão e endereço unicast.
+ */
+public class ClientInfo implements Serializable {
+    private String nome;
+    private Integer identificador;
+    private InetAddress enderecoIP;
+    private Integer porta;
+    private transient IStableMulticast cliente; // Callback local, nunca trafega pela rede
+
+    /**
+     * Construtor da classe ClientInfo.
+     * @param enderecoIP endereço IP do cliente
+     * @param porta porta do cliente
+     * @param nome nome do cliente
+     * @param cliente instância de IStableMulticast associada ao cliente
+     */
+    public ClientInfo(InetAddress enderecoIP, Integer porta, String nome, IStableMulticast cliente) {
+        this.enderecoIP = enderecoIP;
+        this.porta = porta;
+        this.cliente = cliente;
+        this.nome = nome;
+        this.identificador = -1; // Inicializa o ID como -1 para indicar que ainda não foi definido
+    }
+
+     /**
+     * Obtém a instância de IStableMulticast associada ao cliente.
+     * @return instância de IStableMulticast
+     */
+    public IStableMulticast getClient(){
+        return cliente;
+    }
+
+     /**
+     * Obtém o endereço IP do cliente.
+     * @return endereço IP do cliente
+     */
+    public InetAddress getIP(){
+        return enderecoIP;
+    }
+
+     /**
+     * Obtém a porta do cliente.
+     * @return porta do cliente
+     */
+    public Integer getPort(){
+        return porta;
+    }
+
+     /**
+     * Obtém o nome do cliente.
+     * @return nome do cliente
+     */
+    public String getName(){
+        return nome;
+    }
+
+     /**
+     * Obtém o ID do cliente.
+     * @return ID do cliente
+     */
+    public Integer getID(){
+        return identificador;
+    }
+
+     /**
+     * Define o ID do cliente.
+     * @param id novo ID do cliente
+     */
+    void setID(Integer id){
+        this.identificador = id;
+    }
+}
@@ -0,0 +1,378 @@
+import java.util.*;
+
+/**
+ * Matriz de relógios vetoriais (MCi) do protocolo de multicast estável.
+ * A entrada [i][j] guarda quantas mensagens do membro j o membro i já entregou.
+ *
+ * Os valores ficam em arrays primitivos indexados por slot, e cada membro ocupa um slot.
+ * A matriz cresce quando membros entram e é compactada quando saem: o último slot passa
+ * a ocupar o lugar do removido. Externamente tudo é endereçado pelo ID do membro, e os
+ * vetores trocados pela rede são indexados por ID.
+ * O menor valor de cada coluna fica em cache e só é recalculado quando a entrada que o
+ * definia aumenta, já que os relógios nunca diminuem. As colunas cujo mínimo pode ter subido
+ * ficam registradas até serem retiradas com {@link #retirarColunaAlterada}, para que o buffer
+ * de estabilidade confira só os remetentes afetados.
+ */
+class ClockMatrix {
+
+    private static final int CAPACIDADE_INICIAL = 4;
+
+    // Valores indexados por slot: linhas[slotLinha][slotColuna]
+    private int[][] linhas;
+
+    // Mapeamento entre IDs de membros e slots
+    private int[] idPorSlot;
+    private int[] slotPorId;
+    private int tamanho;
+
+    // Cache do mínimo de cada coluna
+    private int[] minimos;
+    private boolean[] minimoValido;
+
+    // IDs das colunas com o mínimo invalidado desde a última retirada, cada coluna existente no
+    // máximo uma vez, mais os IDs dos membros removidos ainda não retirados
+    private int[] alteradas;
+    private int quantidadeAlteradas;
+    private boolean[] alteradaPorSlot;
+
+    /**
+     * Construtor da matriz, inicialmente sem membros.
+     */
+    public ClockMatrix() {
+        this.linhas = new int[CAPACIDADE_INICIAL][];
+        this.idPorSlot = new int[CAPACIDADE_INICIAL];
+        this.slotPorId = new int[CAPACIDADE_INICIAL];
+        Arrays.fill(this.slotPorId, -1);
+        this.minimos = new int[CAPACIDADE_INICIAL];
+        this.minimoValido = new boolean[CAPACIDADE_INICIAL];
+        this.alteradas = new int[CAPACIDADE_INICIAL];
+        this.alteradaPorSlot = new boolean[CAPACIDADE_INICIAL];
+        this.tamanho = 0;
+    }
+
+    /**
+     * Retorna a quantidade de membros na matriz.
+     * @return número de membros
+     */
+    public int tamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Retorna os IDs dos membros na ordem dos slots.
+     * @return cópia dos IDs dos membros
+     */
+    public int[] ids() {
+        return Arrays.copyOf(idPorSlot, tamanho);
+    }
+
+    /**
+     * Verifica se um membro faz parte da matriz.
+     * @param id ID do membro
+     * @return true se o membro possui um slot
+     */
+    public boolean contem(int id) {
+        return id >= 0 && id < slotPorId.length && slotPorId[id] >= 0;
+    }
+
+    /**
+     * Adiciona um membro com linha e coluna zeradas. Não faz nada se ele já existir.
+     * @param id ID do novo membro
+     */
+    public void adicionarMembro(int id) {
+        if (contem(id)) {
+            return;
+        }
+        if (id >= slotPorId.length) {
+            int capacidadeAnterior = slotPorId.length;
+            slotPorId = Arrays.copyOf(slotPorId, Math.max(id + 1, capacidadeAnterior * 2));
+            Arrays.fill(slotPorId, capacidadeAnterior, slotPorId.length, -1);
+        }
+        if (tamanho == idPorSlot.length) {
+            crescer(tamanho * 2);
+        }
+
+        int slot = tamanho++;
+        idPorSlot[slot] = id;
+        slotPorId[id] = slot;
+        alteradaPorSlot[slot] = false;
+
+        // A nova coluna começa zerada em todas as linhas existentes
+        for (int s = 0; s < slot; s++) {
+            linhas[s][slot] = 0;
+        }
+        if (linhas[slot] == null || linhas[slot].length < idPorSlot.length) {
+            linhas[slot] = new int[idPorSlot.length];
+        } else {
+            Arrays.fill(linhas[slot], 0, tamanho, 0);
+        }
+
+        // A nova linha zerada derruba o mínimo de todas as colunas
+        Arrays.fill(minimos, 0, tamanho, 0);
+        Arrays.fill(minimoValido, 0, tamanho, true);
+    }
+
+    /**
+     * Remove um membro, compactando a matriz. Não faz nada se ele não existir.
+     * @param id ID do membro que saiu
+     */
+    public void removerMembro(int id) {
+        if (!contem(id)) {
+            return;
+        }
+        int slot = slotPorId[id];
+        int ultimo = --tamanho;
+        slotPorId[id] = -1;
+
+        if (slot != ultimo) {
+            // Move a linha e a coluna do último slot para o lugar do removido
+            int[] linhaRemovida = linhas[slot];
+            linhas[slot] = linhas[ultimo];
+            linhas[ultimo] = linhaRemovida;
+            for (int s = 0; s < tamanho; s++) {
+                linhas[s][slot] = linhas[s][ultimo];
+            }
+            idPorSlot[slot] = idPorSlot[ultimo];
+            slotPorId[idPorSlot[slot]] = slot;
+            alteradaPorSlot[slot] = alteradaPorSlot[ultimo];
+        }
+
+        // Sem a linha removida os mínimos só podem subir
+        Arrays.fill(minimoValido, 0, tamanho, false);
+        marcarTodasAlteradas();
+        registrarAlterada(id); // Quem consulta fica sabendo que a coluna deixou de existir
+    }
+
+    /**
+     * Obtém o valor de uma entrada da matriz.
+     * @param idLinha ID do membro dono da linha
+     * @param idColuna ID do membro da coluna
+     * @return o valor do relógio
+     */
+    public int get(int idLinha, int idColuna) {
+        return linhas[slotPorId[idLinha]][slotPorId[idColuna]];
+    }
+
+    /**
+     * Eleva uma entrada ao valor informado, caso ele seja maior que o atual.
+     * @param idLinha ID do membro dono da linha
+     * @param idColuna ID do membro da coluna
+     * @param valor novo valor do relógio
+     */
+    public void elevar(int idLinha, int idColuna, int valor) {
+        int coluna = slotPorId[idColuna];
+        int[] linha = linhas[slotPorId[idLinha]];
+        if (valor > linha[coluna]) {
+            atualizarMinimo(coluna, linha[coluna]);
+            linha[coluna] = valor;
+        }
+    }
+
+    /**
+     * Incrementa uma entrada da matriz.
+     * @param idLinha ID do membro dono da linha
+     * @param idColuna ID do membro da coluna
+     * @return o novo valor
+     */
+    public int incrementar(int idLinha, int idColuna) {
+        int coluna = slotPorId[idColuna];
+        int[] linha = linhas[slotPorId[idLinha]];
+        atualizarMinimo(coluna, linha[coluna]);
+        return ++linha[coluna];
+    }
+
+    /**
+     * Mescla um vetor recebido pela rede na linha de um membro, mantendo o maior valor de cada entrada.
+     * Entradas de membros desconhecidos são ignoradas.
+     * @param idLinha ID do membro dono da linha
+     * @param vetorPorId vetor de relógios indexado por ID
+     */
+    public void mesclarLinha(int idLinha, int[] vetorPorId) {
+        int[] linha = linhas[slotPorId[idLinha]];
+        int limite = Math.min(vetorPorId.length, slotPorId.length);
+        for (int id = 0; id < limite; id++) {
+            int coluna = slotPorId[id];
+            if (coluna >= 0 && vetorPorId[id] > linha[coluna]) {
+                atualizarMinimo(coluna, linha[coluna]);
+                linha[coluna] = vetorPorId[id];
+            }
+        }
+    }
+
+    /**
+     * Mescla na linha de um membro apenas as entradas de um timestamp diferencial, em O(m)
+     * para m entradas alteradas. Entradas de membros desconhecidos são ignoradas.
+     * @param idLinha ID do membro dono da linha
+     * @param diferenca diferença na forma [sequência, id, relógio, id, relógio, ...]
+     */
+    public void mesclarDiferenca(int idLinha, int[] diferenca) {
+        int[] linha = linhas[slotPorId[idLinha]];
+        for (int i = 1; i + 1 < diferenca.length; i += 2) {
+            int id = diferenca[i];
+            if (contem(id)) {
+                int coluna = slotPorId[id];
+                if (diferenca[i + 1] > linha[coluna]) {
+                    atualizarMinimo(coluna, linha[coluna]);
+                    linha[coluna] = diferenca[i + 1];
+                }
+            }
+        }
+    }
+
+    /**
+     * Substitui a linha de um membro em O(1), trocando apenas a referência do array.
+     * A nova linha deve estar indexada por slot, no mesmo formato de {@link #linhaPorSlot}.
+     * @param idLinha ID do membro dono da linha
+     * @param novaLinha nova linha indexada por slot
+     * @return o array da linha anterior, que pode ser reaproveitado pelo chamador
+     */
+    public int[] substituirLinha(int idLinha, int[] novaLinha) {
+        if (novaLinha.length < idPorSlot.length) {
+            throw new IllegalArgumentException("Linha menor que a capacidade da matriz.");
+        }
+        int slot = slotPorId[idLinha];
+        int[] anterior = linhas[slot];
+        linhas[slot] = novaLinha;
+        Arrays.fill(minimoValido, 0, tamanho, false);
+        marcarTodasAlteradas();
+        return anterior;
+    }
+
+    /**
+     * Retorna a linha de um membro indexada por slot, sem cópia. Não deve ser modificada.
+     * @param idLinha ID do membro dono da linha
+     * @return array interno da linha
+     */
+    public int[] linhaPorSlot(int idLinha) {
+        return linhas[slotPorId[idLinha]];
+    }
+
+    /**
+     * Copia a linha de um membro para um vetor indexado por ID, no formato enviado pela rede.
+     * @param idLinha ID do membro dono da linha
+     * @return vetor de relógios indexado por ID
+     */
+    public int[] copiarLinha(int idLinha) {
+        int[] linha = linhas[slotPorId[idLinha]];
+        int maiorId = -1;
+        for (int s = 0; s < tamanho; s++) {
+            maiorId = Math.max(maiorId, idPorSlot[s]);
+        }
+        int[] vetor = new int[maiorId + 1];
+        for (int s = 0; s < tamanho; s++) {
+            vetor[idPorSlot[s]] = linha[s];
+        }
+        return vetor;
+    }
+
+    /**
+     * Copia a matriz inteira na ordem dos slots, a mesma de {@link #ids}.
+     * @return cópia das linhas, cada uma com uma entrada por membro
+     */
+    public int[][] copiarPorSlot() {
+        int[][] copia = new int[tamanho][];
+        for (int s = 0; s < tamanho; s++) {
+            copia[s] = Arrays.copyOf(linhas[s], tamanho);
+        }
+        return copia;
+    }
+
+    /**
+     * Obtém o menor valor da coluna de um membro, ou seja, quantas mensagens dele todos já entregaram.
+     * @param idColuna ID do membro da coluna
+     * @return o menor valor da coluna
+     */
+    public int minimoColuna(int idColuna) {
+        int coluna = slotPorId[idColuna];
+        if (!minimoValido[coluna]) {
+            int minimo = Integer.MAX_VALUE;
+            for (int s = 0; s < tamanho; s++) {
+                minimo = Math.min(minimo, linhas[s][coluna]);
+            }
+            minimos[coluna] = minimo;
+            minimoValido[coluna] = true;
+        }
+        return minimos[coluna];
+    }
+
+    /**
+     * Obtém o maior valor da coluna de um membro, ou seja, quantas mensagens dele algum membro já entregou.
+     * @param idColuna ID do membro da coluna
+     * @return o maior valor da coluna
+     */
+    public int maximoColuna(int idColuna) {
+        int coluna = slotPorId[idColuna];
+        int maximo = 0;
+        for (int s = 0; s < tamanho; s++) {
+            maximo = Math.max(maximo, linhas[s][coluna]);
+        }
+        return maximo;
+    }
+
+    /**
+     * Retira uma das colunas cujo mínimo pode ter subido desde que foi retirada pela última vez,
+     * ou que deixou de existir porque o membro foi removido.
+     * O mínimo de uma coluna retirada precisa ser consultado com {@link #minimoColuna} antes que
+     * um novo aumento dela volte a registrá-la.
+     * @return ID do membro da coluna, ou -1 se não houver nenhuma
+     */
+    public int retirarColunaAlterada() {
+        if (quantidadeAlteradas == 0) {
+            return -1;
+        }
+        int id = alteradas[--quantidadeAlteradas];
+        if (contem(id)) {
+            alteradaPorSlot[slotPorId[id]] = false;
+        }
+        return id;
+    }
+
+    /**
+     * Invalida o mínimo em cache se a entrada que vai aumentar era a que o definia.
+     * @param coluna slot da coluna
+     * @param valorAnterior valor da entrada antes do aumento
+     */
+    private void atualizarMinimo(int coluna, int valorAnterior) {
+        if (valorAnterior == minimos[coluna]) {
+            minimoValido[coluna] = false;
+            if (!alteradaPorSlot[coluna]) {
+                alteradaPorSlot[coluna] = true;
+                registrarAlterada(idPorSlot[coluna]);
+            }
+        }
+    }
+
+    /**
+     * Registra todas as colunas como alteradas, depois de uma mudança que afeta a matriz inteira.
+     */
+    private void marcarTodasAlteradas() {
+        for (int s = 0; s < tamanho; s++) {
+            if (!alteradaPorSlot[s]) {
+                alteradaPorSlot[s] = true;
+                registrarAlterada(idPorSlot[s]);
+            }
+        }
+    }
+
+    private void registrarAlterada(int id) {
+        if (quantidadeAlteradas == alteradas.length) {
+            alteradas = Arrays.copyOf(alteradas, alteradas.length * 2);
+        }
+        alteradas[quantidadeAlteradas++] = id;
+    }
+
+    /**
+     * Aumenta a capacidade de slots de todas as estruturas.
+     * @param capacidade nova capacidade
+     */
+    private void crescer(int capacidade) {
+        linhas = Arrays.copyOf(linhas, capacidade);
+        for (int s = 0; s < tamanho; s++) {
+            linhas[s] = Arrays.copyOf(linhas[s], capacidade);
+        }
+        idPorSlot = Arrays.copyOf(idPorSlot, capacidade);
+        minimos = Arrays.copyOf(minimos, capacidade);
+        minimoValido = Arrays.copyOf(minimoValido, capacidade);
+        alteradaPorSlot = Arrays.copyOf(alteradaPorSlot, capacidade);
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Estágio de entrega entre o núcleo do protocolo e o cliente, para que um deliver lento não
+ * atrase a recepção dos datagramas.
+ *
+ * Há três modos:
+ * - ordenado (padrão): uma thread própria consome uma fila e entrega em lotes, preservando a
+ *   ordem causal em que o núcleo liberou as mensagens;
+ * - com executor: cada entrega vira uma tarefa do executor informado, sem garantia de ordem.
+ *   Em versões do Java com threads virtuais, um executor de uma thread virtual por tarefa
+ *   dá uma thread por callback. Se o executor recusar a tarefa, o próprio núcleo chama o cliente;
+ * - direto (capacidade zero): o próprio núcleo chama o cliente, como antes.
+ *
+ * Nos dois primeiros, a quantidade de entregas pendentes é limitada: com o limite atingido,
+ * o núcleo espera o cliente liberar espaço, já que uma mensagem entregue pelo protocolo não
+ * pode ser descartada. O atraso entre a liberação pelo núcleo e o início do callback é medido.
+ *
+ * Um tópico hospedado não pode esperar assim, porque a thread do núcleo é de todos os tópicos
+ * do hospedeiro. Nesse caso o estágio nunca bloqueia: ele aceita a entrega mesmo acima do
+ * limite, o núcleo do tópico consulta {@link #cheio()} e pausa a própria recepção, e o estágio
+ * o avisa quando voltar a haver espaço.
+ */
+class DeliveryDispatcher implements Closeable {
+
+    // Máximo de mensagens passadas ao cliente em uma única chamada no modo ordenado
+    private static final int MAXIMO_POR_LOTE = 256;
+
+    private static final long TEMPO_MAXIMO_ENCERRAMENTO_MS = 1000;
+
+    // Marca a thread que está dentro de um deliver, de qualquer estágio de entrega
+    private static final ThreadLocal<Boolean> EM_CALLBACK = new ThreadLocal<>();
+
+    private final IStableMulticast cliente;
+    private final Executor executor;
+    private final int capacidade;
+    private final Semaphore vagas;
+    private final Runnable aoLiberar;
+    private final AtomicInteger emCurso = new AtomicInteger();
+    private final MpscQueue<Entrega> fila = new MpscQueue<>();
+    private final Thread thread;
+    private volatile boolean dormindo;
+    private volatile boolean encerrado;
+
+    // Métricas do atraso dos callbacks
+    private final LongAdder entregues = new LongAdder();
+    private final LongAdder atrasoTotalNanos = new LongAdder();
+    private final AtomicLong atrasoMaximoNanos = new AtomicLong();
+    private final LongAdder esperasPorVaga = new LongAdder();
+
+    /**
+     * Mensagem liberada pelo núcleo, com o instante em que entrou no estágio de entrega.
+     */
+    private static final class Entrega {
+        final String mensagem;
+        final long instante;
+
+        Entrega(String mensagem, long instante) {
+            this.mensagem = mensagem;
+            this.instante = instante;
+        }
+    }
+
+    /**
+     * Construtor do estágio de entrega.
+     * @param cliente quem recebe as mensagens
+     * @param capacidade máximo de entregas pendentes, ou 0 para entregar direto na thread do núcleo
+     * @param executor executor dos callbacks, ou null para a fila ordenada com thread própria
+     * @param nome nome da thread de entrega no modo ordenado
+     */
+    public DeliveryDispatcher(IStableMulticast cliente, int capacidade, Executor executor, String nome) {
+        this(cliente, capacidade, executor, nome, null);
+    }
+
+    /**
+     * Construtor do estágio de entrega que nunca bloqueia o núcleo.
+     * @param cliente quem recebe as mensagens
+     * @param capacidade máximo de entregas pendentes, ou 0 para entregar direto na thread do núcleo
+     * @param executor executor dos callbacks, ou null para a fila ordenada com thread própria
+     * @param nome nome da thread de entrega no modo ordenado
+     * @param aoLiberar chamado quando o estágio deixa de estar cheio, ou null para que o núcleo
+     *                  espere por espaço
+     */
+    public DeliveryDispatcher(IStableMulticast cliente, int capacidade, Executor executor, String nome, Runnable aoLiberar) {
+        this.cliente = cliente;
+        this.executor = executor;
+        this.capacidade = capacidade;
+        this.aoLiberar = capacidade > 0 ? aoLiberar : null;
+        this.vagas = capacidade > 0 && this.aoLiberar == null ? new Semaphore(capacidade) : null;
+        if (capacidade > 0 && executor == null) {
+            this.thread = new Thread(this::executar, nome);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        } else {
+            this.thread = null;
+        }
+    }
+
+    /**
+     * Passa uma mensagem ao cliente. Só deve ser chamado pela thread do núcleo, na ordem causal.
+     * Bloqueia enquanto o limite de entregas pendentes estiver atingido, a menos que o estágio
+     * avise o núcleo quando houver espaço.
+     * @param mensagem mensagem a ser entregue
+     */
+    public void entregar(String mensagem) {
+        long agora = System.nanoTime();
+        if (capacidade == 0) {
+            registrarAtraso(agora, agora); // Sem estágio intermediário, não há atraso
+            chamarCliente(mensagem);
+            return;
+        }
+        if (aoLiberar != null) {
+            if (emCurso.getAndIncrement() >= capacidade) {
+                esperasPorVaga.increment(); // Aceita acima do limite: o núcleo já deveria ter pausado
+            }
+        } else if (!vagas.tryAcquire()) {
+            esperasPorVaga.increment();
+            vagas.acquireUninterruptibly();
+        }
+        Entrega entrega = new Entrega(mensagem, agora);
+        if (executor != null) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        registrarAtraso(entrega.instante, System.nanoTime());
+                        chamarCliente(entrega.mensagem);
+                    } finally {
+                        liberar(1);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // A mensagem já foi entregue pelo protocolo e não pode se perder: entrega aqui mesmo
+                System.err.println("Falha ao agendar a entrega da mensagem! Entregando na thread do núcleo.");
+                ex.printStackTrace();
+                try {
+                    registrarAtraso(entrega.instante, System.nanoTime());
+                    chamarCliente(entrega.mensagem);
+                } finally {
+                    liberar(1);
+                }
+            }
+            return;
+        }
+        fila.oferecer(entrega);
+        if (dormindo) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Indica se a thread atual está dentro de um deliver. Ali, esperar por um envio pode travar
+     * o núcleo: no modo direto ele é a própria thread, e nos demais pode estar esperando vaga.
+     * @return true se chamado de dentro de um callback de entrega
+     */
+    static boolean emCallback() {
+        return EM_CALLBACK.get() != null;
+    }
+
+    /**
+     * Indica se o limite de entregas pendentes foi atingido. Só pode ser verdadeiro no estágio
+     * que nunca bloqueia, cujo núcleo deve então deixar de receber até ser avisado.
+     * @return true se o núcleo deve pausar a recepção
+     */
+    public boolean cheio() {
+        return aoLiberar != null && emCurso.get() >= capacidade;
+    }
+
+    /**
+     * Retorna quantas entregas foram liberadas pelo núcleo e ainda não terminaram.
+     * @return entregas pendentes, sempre 0 no modo direto
+     */
+    public int pendentes() {
+        if (aoLiberar != null) {
+            return emCurso.get();
+        }
+        return vagas == null ? 0 : capacidade - vagas.availablePermits();
+    }
+
+    /**
+     * Retorna quantas mensagens já foram passadas ao cliente.
+     * @return total de entregas iniciadas
+     */
+    public long entregues() {
+        return entregues.sum();
+    }
+
+    /**
+     * Retorna o atraso médio entre a liberação de uma mensagem pelo núcleo e o início do seu callback.
+     * @return atraso médio em nanossegundos
+     */
+    public long atrasoMedioNanos() {
+        long total = entregues.sum();
+        return total == 0 ? 0 : atrasoTotalNanos.sum() / total;
+    }
+
+    /**
+     * Retorna o maior atraso já observado entre a liberação e o início do callback.
+     * @return atraso máximo em nanossegundos
+     */
+    public long atrasoMaximoNanos() {
+        return atrasoMaximoNanos.get();
+    }
+
+    /**
+     * Retorna quantas vezes o núcleo encontrou o estágio de entrega cheio: esperou por espaço ou,
+     * no estágio que nunca bloqueia, entregou acima do limite.
+     * @return número de esperas
+     */
+    public long esperasPorVaga() {
+        return esperasPorVaga.sum();
+    }
+
+    /**
+     * Encerra a thread de entrega depois de entregar o que já estava na fila, esperando até
+     * {@link #TEMPO_MAXIMO_ENCERRAMENTO_MS}. O executor informado não é encerrado.
+     */
+    @Override
+    public void close() {
+        encerrado = true;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TEMPO_MAXIMO_ENCERRAMENTO_MS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Corpo da thread de entrega do modo ordenado: retira da fila tudo o que estiver disponível,
+     * até o tamanho máximo do lote, e passa ao cliente em uma única chamada.
+     */
+    private void executar() {
+        List<String> lote = new ArrayList<>();
+        while (true) {
+            long agora = System.nanoTime();
+            Entrega entrega;
+            while (lote.size() < MAXIMO_POR_LOTE && (entrega = fila.retirar()) != null) {
+                registrarAtraso(entrega.instante, agora);
+                lote.add(entrega.mensagem);
+            }
+            if (!lote.isEmpty()) {
+                EM_CALLBACK.set(Boolean.TRUE);
+                try {
+                    if (lote.size() == 1) {
+                        cliente.deliver(lote.get(0));
+                    } else {
+                        cliente.deliver(lote);
+                    }
+                } catch (RuntimeException ex) {
+                    System.err.println("Falha na entrega das mensagens ao cliente!");
+                    ex.printStackTrace();
+                } finally {
+                    EM_CALLBACK.remove();
+                }
+                liberar(lote.size());
+                lote.clear();
+                continue;
+            }
+            if (encerrado) {
+                return;
+            }
+            dormindo = true;
+            if (fila.vazia() && !encerrado) {
+                LockSupport.park(this);
+            }
+            dormindo = false;
+        }
+    }
+
+    /**
+     * Devolve as vagas das entregas concluídas e avisa o núcleo se o estágio deixou de estar cheio.
+     */
+    private void liberar(int quantidade) {
+        if (aoLiberar == null) {
+            vagas.release(quantidade);
+            return;
+        }
+        int antes = emCurso.getAndAdd(-quantidade);
+        if (antes >= capacidade && antes - quantidade < capacidade) {
+            aoLiberar.run();
+        }
+    }
+
+    private void chamarCliente(String mensagem) {
+        EM_CALLBACK.set(Boolean.TRUE);
+        try {
+            cliente.deliver(mensagem);
+        } catch (RuntimeException ex) {
+            System.err.println("Falha na entrega da mensagem ao cliente!");
+            ex.printStackTrace();
+        } finally {
+            EM_CALLBACK.remove();
+        }
+    }
+
+    private void registrarAtraso(long liberacao, long inicio) {
+        long atraso = inicio - liberacao;
+        entregues.increment();
+        atrasoTotalNanos.add(atraso);
+        atrasoMaximoNanos.accumulateAndGet(atraso, Math::max);
+    }
+}
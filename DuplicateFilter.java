@@ -0,0 +1,128 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filtro de duplicatas das mensagens "msg", consultado na recepção antes de o texto e o
+ * timestamp serem decodificados.
+ *
+ * A recepção só consulta o filtro; quem marca as sequências é o núcleo, ao entregar cada
+ * mensagem. Uma cópia que chega e é descartada antes da entrega (por exemplo, porque a fila de
+ * reconstrução do remetente estava cheia) não deixa marca, e a retransmissão pedida por NACK
+ * ainda passa.
+ *
+ * Para cada remetente é mantida uma janela deslizante de {@link #TAMANHO_JANELA} sequências,
+ * terminando na maior já entregue, guardada como um bitmap circular: o bit da sequência s fica
+ * na posição s módulo o tamanho da janela. Consultar e marcar uma sequência custa O(1), e a
+ * memória por remetente é fixa. Quando uma sequência maior é entregue, a janela avança e os
+ * bits das sequências que saíram dela são zerados.
+ *
+ * Sequências anteriores à janela não são rejeitadas: o filtro já não sabe se elas chegaram, e
+ * uma retransmissão de uma mensagem perdida há muito tempo precisa passar. As cópias dessas
+ * mensagens ainda são descartadas depois, pela contagem de entregas da matriz.
+ */
+class DuplicateFilter {
+
+    // Sequências cobertas pela janela de cada remetente; múltiplo de 64
+    static final int TAMANHO_JANELA = 1024;
+
+    /**
+     * Janela de um remetente.
+     */
+    private static final class Janela {
+        final long[] bits = new long[TAMANHO_JANELA / 64];
+        int maior = -1; // Maior sequência já vista
+    }
+
+    // Janelas indexadas pelo ID do remetente
+    private Janela[] janelas = new Janela[4];
+    private final LongAdder descartadas;
+
+    /**
+     * Construtor do filtro.
+     * @param descartadas contador incrementado a cada duplicata rejeitada
+     */
+    public DuplicateFilter(LongAdder descartadas) {
+        this.descartadas = descartadas;
+    }
+
+    /**
+     * Verifica se uma mensagem já foi entregue, contando-a como descartada em caso positivo.
+     * @param remetente ID do remetente
+     * @param sequencia sequência da mensagem, ou seja, a entrada do remetente no seu timestamp
+     * @return true se a mensagem já foi entregue e a cópia deve ser descartada
+     */
+    public synchronized boolean duplicada(int remetente, int sequencia) {
+        if (remetente < 0 || sequencia < 0 || remetente >= janelas.length || janelas[remetente] == null) {
+            return false; // Remetente sem ID, sequência inválida ou nada entregue dele ainda
+        }
+        Janela janela = janelas[remetente];
+        if (sequencia > janela.maior || janela.maior - sequencia >= TAMANHO_JANELA || !marcada(janela, sequencia)) {
+            return false;
+        }
+        descartadas.increment();
+        return true;
+    }
+
+    /**
+     * Registra a entrega de uma mensagem, para que as próximas cópias dela sejam descartadas.
+     * @param remetente ID do remetente
+     * @param sequencia sequência da mensagem entregue
+     */
+    public synchronized void registrar(int remetente, int sequencia) {
+        if (remetente < 0 || sequencia < 0) {
+            return;
+        }
+        if (remetente >= janelas.length) {
+            janelas = Arrays.copyOf(janelas, Math.max(remetente + 1, janelas.length * 2));
+        }
+        Janela janela = janelas[remetente];
+        if (janela == null) {
+            janela = new Janela();
+            janelas[remetente] = janela;
+        }
+
+        if (sequencia > janela.maior) {
+            avancar(janela, sequencia);
+        } else if (janela.maior - sequencia >= TAMANHO_JANELA) {
+            return; // Anterior à janela
+        }
+        janela.bits[(sequencia & (TAMANHO_JANELA - 1)) >>> 6] |= 1L << sequencia;
+    }
+
+    /**
+     * Descarta a janela de um remetente que saiu do grupo.
+     * @param remetente ID do remetente
+     */
+    public synchronized void descartarRemetente(int remetente) {
+        if (remetente >= 0 && remetente < janelas.length) {
+            janelas[remetente] = null;
+        }
+    }
+
+    /**
+     * Descarta as janelas de todos os remetentes.
+     */
+    public synchronized void limpar() {
+        Arrays.fill(janelas, null);
+    }
+
+    private static boolean marcada(Janela janela, int sequencia) {
+        return (janela.bits[(sequencia & (TAMANHO_JANELA - 1)) >>> 6] & (1L << sequencia)) != 0;
+    }
+
+    /**
+     * Avança a janela até a sequência informada, zerando os bits das sequências entre a maior
+     * anterior e a nova, que passam a representar posições ainda não vistas.
+     */
+    private static void avancar(Janela janela, int sequencia) {
+        long salto = (long) sequencia - janela.maior;
+        if (salto >= TAMANHO_JANELA) {
+            Arrays.fill(janela.bits, 0L);
+        } else {
+            for (int s = janela.maior + 1; s <= sequencia; s++) {
+                janela.bits[(s & (TAMANHO_JANELA - 1)) >>> 6] &= ~(1L << s);
+            }
+        }
+        janela.maior = sequencia;
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Laço de eventos de thread única sobre canais DatagramChannel não bloqueantes e um Selector.
+ * Vários canais (de um ou mais nós StableMulticast) podem ser registrados no mesmo laço.
+ *
+ * A recepção reutiliza um único ByteBuffer direto: a cada despertar do Selector, cada canal
+ * pronto é drenado em lote até esvaziar ou atingir o limite do lote, sem alocar nada por pacote.
+ * O buffer entregue ao receptor só é válido durante a chamada.
+ */
+class EventLoop implements Closeable {
+
+    /**
+     * Recebe os datagramas lidos de um canal registrado.
+     */
+    interface Receptor {
+        /**
+         * Processa um datagrama recebido.
+         * @param dados conteúdo do datagrama, entre a posição e o limite do buffer
+         * @param origem endereço de quem enviou
+         */
+        void receber(ByteBuffer dados, SocketAddress origem);
+    }
+
+    // Maior datagrama UDP possível
+    private static final int TAMANHO_MAXIMO_DATAGRAMA = 64 * 1024;
+
+    // Máximo de datagramas lidos de um mesmo canal a cada despertar, para não monopolizar o laço
+    private static final int TAMANHO_LOTE = 64;
+
+    private final Selector seletor;
+    private final ByteBuffer bufferRecepcao = ByteBuffer.allocateDirect(TAMANHO_MAXIMO_DATAGRAMA);
+    private final Queue<Runnable> tarefasPendentes = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean executando = true;
+
+    /**
+     * Cria e inicia o laço de eventos em uma thread própria.
+     * @param nome nome da thread do laço
+     * @throws IOException se o Selector não puder ser aberto
+     */
+    public EventLoop(String nome) throws IOException {
+        this.seletor = Selector.open();
+        this.thread = new Thread(this::executar, nome);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Registra um canal no laço. Pode ser chamado de qualquer thread.
+     * @param canal canal de datagramas a ser ouvido; será colocado em modo não bloqueante
+     * @param receptor quem processa os datagramas do canal
+     * @throws IOException se o canal não puder ser configurado
+     */
+    public void registrar(DatagramChannel canal, Receptor receptor) throws IOException {
+        canal.configureBlocking(false);
+        executarNoLaco(() -> {
+            try {
+                canal.register(seletor, SelectionKey.OP_READ, receptor);
+            } catch (ClosedChannelException ex) {
+                System.err.println("Canal fechado antes de ser registrado!");
+            }
+        });
+    }
+
+    /**
+     * Agenda uma tarefa para ser executada na thread do laço.
+     * @param tarefa tarefa a executar
+     */
+    public void executarNoLaco(Runnable tarefa) {
+        tarefasPendentes.add(tarefa);
+        seletor.wakeup();
+    }
+
+    /**
+     * Encerra o laço de eventos. Os canais registrados não são fechados.
+     */
+    @Override
+    public void close() {
+        executando = false;
+        seletor.wakeup();
+    }
+
+    /**
+     * Corpo da thread do laço: espera canais prontos e os drena em lote.
+     */
+    private void executar() {
+        try {
+            while (executando) {
+                seletor.select();
+
+                Runnable tarefa;
+                while ((tarefa = tarefasPendentes.poll()) != null) {
+                    try {
+                        tarefa.run();
+                    } catch (RuntimeException ex) {
+                        // Uma tarefa com problema não pode derrubar o laço dos canais registrados
+                        System.err.println("Falha ao executar uma tarefa do laço de eventos!");
+                        ex.printStackTrace();
+                    }
+                }
+
+                Iterator<SelectionKey> prontas = seletor.selectedKeys().iterator();
+                while (prontas.hasNext()) {
+                    SelectionKey chave = prontas.next();
+                    prontas.remove();
+                    if (chave.isValid() && chave.isReadable()) {
+                        drenar((DatagramChannel) chave.channel(), (Receptor) chave.attachment());
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Erro no laço de eventos!");
+            ex.printStackTrace();
+        } finally {
+            try {
+                seletor.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Lê até um lote de datagramas de um canal pronto.
+     * @param canal canal a ser drenado
+     * @param receptor quem processa cada datagrama
+     */
+    private void drenar(DatagramChannel canal, Receptor receptor) {
+        for (int lidos = 0; lidos < TAMANHO_LOTE; lidos++) {
+            SocketAddress origem;
+            bufferRecepcao.clear();
+            try {
+                origem = canal.receive(bufferRecepcao);
+            } catch (IOException ex) {
+                System.err.println("Falha ao receber a mensagem!");
+                ex.printStackTrace();
+                return;
+            }
+            if (origem == null) {
+                return; // Canal esvaziado
+            }
+            bufferRecepcao.flip();
+            try {
+                receptor.receber(bufferRecepcao, origem);
+            } catch (RuntimeException ex) {
+                // Um datagrama com problema não pode derrubar o laço dos demais canais
+                System.err.println("Erro ao processar mensagem recebida!");
+                ex.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Remonta as mensagens que foram divididas em fragmentos do tamanho da MTU.
+ *
+ * Cada fragmento traz o ID da mensagem, o seu índice e o total de fragmentos; como todos,
+ * exceto o último, têm exatamente {@link MessageCodec#DADOS_POR_FRAGMENTO} bytes, o índice
+ * define diretamente a posição dos dados. A remontagem usa buffers reaproveitados de um pool
+ * por classe de tamanho, e remontagens incompletas são descartadas após o tempo limite ou
+ * quando há remontagens demais em andamento.
+ */
+class FragmentReassembler {
+
+    // Classes de tamanho do pool, em potências de dois: de 2 KiB até a menor que comporta o
+    // maior número de fragmentos cheios, que passa um pouco de 64 KiB
+    private static final int MENOR_CLASSE = 11;
+    private static final int MAIOR_CLASSE =
+            32 - Integer.numberOfLeadingZeros(MessageCodec.MAXIMO_FRAGMENTOS * MessageCodec.DADOS_POR_FRAGMENTO - 1);
+    private static final int BUFFERS_POR_CLASSE = 8;
+
+    // Remontagens incompletas simultâneas; ao passar disso, a mais antiga é descartada
+    static final int MAXIMO_EM_ANDAMENTO = 64;
+
+    private final long tempoLimiteNanos;
+    // Em ordem de início, para descartar a mais antiga quando o limite é atingido
+    private final Map<Chave, Remontagem> emAndamento = new LinkedHashMap<>();
+    private final List<ArrayDeque<ByteBuffer>> livres = new ArrayList<>();
+    private long ultimaLimpeza = System.nanoTime();
+
+    /**
+     * Construtor do remontador.
+     * @param tempoLimiteMs tempo máximo para que todos os fragmentos de uma mensagem cheguem
+     */
+    public FragmentReassembler(long tempoLimiteMs) {
+        this.tempoLimiteNanos = tempoLimiteMs * 1_000_000L;
+        for (int classe = MENOR_CLASSE; classe <= MAIOR_CLASSE; classe++) {
+            livres.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Recebe um fragmento e, se ele completar a mensagem, retorna os dados remontados.
+     * O buffer retornado deve ser devolvido com {@link #liberar} depois de decodificado.
+     * @param fragmento datagrama de fragmento, entre a posição e o limite do buffer
+     * @param origem endereço de quem enviou o fragmento
+     * @return a mensagem completa entre a posição e o limite, ou null se ainda faltam fragmentos
+     * @throws IllegalArgumentException se o fragmento estiver malformado
+     */
+    public synchronized ByteBuffer receber(ByteBuffer fragmento, SocketAddress origem) {
+        long agora = System.nanoTime();
+        if (agora - ultimaLimpeza > tempoLimiteNanos) {
+            descartarExpiradas(agora);
+            ultimaLimpeza = agora;
+        }
+
+        int[] cabecalho = MessageCodec.lerCabecalhoFragmento(fragmento);
+        int id = cabecalho[0];
+        int indice = cabecalho[1];
+        int total = cabecalho[2];
+        int tamanho = fragmento.remaining();
+        if (total <= 1 || total > MessageCodec.MAXIMO_FRAGMENTOS || indice < 0 || indice >= total
+                || tamanho > MessageCodec.DADOS_POR_FRAGMENTO
+                || (indice < total - 1 && tamanho != MessageCodec.DADOS_POR_FRAGMENTO)) {
+            throw new IllegalArgumentException("Fragmento malformado.");
+        }
+
+        Chave chave = new Chave(origem, id);
+        Remontagem remontagem = emAndamento.get(chave);
+        if (remontagem == null) {
+            if (emAndamento.size() >= MAXIMO_EM_ANDAMENTO) {
+                descartarMaisAntiga();
+            }
+            remontagem = new Remontagem(obterBuffer(total * MessageCodec.DADOS_POR_FRAGMENTO), total, agora);
+            emAndamento.put(chave, remontagem);
+        } else if (remontagem.total != total) {
+            throw new IllegalArgumentException("Fragmento com total inconsistente.");
+        }
+        if (remontagem.recebidos.get(indice)) {
+            return null; // Fragmento duplicado
+        }
+
+        int deslocamento = indice * MessageCodec.DADOS_POR_FRAGMENTO;
+        ByteBuffer destino = remontagem.dados;
+        fragmento.get(destino.array(), deslocamento, tamanho);
+        remontagem.recebidos.set(indice);
+        if (indice == total - 1) {
+            remontagem.tamanho = deslocamento + tamanho;
+        }
+        if (remontagem.recebidos.cardinality() < total) {
+            return null;
+        }
+
+        emAndamento.remove(chave);
+        destino.clear();
+        destino.limit(remontagem.tamanho);
+        return destino;
+    }
+
+    /**
+     * Devolve ao pool um buffer retornado por {@link #receber}.
+     * @param buffer buffer de uma mensagem remontada
+     */
+    public synchronized void liberar(ByteBuffer buffer) {
+        int classe = classeDe(buffer.capacity());
+        if (classe >= 0 && livres.get(classe).size() < BUFFERS_POR_CLASSE) {
+            buffer.clear();
+            livres.get(classe).push(buffer);
+        }
+    }
+
+    /**
+     * Retorna a quantidade de mensagens com remontagem em andamento.
+     * @return número de remontagens incompletas
+     */
+    public synchronized int emAndamento() {
+        return emAndamento.size();
+    }
+
+    private void descartarExpiradas(long agora) {
+        Iterator<Remontagem> iterador = emAndamento.values().iterator();
+        while (iterador.hasNext()) {
+            Remontagem remontagem = iterador.next();
+            if (agora - remontagem.inicio > tempoLimiteNanos) {
+                iterador.remove();
+                liberar(remontagem.dados);
+            }
+        }
+    }
+
+    private void descartarMaisAntiga() {
+        Iterator<Remontagem> iterador = emAndamento.values().iterator();
+        Remontagem maisAntiga = iterador.next();
+        iterador.remove();
+        liberar(maisAntiga.dados);
+    }
+
+    private ByteBuffer obterBuffer(int tamanho) {
+        int classe = Math.max(MENOR_CLASSE, 32 - Integer.numberOfLeadingZeros(tamanho - 1)) - MENOR_CLASSE;
+        ByteBuffer buffer = livres.get(classe).poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(1 << (classe + MENOR_CLASSE));
+    }
+
+    private static int classeDe(int capacidade) {
+        int classe = Integer.numberOfTrailingZeros(capacidade) - MENOR_CLASSE;
+        return Integer.bitCount(capacidade) == 1 && classe >= 0 && classe <= MAIOR_CLASSE - MENOR_CLASSE ? classe : -1;
+    }
+
+    /**
+     * Identifica uma mensagem fragmentada pelo endereço de origem e pelo ID atribuído pelo remetente.
+     */
+    private static final class Chave {
+        private final SocketAddress origem;
+        private final int id;
+
+        Chave(SocketAddress origem, int id) {
+            this.origem = origem;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object outro) {
+            if (!(outro instanceof Chave)) {
+                return false;
+            }
+            Chave chave = (Chave) outro;
+            return id == chave.id && Objects.equals(origem, chave.origem);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(origem) + id;
+        }
+    }
+
+    /**
+     * Estado de uma mensagem em remontagem.
+     */
+    private static final class Remontagem {
+        final ByteBuffer dados;
+        final int total;
+        final long inicio;
+        final BitSet recebidos;
+        int tamanho;
+
+        Remontagem(ByteBuffer dados, int total, long inicio) {
+            this.dados = dados;
+            this.total = total;
+            this.inicio = inicio;
+            this.recebidos = new BitSet(total);
+        }
+    }
+}
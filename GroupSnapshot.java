@@ -0,0 +1,129 @@
+import java.util.*;
+
+/**
+ * Retrato imutável do estado do grupo publicado pelo núcleo do protocolo, para leitura por
+ * outras threads sem disputar as estruturas que só o núcleo altera. Serve também de diagnóstico:
+ * traz quantas mensagens de cada remetente aguardam a estabilidade e há quanto tempo a mais
+ * antiga delas espera.
+ *
+ * Os arrays e listas são cópias feitas no momento da publicação e nunca mudam depois dela.
+ */
+class GroupSnapshot {
+
+    // Retrato de um nó que ainda não publicou nenhum estado
+    static final GroupSnapshot VAZIO = new GroupSnapshot(List.of(), new int[0], new int[0][], new int[0], 0, 0);
+
+    private final List<ClientInfo> clientes;
+    private final int[] ids;
+    private final int[][] matriz;
+    private final int[] profundidades;
+    private final int tamanhoBuffer;
+    private final long idadeMaisAntiga;
+    private final long instante;
+
+    /**
+     * Construtor do retrato. Os argumentos passam a pertencer a ele e não devem ser alterados.
+     * @param clientes membros do grupo
+     * @param ids IDs dos membros na ordem das linhas e colunas da matriz
+     * @param matriz cópia da matriz de relógios, indexada pela posição em ids
+     * @param profundidades mensagens de cada membro no buffer, indexadas pela posição em ids
+     * @param tamanhoBuffer quantidade de mensagens ainda não estáveis
+     * @param idadeMaisAntiga há quanto tempo a mensagem não estável mais antiga espera, em nanossegundos
+     */
+    GroupSnapshot(List<ClientInfo> clientes, int[] ids, int[][] matriz, int[] profundidades,
+            int tamanhoBuffer, long idadeMaisAntiga) {
+        this.clientes = Collections.unmodifiableList(clientes);
+        this.ids = ids;
+        this.matriz = matriz;
+        this.profundidades = profundidades;
+        this.tamanhoBuffer = tamanhoBuffer;
+        this.idadeMaisAntiga = idadeMaisAntiga;
+        this.instante = System.nanoTime();
+    }
+
+    /**
+     * Retorna os membros do grupo no momento da publicação.
+     * @return lista imutável de membros
+     */
+    public List<ClientInfo> clientes() {
+        return clientes;
+    }
+
+    /**
+     * Retorna a quantidade de membros na matriz.
+     * @return número de linhas e colunas da matriz
+     */
+    public int tamanho() {
+        return ids.length;
+    }
+
+    /**
+     * Retorna o ID do membro de uma posição da matriz.
+     * @param posicao índice da linha ou coluna
+     * @return ID do membro
+     */
+    public int id(int posicao) {
+        return ids[posicao];
+    }
+
+    /**
+     * Obtém uma entrada da matriz de relógios.
+     * @param linha posição da linha
+     * @param coluna posição da coluna
+     * @return valor do relógio
+     */
+    public int relogio(int linha, int coluna) {
+        return matriz[linha][coluna];
+    }
+
+    /**
+     * Obtém quantas mensagens de um membro aguardavam a estabilidade no buffer.
+     * @param posicao índice do membro na matriz
+     * @return profundidade do buffer para esse remetente
+     */
+    public int profundidade(int posicao) {
+        return profundidades[posicao];
+    }
+
+    /**
+     * Retorna há quanto tempo a mensagem não estável mais antiga esperava, no momento da publicação.
+     * @return idade em nanossegundos, ou 0 se o buffer estava vazio
+     */
+    public long idadeMaisAntigaNanos() {
+        return idadeMaisAntiga;
+    }
+
+    /**
+     * Retorna quantas mensagens estavam no buffer. O conteúdo delas fica fora do heap e não é copiado
+     * para o retrato.
+     * @return quantidade de mensagens não estáveis
+     */
+    public int tamanhoBuffer() {
+        return tamanhoBuffer;
+    }
+
+    /**
+     * Retorna o instante da publicação.
+     * @return instante em nanossegundos, na escala de System.nanoTime
+     */
+    public long instante() {
+        return instante;
+    }
+
+    /**
+     * Resume o retrato em texto: a profundidade do buffer por remetente, a idade da mensagem
+     * mais antiga e a matriz de relógios, uma linha por membro.
+     * @return diagnóstico formatado
+     */
+    @Override
+    public String toString() {
+        StringBuilder texto = new StringBuilder();
+        texto.append("Buffer: ").append(tamanhoBuffer).append(" mensagens, mais antiga há ")
+                .append(idadeMaisAntiga / 1_000_000).append(" ms\n");
+        for (int linha = 0; linha < ids.length; linha++) {
+            texto.append("  ").append(ids[linha]).append(": ").append(profundidades[linha]).append(" no buffer, relógios ")
+                    .append(Arrays.toString(matriz[linha])).append('\n');
+        }
+        return texto.toString();
+    }
+}
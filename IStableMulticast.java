@@ -1,7 +1,25 @@
+import java.util.List;
+
 /**
  * Interface que deve ser implementada por todo usuário do pacote StableMulticast.
  * Define o método deliver para entrega de mensagens.
  */
-interface IStableMulticast{
+public interface IStableMulticast{
+   /**
+    * Entrega uma mensagem liberada pelo protocolo. Pode chamar msend, que então só enfileira
+    * o envio; esperar pelo futuro de msendAsync aqui pode travar o núcleo do protocolo.
+    * @param msg mensagem pronta para entrega
+    */
    public void deliver(String msg);
-}
\ No newline at end of file
+
+   /**
+    * Entrega de uma só vez várias mensagens, na ordem causal. A implementação padrão entrega
+    * uma a uma; clientes que processam em lote podem sobrescrevê-la.
+    * @param msgs mensagens prontas para entrega, válidas apenas durante a chamada
+    */
+   default void deliver(List<String> msgs) {
+      for (String msg : msgs) {
+         deliver(msg);
+      }
+   }
+}
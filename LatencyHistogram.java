@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Histograma de latências log-linear, no estilo do HdrHistogram.
+ *
+ * Cada potência de dois é dividida em {@link #SUBFAIXAS} faixas lineares, então o limite de cada
+ * faixa difere do valor registrado em no máximo 1/{@link #SUBFAIXAS} (cerca de 3%), em qualquer
+ * escala, de nanossegundos a horas. As contagens ficam em um array fixo: registrar um valor é
+ * um cálculo de índice e um incremento atômico, sem alocação.
+ */
+class LatencyHistogram {
+
+    // 2^5 = 32 faixas lineares por potência de dois
+    private static final int BITS_SUBFAIXA = 5;
+    private static final int SUBFAIXAS = 1 << BITS_SUBFAIXA;
+
+    private final AtomicLongArray contagens = new AtomicLongArray((64 - BITS_SUBFAIXA) * SUBFAIXAS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder soma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    /**
+     * Registra um valor. Valores negativos, de relógios que recuaram, contam como zero.
+     * @param valor latência em nanossegundos
+     */
+    public void registrar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        contagens.incrementAndGet(indice(valor));
+        total.increment();
+        soma.add(valor);
+        if (valor > maximo.get()) {
+            maximo.accumulateAndGet(valor, Math::max);
+        }
+    }
+
+    /**
+     * Retorna quantos valores foram registrados.
+     * @return total de registros
+     */
+    public long contagem() {
+        return total.sum();
+    }
+
+    /**
+     * Retorna a média dos valores registrados.
+     * @return média em nanossegundos, ou 0 sem registros
+     */
+    public long media() {
+        long quantidade = total.sum();
+        return quantidade == 0 ? 0 : soma.sum() / quantidade;
+    }
+
+    /**
+     * Retorna o maior valor registrado.
+     * @return máximo em nanossegundos
+     */
+    public long maximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Estima um quantil pelo limite superior da faixa que o contém.
+     * @param quantil fração entre 0 e 1, por exemplo 0.99
+     * @return valor do quantil em nanossegundos, ou 0 sem registros
+     */
+    public long quantil(double quantil) {
+        long quantidade = 0;
+        for (int i = 0; i < contagens.length(); i++) {
+            quantidade += contagens.get(i);
+        }
+        if (quantidade == 0) {
+            return 0;
+        }
+        long alvo = Math.max(1, (long) Math.ceil(quantil * quantidade));
+        long acumulado = 0;
+        for (int i = 0; i < contagens.length(); i++) {
+            acumulado += contagens.get(i);
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    /**
+     * Calcula a faixa de um valor: a primeira potência de dois é linear e exata; nas seguintes,
+     * os bits abaixo dos {@link #BITS_SUBFAIXA} mais significativos são descartados.
+     */
+    private static int indice(long valor) {
+        if (valor < SUBFAIXAS) {
+            return (int) valor;
+        }
+        int deslocamento = 63 - Long.numberOfLeadingZeros(valor) - BITS_SUBFAIXA;
+        int subfaixa = (int) (valor >>> deslocamento) - SUBFAIXAS;
+        return (deslocamento + 1) * SUBFAIXAS + subfaixa;
+    }
+
+    /**
+     * Calcula o maior valor que cai na faixa informada.
+     */
+    private static long limiteSuperior(int indice) {
+        int faixa = indice / SUBFAIXAS;
+        int subfaixa = indice % SUBFAIXAS;
+        if (faixa == 0) {
+            return subfaixa;
+        }
+        return ((long) (SUBFAIXAS + subfaixa + 1) << (faixa - 1)) - 1;
+    }
+}
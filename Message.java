@@ -0,0 +1,185 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Representa uma mensagem trocada entre clientes em um sistema de multicast.
+ */
+class Message implements Serializable {
+    private int[] timestamp;       // Vetor de relógios da mensagem, indexado pelo ID dos membros
+    private String textoMensagem;  // Conteúdo da mensagem
+    private String comando;        // Comando associado à mensagem
+    private ClientInfo cliente;    // Informações do cliente que enviou a mensagem
+    private ArrayList<ClientInfo> listaClientes; // Lista de clientes conectados
+    private int[] argumentos;      // Parâmetros numéricos de comandos de controle
+    private int[][] matriz;        // Linhas da matriz de relógios na transferência de estado, indexadas por ID
+    private ArrayList<Message> mensagens; // Mensagens ainda não estáveis na transferência de estado
+    private int[][] vetoresBase;   // Último vetor de cada remetente na transferência de estado, indexado por ID
+    private int[] diferenca;       // Timestamp diferencial recebido, até ser reconstruído
+    private transient long instanteLocal; // Instante local do envio ou da chegada, para as métricas; não trafega
+
+    /**
+     * Construtor para criar uma nova mensagem.
+     * @param timestamp Array de timestamps
+     * @param textoMensagem Conteúdo da mensagem
+     * @param cliente Informações do cliente
+     * @param comando Comando associado
+     */
+    public Message(int[] timestamp, String textoMensagem, ClientInfo cliente, String comando) {
+        this.timestamp = timestamp;
+        this.textoMensagem = textoMensagem;
+        this.cliente = cliente;
+        this.comando = comando;
+    }
+
+     /**
+     * Retorna o conteúdo da mensagem.
+     * @return Conteúdo da mensagem
+     */
+    public String message(){
+        return textoMensagem;
+    }
+
+     /**
+     * Retorna as informações do cliente que enviou a mensagem.
+     * @return Informações do cliente
+     */
+    public ClientInfo cliente(){
+        return cliente;
+    }
+
+    /**
+     * Retorna o array de timestamps da mensagem.
+     * @return Array de timestamps
+     */
+    public int[] timestamp(){
+        return timestamp;
+    }
+
+    /**
+     * Define o array de timestamps, depois de reconstruído a partir de um timestamp diferencial.
+     * @param timestamp Vetor de relógios completo
+     */
+    public void setTimestamp(int[] timestamp){
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Define o timestamp diferencial recebido.
+     * @param diferenca Diferença na forma [sequência, id, relógio, id, relógio, ...]
+     */
+    public void setDelta(int[] diferenca){
+        this.diferenca = diferenca;
+    }
+
+    /**
+     * Retorna o timestamp diferencial recebido, ou null se a mensagem chegou com o vetor completo.
+     * @return Diferença na forma [sequência, id, relógio, id, relógio, ...]
+     */
+    public int[] getDelta(){
+        return this.diferenca;
+    }
+
+    /**
+     * Define o instante local em que a mensagem foi enviada por este nó ou chegou a ele.
+     * @param instante Instante em nanossegundos, na escala de System.nanoTime
+     */
+    public void setLocalTime(long instante){
+        this.instanteLocal = instante;
+    }
+
+    /**
+     * Retorna o instante local do envio ou da chegada da mensagem.
+     * @return Instante em nanossegundos, ou 0 se a mensagem não passou pelo envio nem pela recepção deste nó
+     */
+    public long getLocalTime(){
+        return this.instanteLocal;
+    }
+
+     /**
+     * Retorna o comando associado à mensagem.
+     * @return Comando
+     */
+    public String command(){
+        return comando;
+    }
+
+    /**
+     * Define a lista de clientes conectados.
+     * @param listaClientes Lista de clientes
+     */
+    public void setClientList(ArrayList<ClientInfo> clientes){
+        this.listaClientes = clientes;
+    }
+    
+    /**
+     * Retorna a lista de clientes conectados.
+     * @return Lista de clientes
+     */
+    public ArrayList<ClientInfo> getClientList(){
+        return this.listaClientes;
+    }
+
+    /**
+     * Define os parâmetros numéricos de um comando de controle.
+     * @param argumentos Parâmetros do comando
+     */
+    public void setArguments(int... argumentos){
+        this.argumentos = argumentos;
+    }
+
+    /**
+     * Retorna os parâmetros numéricos de um comando de controle.
+     * @return Parâmetros do comando
+     */
+    public int[] getArguments(){
+        return this.argumentos;
+    }
+
+    /**
+     * Define as linhas da matriz de relógios enviadas na transferência de estado.
+     * @param matriz Linhas indexadas pelo ID do membro, com null para IDs sem membro
+     */
+    public void setMatrix(int[][] matriz){
+        this.matriz = matriz;
+    }
+
+    /**
+     * Retorna as linhas da matriz de relógios enviadas na transferência de estado.
+     * @return Linhas indexadas pelo ID do membro
+     */
+    public int[][] getMatrix(){
+        return this.matriz;
+    }
+
+    /**
+     * Define as mensagens não estáveis enviadas na transferência de estado.
+     * @param mensagens Mensagens "msg" do buffer
+     */
+    public void setMessages(ArrayList<Message> mensagens){
+        this.mensagens = mensagens;
+    }
+
+    /**
+     * Retorna as mensagens não estáveis enviadas na transferência de estado.
+     * @return Mensagens "msg" do buffer
+     */
+    public ArrayList<Message> getMessages(){
+        return this.mensagens;
+    }
+
+    /**
+     * Define o último vetor conhecido de cada remetente, enviado na transferência de estado.
+     * @param vetoresBase Vetores indexados pelo ID do remetente, com null para remetentes sem vetor
+     */
+    public void setBaseVectors(int[][] vetoresBase){
+        this.vetoresBase = vetoresBase;
+    }
+
+    /**
+     * Retorna o último vetor conhecido de cada remetente, enviado na transferência de estado.
+     * @return Vetores indexados pelo ID do remetente
+     */
+    public int[][] getBaseVectors(){
+        return this.vetoresBase;
+    }
+}
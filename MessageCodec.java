@@ -0,0 +1,768 @@
+import java.net.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Codec binário compacto e versionado para as mensagens trocadas pelo StableMulticast.
+ * Substitui a serialização Java: não carrega descritores de classe, codifica os relógios
+ * como varints e identifica o remetente apenas pelo seu ID.
+ *
+ * Formato (versão 3):
+ *   cabeçalho -> [magia:1][versão:1][comando:1][tópico:varint][remetente:varint]
+ *   vetor     -> [n:varint][p:varint][(salto:varint, relógio:varint) x p], com as p entradas
+ *                não nulas de um vetor de n posições; o ID de cada uma é o da anterior mais o
+ *                salto mais 1. IDs de membros que já saíram têm relógio nulo na linha copiada
+ *                da matriz e não ocupam espaço
+ *   msg       -> [timestamp][texto:utf8]
+ *   timestamp -> completo: [vetor], com n >= 0
+ *                diferencial: [-(m+1):varint][sequência:varint][(id:varint, relógio:varint) x m],
+ *                com as entradas que mudaram desde a mensagem anterior do remetente
+ *   join      -> [cliente]
+ *   hello     -> [entregas:vetor][m:varint][cliente x m][próximo id:varint]
+ *   lote      -> [k:2][registro x k], com registro -> [timestamp][texto:utf8]
+ *   fragmento -> [id:varint][índice:varint][total:varint][dados até o fim do datagrama]
+ *   nack      -> [entregas:vetor][membro:varint][de:varint][até:varint]
+ *   heartbeat -> [entregas:vetor]
+ *   leave     -> [membro:varint]
+ *   estado    -> [parte:varint][total:varint][matriz:linhas][bases:linhas][k:varint][registro x k],
+ *                com linhas -> [m:varint][(id:varint, vetor) x m]
+ *                e registro -> [remetente:varint][timestamp:vetor][texto:utf8]
+ *   cliente   -> [id:varint][nome:utf8][ip:bytes][porta:varint]
+ *   utf8/bytes-> [tamanho:varint][dados]
+ * Todos os inteiros usam codificação zigzag, de forma que -1 ocupa um único byte.
+ *
+ * O tópico identifica o grupo a que o datagrama pertence quando vários grupos dividem o mesmo
+ * transporte (ver {@link TopicHost}). A versão 1, sem o tópico, ainda é lida como tópico 0,
+ * para que logs gravados antes dela continuem sendo reproduzidos. As versões 1 e 2 trazem os
+ * vetores densos, [n:varint][relógio:varint x n], e também continuam sendo lidas.
+ */
+class MessageCodec {
+
+    // Primeiro byte de todo datagrama no formato binário (a serialização Java começa com 0xAC)
+    static final byte MAGIA = 0x53;
+    static final byte VERSAO = 3;
+    static final byte VERSAO_VETORES_DENSOS = 2;
+    static final byte VERSAO_SEM_TOPICO = 1;
+
+    // Códigos dos comandos no fio
+    static final byte COMANDO_MSG = 1;
+    static final byte COMANDO_JOIN = 2;
+    static final byte COMANDO_HELLO = 3;
+    static final byte COMANDO_LOTE = 4;
+    static final byte COMANDO_FRAGMENTO = 5;
+    static final byte COMANDO_NACK = 6;
+    static final byte COMANDO_HEARTBEAT = 7;
+    static final byte COMANDO_LEAVE = 8;
+    static final byte COMANDO_ESTADO = 9;
+
+    // Datagramas maiores que a MTU são divididos em fragmentos com esta quantidade de dados,
+    // deixando folga para o cabeçalho do fragmento
+    static final int TAMANHO_MTU = 1400;
+    static final int DADOS_POR_FRAGMENTO = TAMANHO_MTU - 32;
+    static final int MAXIMO_FRAGMENTOS = (64 * 1024 + DADOS_POR_FRAGMENTO - 1) / DADOS_POR_FRAGMENTO;
+
+    // Maior ID de membro aceito nos vetores e nas matrizes; o coordenador não admite além dele
+    static final int MAXIMO_ID_MEMBRO = 0xFFFF;
+
+    // Tópico dos datagramas sem tópico no cabeçalho e maior tópico aceito
+    static final int TOPICO_PADRAO = 0;
+    static final int MAXIMO_TOPICO = 0xFFFF;
+
+    // A quantidade de registros de um lote ocupa 2 bytes fixos
+    static final int MAXIMO_REGISTROS_LOTE = 0xFFFF;
+
+    // Resolve o ID do remetente para as informações do cliente já conhecidas
+    private final IntFunction<ClientInfo> resolvedor;
+
+    // Tópico escrito no cabeçalho de tudo o que este codec codifica
+    private final int topico;
+
+    /**
+     * Construtor do codec, para o tópico padrão.
+     * @param resolvedor função que obtém as informações de um cliente a partir do seu ID
+     */
+    public MessageCodec(IntFunction<ClientInfo> resolvedor) {
+        this(resolvedor, TOPICO_PADRAO);
+    }
+
+    /**
+     * Construtor do codec.
+     * @param resolvedor função que obtém as informações de um cliente a partir do seu ID
+     * @param topico tópico escrito no cabeçalho das mensagens codificadas
+     */
+    public MessageCodec(IntFunction<ClientInfo> resolvedor, int topico) {
+        if (topico < 0 || topico > MAXIMO_TOPICO) {
+            throw new IllegalArgumentException("Tópico inválido: " + topico);
+        }
+        this.resolvedor = resolvedor;
+        this.topico = topico;
+    }
+
+    /**
+     * Lê o tópico de um datagrama sem alterar a posição do buffer. Datagramas da versão 1 e
+     * da serialização Java não têm tópico e pertencem ao tópico padrão.
+     * @param dados datagrama recebido, entre a posição e o limite do buffer
+     * @return o tópico, ou -1 se o cabeçalho estiver corrompido
+     */
+    public static int lerTopico(ByteBuffer dados) {
+        if (!ehFormatoBinario(dados) || dados.remaining() < 2 || dados.get(dados.position() + 1) == VERSAO_SEM_TOPICO) {
+            return TOPICO_PADRAO;
+        }
+        ByteBuffer cabecalho = dados.duplicate();
+        try {
+            cabecalho.position(cabecalho.position() + 3);
+            int topico = lerInt(cabecalho);
+            return topico >= 0 && topico <= MAXIMO_TOPICO ? topico : -1;
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Verifica se os dados recebidos estão no formato binário deste codec.
+     * @param dados datagrama recebido, entre a posição e o limite do buffer
+     * @return true se o datagrama começa com o byte mágico do formato binário
+     */
+    public static boolean ehFormatoBinario(ByteBuffer dados) {
+        return dados.remaining() > 0 && dados.get(dados.position()) == MAGIA;
+    }
+
+    /**
+     * Verifica se o datagrama recebido é um fragmento de uma mensagem maior.
+     * @param dados datagrama recebido, entre a posição e o limite do buffer
+     * @return true se for um fragmento
+     */
+    public static boolean ehFragmento(ByteBuffer dados) {
+        return dados.remaining() > 2 && dados.get(dados.position() + 2) == COMANDO_FRAGMENTO;
+    }
+
+    /**
+     * Escreve o cabeçalho de um fragmento do tópico deste codec; os dados do fragmento vêm logo em seguida.
+     * @param destino buffer do datagrama do fragmento
+     * @param remetente ID do remetente
+     * @param id identificador da mensagem fragmentada, único por remetente
+     * @param indice posição do fragmento, a partir de 0
+     * @param total quantidade de fragmentos da mensagem
+     */
+    public void iniciarFragmento(ByteBuffer destino, int remetente, int id, int indice, int total) {
+        escreverCabecalho(destino, COMANDO_FRAGMENTO, remetente);
+        escreverInt(destino, id);
+        escreverInt(destino, indice);
+        escreverInt(destino, total);
+    }
+
+    /**
+     * Lê o cabeçalho de um fragmento, deixando o buffer posicionado no início dos dados.
+     * @param origem datagrama do fragmento
+     * @return vetor com o identificador da mensagem, o índice e o total de fragmentos
+     */
+    public static int[] lerCabecalhoFragmento(ByteBuffer origem) {
+        try {
+            if (lerCabecalho(origem) != COMANDO_FRAGMENTO) {
+                throw new IllegalArgumentException("Datagrama não é um fragmento.");
+            }
+            lerInt(origem); // Remetente: a remontagem usa o endereço de origem
+            return new int[] { lerInt(origem), lerInt(origem), lerInt(origem) };
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Datagrama truncado ou corrompido.", ex);
+        }
+    }
+
+    /**
+     * Codifica uma mensagem no buffer de destino, a partir da posição atual.
+     * @param mensagem mensagem a ser codificada
+     * @param destino buffer reutilizável onde os bytes serão escritos
+     */
+    public void codificar(Message mensagem, ByteBuffer destino) {
+        codificar(mensagem, null, destino);
+    }
+
+    /**
+     * Codifica uma mensagem no buffer de destino, a partir da posição atual. O timestamp de uma
+     * mensagem "msg" é escrito como diferença em relação ao vetor-base, se houver um.
+     * @param mensagem mensagem a ser codificada
+     * @param base vetor da mensagem anterior do mesmo remetente, ou null para o timestamp completo
+     * @param destino buffer reutilizável onde os bytes serão escritos
+     */
+    public void codificar(Message mensagem, int[] base, ByteBuffer destino) {
+        byte comando = codigoComando(mensagem.command());
+        escreverCabecalho(destino, comando, idDe(mensagem.cliente()));
+
+        switch (comando) {
+            case COMANDO_MSG:
+                escreverTimestamp(destino, mensagem, base);
+                escreverTexto(destino, mensagem.message());
+                break;
+            case COMANDO_JOIN:
+                escreverCliente(destino, mensagem.cliente());
+                break;
+            case COMANDO_NACK:
+                escreverVetor(destino, mensagem.timestamp());
+                int[] pedido = mensagem.getArguments();
+                escreverInt(destino, pedido[0]);
+                escreverInt(destino, pedido[1]);
+                escreverInt(destino, pedido[2]);
+                break;
+            case COMANDO_HEARTBEAT:
+                escreverVetor(destino, mensagem.timestamp());
+                break;
+            case COMANDO_LEAVE:
+                escreverInt(destino, mensagem.getArguments()[0]);
+                break;
+            case COMANDO_ESTADO:
+                escreverInt(destino, mensagem.getArguments()[0]);
+                escreverInt(destino, mensagem.getArguments()[1]);
+                escreverLinhas(destino, mensagem.getMatrix());
+                escreverLinhas(destino, mensagem.getBaseVectors());
+                List<Message> registros = mensagem.getMessages();
+                escreverInt(destino, registros.size());
+                for (Message registro : registros) {
+                    escreverInt(destino, idDe(registro.cliente()));
+                    escreverVetor(destino, registro.timestamp());
+                    escreverTexto(destino, registro.message());
+                }
+                break;
+            case COMANDO_HELLO:
+                escreverVetor(destino, mensagem.timestamp() != null ? mensagem.timestamp() : new int[0]);
+                List<ClientInfo> lista = mensagem.getClientList();
+                escreverInt(destino, lista.size());
+                for (ClientInfo cliente : lista) {
+                    escreverCliente(destino, cliente);
+                }
+                escreverInt(destino, mensagem.getArguments() != null ? mensagem.getArguments()[0] : lista.size());
+                break;
+        }
+    }
+
+    /**
+     * Escreve o cabeçalho de um lote de mensagens "msg" do remetente informado.
+     * A quantidade de registros fica zerada e deve ser preenchida ao fechar o lote.
+     * @param destino buffer onde o lote será montado
+     * @param remetente cliente que envia as mensagens do lote
+     * @return posição dos 2 bytes da quantidade de registros
+     */
+    public int iniciarLote(ByteBuffer destino, ClientInfo remetente) {
+        escreverCabecalho(destino, COMANDO_LOTE, idDe(remetente));
+        int posicaoQuantidade = destino.position();
+        destino.putShort((short) 0);
+        return posicaoQuantidade;
+    }
+
+    /**
+     * Escreve o registro de uma mensagem "msg" dentro de um lote.
+     * @param mensagem mensagem a ser incluída
+     * @param base vetor da mensagem anterior do mesmo remetente, ou null para o timestamp completo
+     * @param destino buffer onde o lote está sendo montado
+     */
+    public void codificarRegistro(Message mensagem, int[] base, ByteBuffer destino) {
+        escreverTimestamp(destino, mensagem, base);
+        escreverTexto(destino, mensagem.message());
+    }
+
+    /**
+     * Decodifica um datagrama, que pode conter uma única mensagem ou um lote delas.
+     * @param origem buffer contendo o datagrama recebido
+     * @param destino lista onde as mensagens são adicionadas, na ordem do datagrama
+     * @throws IllegalArgumentException se o datagrama não estiver em um formato suportado
+     */
+    public void decodificar(ByteBuffer origem, List<Message> destino) {
+        decodificar(origem, destino, null);
+    }
+
+    /**
+     * Decodifica um datagrama, descartando as mensagens "msg" que o filtro já viu entregues. A sequência
+     * de cada mensagem é lida do timestamp sem montar vetores; as duplicatas são puladas sem
+     * decodificar o texto nem criar a mensagem.
+     * @param origem buffer contendo o datagrama recebido
+     * @param destino lista onde as mensagens são adicionadas, na ordem do datagrama
+     * @param filtro filtro de duplicatas, ou null para decodificar todas
+     * @throws IllegalArgumentException se o datagrama não estiver em um formato suportado
+     */
+    public void decodificar(ByteBuffer origem, List<Message> destino, DuplicateFilter filtro) {
+        byte comando = origem.remaining() > 2 ? origem.get(origem.position() + 2) : 0;
+        if (comando != COMANDO_LOTE && (comando != COMANDO_MSG || filtro == null)) {
+            destino.add(decodificar(origem));
+            return;
+        }
+        try {
+            boolean esparso = origem.get(origem.position() + 1) == VERSAO;
+            lerCabecalho(origem);
+            int id = lerInt(origem);
+            ClientInfo remetente = null; // Resolvido só se alguma mensagem passar pelo filtro
+            int quantidade = comando == COMANDO_LOTE ? origem.getShort() & 0xFFFF : 1;
+            for (int i = 0; i < quantidade; i++) {
+                if (filtro != null) {
+                    int inicio = origem.position();
+                    if (filtro.duplicada(id, lerSequencia(origem, id, esparso))) {
+                        pularTexto(origem);
+                        continue;
+                    }
+                    origem.position(inicio);
+                }
+                if (remetente == null) {
+                    remetente = resolverCliente(id);
+                }
+                destino.add(lerMensagem(origem, remetente, esparso));
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Datagrama truncado ou corrompido.", ex);
+        }
+    }
+
+    /**
+     * Decodifica uma mensagem a partir da posição atual do buffer de origem.
+     * @param origem buffer contendo o datagrama recebido
+     * @return a mensagem decodificada
+     * @throws IllegalArgumentException se o datagrama não estiver em um formato suportado
+     */
+    public Message decodificar(ByteBuffer origem) {
+        try {
+            int inicio = origem.position();
+            byte comando = lerCabecalho(origem);
+            boolean esparso = origem.get(inicio + 1) == VERSAO;
+            int remetente = lerInt(origem);
+
+            switch (comando) {
+                case COMANDO_MSG:
+                    return lerMensagem(origem, resolverCliente(remetente), esparso);
+                case COMANDO_JOIN:
+                    return new Message(null, "", lerCliente(origem), "join");
+                case COMANDO_NACK: {
+                    Message nack = new Message(lerVetor(origem, esparso), "", resolverCliente(remetente), "nack");
+                    nack.setArguments(lerInt(origem), lerInt(origem), lerInt(origem));
+                    return nack;
+                }
+                case COMANDO_HEARTBEAT:
+                    return new Message(lerVetor(origem, esparso), "", resolverCliente(remetente), "heartbeat");
+                case COMANDO_ESTADO: {
+                    Message estado = new Message(null, "", resolverCliente(remetente), "estado");
+                    estado.setArguments(lerInt(origem), lerInt(origem));
+                    estado.setMatrix(lerLinhas(origem, esparso));
+                    estado.setBaseVectors(lerLinhas(origem, esparso));
+                    int quantidade = lerInt(origem);
+                    ArrayList<Message> registros = new ArrayList<>(quantidade);
+                    for (int i = 0; i < quantidade; i++) {
+                        ClientInfo autor = resolverCliente(lerInt(origem));
+                        int[] timestamp = lerVetor(origem, esparso);
+                        registros.add(new Message(timestamp, lerTexto(origem), autor, "msg"));
+                    }
+                    estado.setMessages(registros);
+                    return estado;
+                }
+                case COMANDO_LEAVE: {
+                    Message leave = new Message(null, "", resolverCliente(remetente), "leave");
+                    leave.setArguments(lerInt(origem));
+                    return leave;
+                }
+                case COMANDO_HELLO: {
+                    int[] entregas = lerVetor(origem, esparso);
+                    int quantidade = lerInt(origem);
+                    ArrayList<ClientInfo> lista = new ArrayList<>(quantidade);
+                    for (int i = 0; i < quantidade; i++) {
+                        lista.add(lerCliente(origem));
+                    }
+                    // Quem responde ainda pode ser desconhecido por quem está aderindo: busca-o na própria lista
+                    ClientInfo emissor = null;
+                    for (ClientInfo membro : lista) {
+                        if (membro.getID() == remetente) {
+                            emissor = membro;
+                        }
+                    }
+                    if (emissor == null) {
+                        emissor = resolverCliente(remetente);
+                    }
+                    Message hello = new Message(entregas.length > 0 ? entregas : null, "", emissor, "hello");
+                    hello.setClientList(lista);
+                    hello.setArguments(lerInt(origem));
+                    return hello;
+                }
+                default:
+                    throw new IllegalArgumentException("Comando desconhecido: " + comando);
+            }
+        } catch (BufferUnderflowException | UnknownHostException ex) {
+            throw new IllegalArgumentException("Datagrama truncado ou corrompido.", ex);
+        }
+    }
+
+    private void escreverCabecalho(ByteBuffer destino, byte comando, int remetente) {
+        destino.put(MAGIA);
+        destino.put(VERSAO);
+        destino.put(comando);
+        escreverInt(destino, topico);
+        escreverInt(destino, remetente);
+    }
+
+    /**
+     * Lê e valida a magia e a versão do cabeçalho e pula o tópico, que já foi usado por quem
+     * escolheu o grupo do datagrama com {@link #lerTopico}.
+     * @param origem buffer posicionado no início do datagrama
+     * @return o código do comando
+     */
+    private static byte lerCabecalho(ByteBuffer origem) {
+        if (origem.get() != MAGIA) {
+            throw new IllegalArgumentException("Datagrama fora do formato binário.");
+        }
+        byte versao = origem.get();
+        if (versao != VERSAO && versao != VERSAO_VETORES_DENSOS && versao != VERSAO_SEM_TOPICO) {
+            throw new IllegalArgumentException("Versão do formato não suportada: " + versao);
+        }
+        byte comando = origem.get();
+        if (versao != VERSAO_SEM_TOPICO) {
+            lerInt(origem); // Tópico
+        }
+        return comando;
+    }
+
+    /**
+     * Obtém o cliente correspondente a um ID, criando um registro provisório se ele ainda não for conhecido.
+     * @param id ID do remetente
+     * @return informações do cliente
+     */
+    private ClientInfo resolverCliente(int id) {
+        ClientInfo cliente = resolvedor.apply(id);
+        if (cliente == null) {
+            cliente = new ClientInfo(null, null, "#" + id, null);
+            cliente.setID(id);
+        }
+        return cliente;
+    }
+
+    private static int idDe(ClientInfo cliente) {
+        return cliente != null && cliente.getID() != null ? cliente.getID() : -1;
+    }
+
+    private static byte codigoComando(String comando) {
+        switch (comando) {
+            case "msg":
+                return COMANDO_MSG;
+            case "join":
+                return COMANDO_JOIN;
+            case "hello":
+                return COMANDO_HELLO;
+            case "nack":
+                return COMANDO_NACK;
+            case "heartbeat":
+                return COMANDO_HEARTBEAT;
+            case "leave":
+                return COMANDO_LEAVE;
+            case "estado":
+                return COMANDO_ESTADO;
+            default:
+                throw new IllegalArgumentException("Comando sem codificação binária: " + comando);
+        }
+    }
+
+    private static void escreverCliente(ByteBuffer destino, ClientInfo cliente) {
+        escreverInt(destino, idDe(cliente));
+        escreverTexto(destino, cliente.getName());
+        byte[] ip = cliente.getIP().getAddress();
+        escreverInt(destino, ip.length);
+        destino.put(ip);
+        escreverInt(destino, cliente.getPort());
+    }
+
+    private static ClientInfo lerCliente(ByteBuffer origem) throws UnknownHostException {
+        int id = lerInt(origem);
+        String nome = lerTexto(origem);
+        int tamanhoIp = lerInt(origem);
+        if (tamanhoIp != 4 && tamanhoIp != 16) {
+            // Vindo da rede, o tamanho não pode dimensionar a alocação: só IPv4 ou IPv6
+            throw new IllegalArgumentException("Tamanho de endereço IP inválido: " + tamanhoIp);
+        }
+        byte[] ip = new byte[tamanhoIp];
+        origem.get(ip);
+        int porta = lerInt(origem);
+        ClientInfo cliente = new ClientInfo(InetAddress.getByAddress(ip), porta, nome, null);
+        cliente.setID(id);
+        return cliente;
+    }
+
+    /**
+     * Escreve o timestamp de uma mensagem "msg", completo ou como diferença em relação à base.
+     * A entrada do próprio remetente vai sempre como sequência, fora da lista de diferenças.
+     */
+    private static void escreverTimestamp(ByteBuffer destino, Message mensagem, int[] base) {
+        int[] timestamp = mensagem.timestamp();
+        if (base == null) {
+            escreverVetor(destino, timestamp);
+            return;
+        }
+        int remetente = idDe(mensagem.cliente());
+        int tamanho = Math.max(timestamp.length, base.length);
+        int alteradas = 0;
+        for (int id = 0; id < tamanho; id++) {
+            if (id != remetente && valorEm(timestamp, id) != valorEm(base, id)) {
+                alteradas++;
+            }
+        }
+        escreverInt(destino, -(alteradas + 1));
+        escreverInt(destino, timestamp[remetente]);
+        for (int id = 0; id < tamanho; id++) {
+            if (id != remetente && valorEm(timestamp, id) != valorEm(base, id)) {
+                escreverInt(destino, id);
+                escreverInt(destino, valorEm(timestamp, id));
+            }
+        }
+    }
+
+    /**
+     * Lê uma mensagem "msg" (timestamp e texto). Com timestamp diferencial, a mensagem sai sem
+     * timestamp e com a diferença em {@link Message#getDelta}, na forma [sequência, id, relógio, ...].
+     */
+    private static Message lerMensagem(ByteBuffer origem, ClientInfo remetente, boolean esparso) {
+        int quantidade = lerInt(origem);
+        if (quantidade >= 0) {
+            int[] timestamp = lerValores(origem, quantidade, esparso);
+            return new Message(timestamp, lerTexto(origem), remetente, "msg");
+        }
+        int alteradas = -quantidade - 1;
+        if (alteradas > origem.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int[] diferenca = new int[1 + 2 * alteradas];
+        diferenca[0] = lerInt(origem);
+        for (int i = 1; i < diferenca.length; i += 2) {
+            diferenca[i] = lerInt(origem);
+            if (diferenca[i] < 0 || diferenca[i] > MAXIMO_ID_MEMBRO) {
+                throw new IllegalArgumentException("ID de membro inválido: " + diferenca[i]);
+            }
+            diferenca[i + 1] = lerInt(origem);
+        }
+        Message mensagem = new Message(null, lerTexto(origem), remetente, "msg");
+        mensagem.setDelta(diferenca);
+        return mensagem;
+    }
+
+    /**
+     * Lê o timestamp de uma mensagem "msg" apenas para obter a sua sequência, que é a entrada do
+     * remetente no vetor completo ou o primeiro valor do diferencial. O buffer fica posicionado
+     * no texto.
+     * @return a sequência, ou -1 se o vetor não tiver a entrada do remetente
+     */
+    private static int lerSequencia(ByteBuffer origem, int remetente, boolean esparso) {
+        int quantidade = lerInt(origem);
+        if (quantidade < 0) {
+            int sequencia = lerInt(origem);
+            for (int i = -quantidade - 1; i > 0; i--) {
+                lerInt(origem);
+                lerInt(origem);
+            }
+            return sequencia;
+        }
+        if (esparso) {
+            // Sem o par do remetente, a entrada dele é nula se couber no vetor
+            int sequencia = remetente >= 0 && remetente < quantidade ? 0 : -1;
+            int id = -1;
+            for (int i = lerInt(origem); i > 0; i--) {
+                id += lerInt(origem) + 1;
+                int valor = lerInt(origem);
+                if (id == remetente) {
+                    sequencia = valor;
+                }
+            }
+            return sequencia;
+        }
+        int sequencia = -1;
+        for (int i = 0; i < quantidade; i++) {
+            int valor = lerInt(origem);
+            if (i == remetente) {
+                sequencia = valor;
+            }
+        }
+        return sequencia;
+    }
+
+    /**
+     * Escreve um conjunto de vetores indexados por ID, omitindo as posições nulas.
+     */
+    private static void escreverLinhas(ByteBuffer destino, int[][] linhas) {
+        if (linhas == null) {
+            linhas = new int[0][];
+        }
+        int presentes = 0;
+        for (int[] linha : linhas) {
+            presentes += linha != null ? 1 : 0;
+        }
+        escreverInt(destino, presentes);
+        for (int id = 0; id < linhas.length; id++) {
+            if (linhas[id] != null) {
+                escreverInt(destino, id);
+                escreverVetor(destino, linhas[id]);
+            }
+        }
+    }
+
+    private static int[][] lerLinhas(ByteBuffer origem, boolean esparso) {
+        int presentes = lerInt(origem);
+        if (presentes < 0 || presentes > origem.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int[] ids = new int[presentes];
+        int[][] vetores = new int[presentes][];
+        int maiorId = -1;
+        for (int i = 0; i < presentes; i++) {
+            ids[i] = lerInt(origem);
+            if (ids[i] < 0 || ids[i] > MAXIMO_ID_MEMBRO) {
+                throw new IllegalArgumentException("ID de membro inválido: " + ids[i]);
+            }
+            vetores[i] = lerVetor(origem, esparso);
+            maiorId = Math.max(maiorId, ids[i]);
+        }
+        int[][] linhas = new int[maiorId + 1][];
+        for (int i = 0; i < presentes; i++) {
+            linhas[ids[i]] = vetores[i];
+        }
+        return linhas;
+    }
+
+    private static int valorEm(int[] vetor, int id) {
+        return id < vetor.length ? vetor[id] : 0;
+    }
+
+    /**
+     * Escreve um vetor indexado por ID só com as entradas não nulas, para que o tamanho no fio
+     * acompanhe os membros com relógio, e não todos os IDs já atribuídos.
+     */
+    private static void escreverVetor(ByteBuffer destino, int[] vetor) {
+        if (vetor.length > MAXIMO_ID_MEMBRO + 1) {
+            throw new IllegalArgumentException("Vetor com IDs acima do máximo: " + (vetor.length - 1));
+        }
+        int presentes = 0;
+        for (int valor : vetor) {
+            presentes += valor != 0 ? 1 : 0;
+        }
+        escreverInt(destino, vetor.length);
+        escreverInt(destino, presentes);
+        int anterior = -1;
+        for (int id = 0; id < vetor.length; id++) {
+            if (vetor[id] != 0) {
+                escreverInt(destino, id - anterior - 1);
+                escreverInt(destino, vetor[id]);
+                anterior = id;
+            }
+        }
+    }
+
+    private static int[] lerVetor(ByteBuffer origem, boolean esparso) {
+        return lerValores(origem, lerInt(origem), esparso);
+    }
+
+    /**
+     * Lê os valores de um vetor cujo tamanho já foi lido, no formato esparso ou no denso das
+     * versões anteriores.
+     */
+    private static int[] lerValores(ByteBuffer origem, int quantidade, boolean esparso) {
+        if (!esparso) {
+            if (quantidade < 0 || quantidade > origem.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            int[] vetor = new int[quantidade];
+            for (int i = 0; i < quantidade; i++) {
+                vetor[i] = lerInt(origem);
+            }
+            return vetor;
+        }
+        if (quantidade < 0 || quantidade > MAXIMO_ID_MEMBRO + 1) {
+            throw new IllegalArgumentException("Vetor com tamanho inválido: " + quantidade);
+        }
+        int presentes = lerInt(origem);
+        if (presentes < 0 || presentes > quantidade || presentes > origem.remaining() / 2) {
+            throw new BufferUnderflowException();
+        }
+        int[] vetor = new int[quantidade];
+        int id = -1;
+        for (int i = 0; i < presentes; i++) {
+            int salto = lerInt(origem);
+            if (salto < 0 || salto >= quantidade - id - 1) {
+                throw new IllegalArgumentException("ID de membro inválido no vetor.");
+            }
+            id += salto + 1;
+            vetor[id] = lerInt(origem);
+        }
+        return vetor;
+    }
+
+    /**
+     * Calcula quantos bytes um texto ocupa em UTF-8, sem codificá-lo.
+     * @param texto texto a ser medido
+     * @return tamanho em bytes
+     */
+    public static int tamanhoUtf8(String texto) {
+        int tamanho = texto.length();
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c >= 0x800) {
+                // Pares substitutos somam 4 bytes, 2 por metade; os demais ocupam 3
+                tamanho += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                tamanho++;
+            }
+        }
+        return tamanho;
+    }
+
+    private static void escreverTexto(ByteBuffer destino, String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        escreverInt(destino, bytes.length);
+        destino.put(bytes);
+    }
+
+    private static String lerTexto(ByteBuffer origem) {
+        int tamanho = lerInt(origem);
+        if (tamanho < 0 || tamanho > origem.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String texto;
+        if (origem.hasArray()) {
+            // Decodifica direto do array de apoio, sem cópia intermediária
+            texto = new String(origem.array(), origem.arrayOffset() + origem.position(), tamanho, StandardCharsets.UTF_8);
+            origem.position(origem.position() + tamanho);
+        } else {
+            byte[] bytes = new byte[tamanho];
+            origem.get(bytes);
+            texto = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return texto;
+    }
+
+    private static void pularTexto(ByteBuffer origem) {
+        int tamanho = lerInt(origem);
+        if (tamanho < 0 || tamanho > origem.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        origem.position(origem.position() + tamanho);
+    }
+
+    /**
+     * Escreve um inteiro como varint zigzag (1 a 5 bytes).
+     * @param destino buffer de destino
+     * @param valor inteiro a ser escrito
+     */
+    static void escreverInt(ByteBuffer destino, int valor) {
+        int zigzag = (valor << 1) ^ (valor >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            destino.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        destino.put((byte) zigzag);
+    }
+
+    /**
+     * Lê um inteiro codificado como varint zigzag.
+     * @param origem buffer de origem
+     * @return o inteiro lido
+     */
+    static int lerInt(ByteBuffer origem) {
+        int resultado = 0;
+        for (int deslocamento = 0; deslocamento < 35; deslocamento += 7) {
+            byte b = origem.get();
+            resultado |= (b & 0x7F) << deslocamento;
+            if ((b & 0x80) == 0) {
+                return (resultado >>> 1) ^ -(resultado & 1);
+            }
+        }
+        throw new IllegalArgumentException("Varint malformado.");
+    }
+}
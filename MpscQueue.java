@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Fila sem bloqueio com vários produtores e um único consumidor, no estilo de Vyukov.
+ *
+ * Cada produtor insere com uma única troca atômica da cauda e depois liga o nó anterior ao novo;
+ * o consumidor percorre os nós a partir da cabeça sem nenhuma operação atômica. Entre a troca e a
+ * ligação, o elemento já inserido fica invisível por um instante e a fila parece vazia: quem espera
+ * por ele deve ser acordado pelo produtor depois de {@link #oferecer}, nunca antes.
+ *
+ * Apenas uma thread pode chamar {@link #retirar} e {@link #vazia}.
+ * @param <T> tipo dos elementos
+ */
+class MpscQueue<T> {
+
+    private static final class No<T> {
+        volatile No<T> proximo;
+        T valor;
+    }
+
+    // Último nó inserido, disputado pelos produtores
+    private final AtomicReference<No<T>> cauda;
+
+    // Nó já consumido que precede o próximo elemento; usado só pelo consumidor
+    private No<T> cabeca;
+
+    /**
+     * Construtor da fila, inicialmente vazia.
+     */
+    public MpscQueue() {
+        No<T> sentinela = new No<>();
+        this.cabeca = sentinela;
+        this.cauda = new AtomicReference<>(sentinela);
+    }
+
+    /**
+     * Insere um elemento no fim da fila. Pode ser chamado de qualquer thread.
+     * @param valor elemento a inserir, não nulo
+     */
+    public void oferecer(T valor) {
+        No<T> no = new No<>();
+        no.valor = valor;
+        No<T> anterior = cauda.getAndSet(no);
+        anterior.proximo = no; // Publica o nó ao consumidor
+    }
+
+    /**
+     * Retira o elemento do início da fila. Só pode ser chamado pela thread consumidora.
+     * @return o elemento, ou null se a fila estiver vazia
+     */
+    public T retirar() {
+        No<T> proximo = cabeca.proximo;
+        if (proximo == null) {
+            return null;
+        }
+        T valor = proximo.valor;
+        proximo.valor = null; // O nó passa a ser a sentinela e não deve segurar o elemento
+        cabeca = proximo;
+        return valor;
+    }
+
+    /**
+     * Verifica se há elementos visíveis para o consumidor. Só pode ser chamado pela thread consumidora.
+     * @return true se a fila está vazia
+     */
+    public boolean vazia() {
+        return cabeca.proximo == null;
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Métricas de um nó do StableMulticast: contadores de mensagens e de falhas, histogramas de
+ * latência e medidas do estado do grupo.
+ *
+ * Os contadores são LongAdder, que espalham os incrementos de threads diferentes em células
+ * separadas, e os histogramas têm contagens em um array fixo; registrar uma medida no caminho
+ * quente não aloca nem disputa trava. As medidas do grupo vêm do último retrato publicado pelo
+ * núcleo e do estágio de entrega, lidas só quando consultadas.
+ */
+class MulticastMetrics implements MulticastMetricsMBean {
+
+    // Contadores, incrementados diretamente pelo middleware
+    final LongAdder enviadas = new LongAdder();
+    final LongAdder recebidas = new LongAdder();
+    final LongAdder entregues = new LongAdder();
+    final LongAdder falhasDecodificacao = new LongAdder();
+    final LongAdder falhasEnvio = new LongAdder();
+    final LongAdder nacksEnviados = new LongAdder();
+    final LongAdder retransmissoes = new LongAdder();
+    final LongAdder duplicadasDescartadas = new LongAdder();
+
+    // Latências em nanossegundos
+    final LatencyHistogram latenciaEnvioEntrega = new LatencyHistogram();
+    final LatencyHistogram esperaCausal = new LatencyHistogram();
+    final LatencyHistogram tempoEstabilizacao = new LatencyHistogram();
+
+    private final Supplier<GroupSnapshot> retrato;
+    private final DeliveryDispatcher entrega;
+    private final OffHeapArena arena;
+
+    /**
+     * Construtor das métricas.
+     * @param retrato fornece o último retrato publicado pelo núcleo
+     * @param entrega estágio de entrega do nó
+     * @param arena área fora do heap das mensagens do buffer
+     */
+    public MulticastMetrics(Supplier<GroupSnapshot> retrato, DeliveryDispatcher entrega, OffHeapArena arena) {
+        this.retrato = retrato;
+        this.entrega = entrega;
+        this.arena = arena;
+    }
+
+    /**
+     * Copia todas as métricas para um mapa, com os mesmos nomes dos atributos JMX.
+     * @return mapa imutável do nome da métrica para o seu valor
+     */
+    public Map<String, Long> copiar() {
+        Map<String, Long> valores = new LinkedHashMap<>();
+        valores.put("MensagensEnviadas", getMensagensEnviadas());
+        valores.put("MensagensRecebidas", getMensagensRecebidas());
+        valores.put("MensagensEntregues", getMensagensEntregues());
+        valores.put("FalhasDecodificacao", getFalhasDecodificacao());
+        valores.put("FalhasEnvio", getFalhasEnvio());
+        valores.put("NacksEnviados", getNacksEnviados());
+        valores.put("Retransmissoes", getRetransmissoes());
+        valores.put("DuplicadasDescartadas", getDuplicadasDescartadas());
+        valores.put("ProfundidadeBuffer", (long) getProfundidadeBuffer());
+        valores.put("IdadeMaisAntigaMicros", getIdadeMaisAntigaMicros());
+        valores.put("MemoriaForaDoHeap", getMemoriaForaDoHeap());
+        valores.put("EntregasPendentes", (long) getEntregasPendentes());
+        valores.put("LatenciaEnvioEntregaP50Micros", getLatenciaEnvioEntregaP50Micros());
+        valores.put("LatenciaEnvioEntregaP99Micros", getLatenciaEnvioEntregaP99Micros());
+        valores.put("LatenciaEnvioEntregaMaximaMicros", getLatenciaEnvioEntregaMaximaMicros());
+        valores.put("EsperaCausalP50Micros", getEsperaCausalP50Micros());
+        valores.put("EsperaCausalP99Micros", getEsperaCausalP99Micros());
+        valores.put("EsperaCausalMaximaMicros", getEsperaCausalMaximaMicros());
+        valores.put("TempoEstabilizacaoP50Micros", getTempoEstabilizacaoP50Micros());
+        valores.put("TempoEstabilizacaoP99Micros", getTempoEstabilizacaoP99Micros());
+        valores.put("TempoEstabilizacaoMaximoMicros", getTempoEstabilizacaoMaximoMicros());
+        return Collections.unmodifiableMap(valores);
+    }
+
+    @Override
+    public long getMensagensEnviadas() {
+        return enviadas.sum();
+    }
+
+    @Override
+    public long getMensagensRecebidas() {
+        return recebidas.sum();
+    }
+
+    @Override
+    public long getMensagensEntregues() {
+        return entregues.sum();
+    }
+
+    @Override
+    public long getFalhasDecodificacao() {
+        return falhasDecodificacao.sum();
+    }
+
+    @Override
+    public long getFalhasEnvio() {
+        return falhasEnvio.sum();
+    }
+
+    @Override
+    public long getNacksEnviados() {
+        return nacksEnviados.sum();
+    }
+
+    @Override
+    public long getRetransmissoes() {
+        return retransmissoes.sum();
+    }
+
+    @Override
+    public long getDuplicadasDescartadas() {
+        return duplicadasDescartadas.sum();
+    }
+
+    @Override
+    public int getProfundidadeBuffer() {
+        return retrato.get().tamanhoBuffer();
+    }
+
+    @Override
+    public long getMemoriaForaDoHeap() {
+        return arena.ocupados();
+    }
+
+    @Override
+    public long getIdadeMaisAntigaMicros() {
+        return micros(retrato.get().idadeMaisAntigaNanos());
+    }
+
+    @Override
+    public int getEntregasPendentes() {
+        return entrega.pendentes();
+    }
+
+    @Override
+    public long getLatenciaEnvioEntregaP50Micros() {
+        return micros(latenciaEnvioEntrega.quantil(0.5));
+    }
+
+    @Override
+    public long getLatenciaEnvioEntregaP99Micros() {
+        return micros(latenciaEnvioEntrega.quantil(0.99));
+    }
+
+    @Override
+    public long getLatenciaEnvioEntregaMaximaMicros() {
+        return micros(latenciaEnvioEntrega.maximo());
+    }
+
+    @Override
+    public long getEsperaCausalP50Micros() {
+        return micros(esperaCausal.quantil(0.5));
+    }
+
+    @Override
+    public long getEsperaCausalP99Micros() {
+        return micros(esperaCausal.quantil(0.99));
+    }
+
+    @Override
+    public long getEsperaCausalMaximaMicros() {
+        return micros(esperaCausal.maximo());
+    }
+
+    @Override
+    public long getTempoEstabilizacaoP50Micros() {
+        return micros(tempoEstabilizacao.quantil(0.5));
+    }
+
+    @Override
+    public long getTempoEstabilizacaoP99Micros() {
+        return micros(tempoEstabilizacao.quantil(0.99));
+    }
+
+    @Override
+    public long getTempoEstabilizacaoMaximoMicros() {
+        return micros(tempoEstabilizacao.maximo());
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
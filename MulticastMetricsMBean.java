@@ -0,0 +1,69 @@
+/**
+ * Interface de gerenciamento das métricas de um nó, exportada via JMX.
+ * Contadores são totais desde a criação do nó; latências são em microssegundos.
+ */
+public interface MulticastMetricsMBean {
+
+    /** @return mensagens de aplicação carimbadas e enviadas por este nó */
+    long getMensagensEnviadas();
+
+    /** @return mensagens de aplicação recebidas do grupo, incluindo as cópias das próprias */
+    long getMensagensRecebidas();
+
+    /** @return mensagens de aplicação entregues ao cliente */
+    long getMensagensEntregues();
+
+    /** @return datagramas ou mensagens descartados por falha na decodificação ou na remontagem */
+    long getFalhasDecodificacao();
+
+    /** @return envios que falharam no socket ou no canal */
+    long getFalhasEnvio();
+
+    /** @return NACKs enviados para pedir mensagens perdidas */
+    long getNacksEnviados();
+
+    /** @return mensagens reenviadas em resposta a NACKs */
+    long getRetransmissoes();
+
+    /** @return cópias repetidas de mensagens descartadas na recepção, antes da decodificação */
+    long getDuplicadasDescartadas();
+
+    /** @return mensagens ainda não estáveis no buffer, no último retrato */
+    int getProfundidadeBuffer();
+
+    /** @return há quanto tempo espera a mensagem não estável mais antiga, no último retrato */
+    long getIdadeMaisAntigaMicros();
+
+    /** @return bytes de memória nativa ocupados pelos slabs com mensagens do buffer */
+    long getMemoriaForaDoHeap();
+
+    /** @return entregas liberadas pelo núcleo que o cliente ainda não recebeu */
+    int getEntregasPendentes();
+
+    /** @return mediana do tempo entre o envio de uma mensagem própria e a sua entrega local */
+    long getLatenciaEnvioEntregaP50Micros();
+
+    /** @return percentil 99 do tempo entre o envio de uma mensagem própria e a sua entrega local */
+    long getLatenciaEnvioEntregaP99Micros();
+
+    /** @return maior tempo entre o envio de uma mensagem própria e a sua entrega local */
+    long getLatenciaEnvioEntregaMaximaMicros();
+
+    /** @return mediana do tempo entre a chegada de uma mensagem e a sua entrega causal */
+    long getEsperaCausalP50Micros();
+
+    /** @return percentil 99 do tempo entre a chegada de uma mensagem e a sua entrega causal */
+    long getEsperaCausalP99Micros();
+
+    /** @return maior tempo entre a chegada de uma mensagem e a sua entrega causal */
+    long getEsperaCausalMaximaMicros();
+
+    /** @return mediana do tempo entre a entrada de uma mensagem no buffer e a sua estabilidade */
+    long getTempoEstabilizacaoP50Micros();
+
+    /** @return percentil 99 do tempo entre a entrada de uma mensagem no buffer e a sua estabilidade */
+    long getTempoEstabilizacaoP99Micros();
+
+    /** @return maior tempo entre a entrada de uma mensagem no buffer e a sua estabilidade */
+    long getTempoEstabilizacaoMaximoMicros();
+}
@@ -0,0 +1,234 @@
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Área fora do heap para as mensagens do buffer de estabilidade.
+ *
+ * As mensagens ficam codificadas pelo {@link MessageCodec} em slabs de memória nativa
+ * (ByteBuffer direto), e o buffer guarda só um identificador long por mensagem. Assim um buffer
+ * grande, como durante uma partição, não ocupa a geração antiga do heap com strings e vetores.
+ * Cada slab é preenchido em sequência e conta quantas mensagens vivas guarda; quando a última
+ * se torna estável, o slab inteiro é liberado de uma vez e volta à reserva para ser reaproveitado.
+ * Como as mensagens se tornam estáveis aproximadamente na ordem em que chegaram, os slabs
+ * esvaziam em bloco. Uma mensagem retida por muito tempo, porém, seguraria o slab inteiro: os
+ * slabs com pouco espaço ainda vivo podem ser compactados, copiando as vivas para o slab atual.
+ *
+ * Registro -> [tamanho:4][instante local:8][mensagem codificada]
+ * Identificador -> [slab + 1:32][posição:32], de forma que 0 nunca é um identificador válido.
+ *
+ * Não é thread-safe: deve ser usado apenas pela thread do núcleo. Só a ocupação pode ser lida
+ * de outras threads.
+ */
+class OffHeapArena {
+
+    static final int TAMANHO_SLAB = 1024 * 1024;
+
+    // Slabs vazios mantidos para reaproveitamento, além dos que estão em uso
+    private static final int SLABS_RESERVA = 2;
+
+    // Um slab com menos de 1/FRACAO_ESPARSA do seu tamanho em mensagens vivas é compactado
+    private static final int FRACAO_ESPARSA = 4;
+
+    private final MessageCodec codec;
+    private final long orcamento;
+    private final int tamanhoSlab;
+
+    // Slabs indexados pelo identificador; posições null foram devolvidas ao sistema
+    private final ArrayList<Slab> slabs = new ArrayList<>();
+    private final ArrayDeque<Slab> reserva = new ArrayDeque<>();
+    private final ArrayDeque<Integer> indicesLivres = new ArrayDeque<>();
+    private Slab atual;
+    private volatile long ocupados; // Bytes dos slabs com mensagens vivas
+
+    /**
+     * Slab de memória nativa preenchido em sequência.
+     */
+    private static final class Slab {
+        final int indice;
+        final ByteBuffer dados;
+        int vivas;
+        int bytesVivos; // Bytes dos registros das mensagens vivas
+
+        Slab(int indice, int tamanho) {
+            this.indice = indice;
+            this.dados = ByteBuffer.allocateDirect(tamanho);
+        }
+    }
+
+    /**
+     * Construtor da área, com slabs de {@link #TAMANHO_SLAB}.
+     * @param codec codec usado para codificar e decodificar as mensagens
+     * @param orcamento memória a partir da qual {@link #excedeuOrcamento} passa a indicar excesso, em bytes
+     */
+    public OffHeapArena(MessageCodec codec, long orcamento) {
+        this(codec, orcamento, TAMANHO_SLAB);
+    }
+
+    /**
+     * Construtor da área.
+     * @param codec codec usado para codificar e decodificar as mensagens
+     * @param orcamento memória a partir da qual {@link #excedeuOrcamento} passa a indicar excesso, em bytes
+     * @param tamanhoSlab tamanho de cada slab, que precisa comportar a maior mensagem codificada
+     */
+    public OffHeapArena(MessageCodec codec, long orcamento, int tamanhoSlab) {
+        this.codec = codec;
+        this.orcamento = orcamento;
+        this.tamanhoSlab = tamanhoSlab;
+    }
+
+    /**
+     * Codifica uma mensagem no slab atual, abrindo outro se ela não couber. O orçamento não
+     * impede a gravação: uma mensagem que o protocolo precisa guardar nunca é recusada.
+     * @param mensagem mensagem "msg" com o timestamp completo
+     * @return identificador da mensagem
+     * @throws IllegalArgumentException se a mensagem codificada não couber em um slab vazio
+     */
+    public long gravar(Message mensagem) {
+        if (atual == null) {
+            atual = abrirSlab();
+        }
+        ByteBuffer dados = atual.dados;
+        int inicio = dados.position();
+        try {
+            dados.position(inicio + 12);
+            codec.codificar(mensagem, dados);
+        } catch (BufferOverflowException ex) {
+            dados.position(inicio);
+            if (inicio == 0) {
+                throw new IllegalArgumentException("Mensagem maior que o slab.");
+            }
+            fecharSlabAtual();
+            return gravar(mensagem);
+        }
+        dados.putInt(inicio, dados.position() - inicio - 12);
+        dados.putLong(inicio + 4, mensagem.getLocalTime());
+        atual.vivas++;
+        atual.bytesVivos += dados.position() - inicio;
+        return ((long) (atual.indice + 1) << 32) | inicio;
+    }
+
+    /**
+     * Decodifica uma mensagem gravada, com o seu instante local.
+     * @param identificador identificador retornado por {@link #gravar}
+     * @return nova instância da mensagem
+     */
+    public Message ler(long identificador) {
+        ByteBuffer dados = slabs.get((int) (identificador >>> 32) - 1).dados;
+        int inicio = (int) identificador;
+        ByteBuffer registro = dados.duplicate();
+        registro.limit(inicio + 12 + dados.getInt(inicio));
+        registro.position(inicio + 12);
+        Message mensagem = codec.decodificar(registro);
+        mensagem.setLocalTime(dados.getLong(inicio + 4));
+        return mensagem;
+    }
+
+    /**
+     * Libera uma mensagem. O slab é liberado inteiro quando não guarda mais nenhuma viva.
+     * @param identificador identificador retornado por {@link #gravar}
+     */
+    public void liberar(long identificador) {
+        Slab slab = slabs.get((int) (identificador >>> 32) - 1);
+        slab.bytesVivos -= 12 + slab.dados.getInt((int) identificador);
+        if (--slab.vivas == 0) {
+            if (slab == atual) {
+                atual = null; // Volta da reserva na próxima gravação
+            }
+            devolver(slab);
+        }
+    }
+
+    /**
+     * Verifica se a mensagem está em um slab, que não o atual, com tão poucas mensagens vivas
+     * que vale movê-las para liberar o slab.
+     * @param identificador identificador retornado por {@link #gravar}
+     * @return true se a mensagem deve ser movida por {@link #mover}
+     */
+    public boolean esparso(long identificador) {
+        Slab slab = slabs.get((int) (identificador >>> 32) - 1);
+        return slab != atual && slab.bytesVivos < tamanhoSlab / FRACAO_ESPARSA;
+    }
+
+    /**
+     * Copia o registro de uma mensagem, sem decodificá-lo, para o slab atual e libera o original.
+     * @param identificador identificador retornado por {@link #gravar}
+     * @return novo identificador da mensagem; o anterior deixa de ser válido
+     */
+    public long mover(long identificador) {
+        Slab origem = slabs.get((int) (identificador >>> 32) - 1);
+        int inicio = (int) identificador;
+        int tamanho = 12 + origem.dados.getInt(inicio);
+        if (atual == null) {
+            atual = abrirSlab();
+        } else if (atual.dados.remaining() < tamanho) {
+            fecharSlabAtual();
+        }
+        ByteBuffer registro = origem.dados.duplicate();
+        registro.limit(inicio + tamanho).position(inicio);
+        int destino = atual.dados.position();
+        atual.dados.put(registro);
+        atual.vivas++;
+        atual.bytesVivos += tamanho;
+        long novo = ((long) (atual.indice + 1) << 32) | destino;
+        liberar(identificador);
+        return novo;
+    }
+
+    /**
+     * Retorna a memória ocupada pelos slabs que guardam mensagens vivas.
+     * @return ocupação em bytes; pode ser lida de qualquer thread
+     */
+    public long ocupados() {
+        return ocupados;
+    }
+
+    /**
+     * Verifica se a ocupação passou do orçamento, caso em que o envio de novas mensagens deve esperar.
+     * @return true se o orçamento foi excedido
+     */
+    public boolean excedeuOrcamento() {
+        return ocupados > orcamento;
+    }
+
+    private Slab abrirSlab() {
+        Slab slab = reserva.poll();
+        if (slab == null) {
+            Integer indice = indicesLivres.poll();
+            if (indice == null) {
+                slab = new Slab(slabs.size(), tamanhoSlab);
+                slabs.add(slab);
+            } else {
+                slab = new Slab(indice, tamanhoSlab);
+                slabs.set(indice, slab);
+            }
+        }
+        ocupados += tamanhoSlab;
+        return slab;
+    }
+
+    /**
+     * Troca o slab atual por um novo; o anterior é liberado assim que as suas mensagens estabilizarem.
+     */
+    private void fecharSlabAtual() {
+        Slab anterior = atual;
+        atual = abrirSlab();
+        if (anterior.vivas == 0) {
+            devolver(anterior);
+        }
+    }
+
+    /**
+     * Esvazia um slab e o guarda na reserva, ou o devolve ao sistema se a reserva estiver cheia.
+     */
+    private void devolver(Slab slab) {
+        slab.dados.clear();
+        ocupados -= tamanhoSlab;
+        if (reserva.size() < SLABS_RESERVA) {
+            reserva.push(slab);
+        } else {
+            // A memória nativa é liberada quando o ByteBuffer for coletado
+            slabs.set(slab.indice, null);
+            indicesLivres.push(slab.indice);
+        }
+    }
+}
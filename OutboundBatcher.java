@@ -0,0 +1,104 @@
+import java.nio.*;
+
+/**
+ * Agrupa várias mensagens "msg" de um mesmo remetente em um único datagrama de lote.
+ * O lote é enviado quando atinge o tamanho máximo em bytes ou quando a primeira mensagem
+ * nele completa o tempo máximo de espera (linger). Cada registro mantém o seu próprio
+ * timestamp, e o receptor os desempacota na ordem em que foram adicionados.
+ *
+ * Não é thread-safe: deve ser usado apenas pela thread do núcleo.
+ */
+class OutboundBatcher {
+
+    private final MessageCodec codec;
+    private final ByteBuffer lote;
+    private final int tamanhoMaximo;
+    private final long esperaMaximaNanos;
+
+    // Estado do lote em montagem
+    private int posicaoQuantidade;
+    private int quantidade;
+    private long inicio;
+
+    /**
+     * Construtor do agrupador.
+     * @param codec codec usado para escrever os registros
+     * @param tamanhoMaximo tamanho máximo do datagrama de lote, em bytes
+     * @param esperaMaximaNanos tempo máximo que a primeira mensagem pode aguardar no lote
+     * @param direto true para montar o lote em memória nativa (canais), false para um array (sockets)
+     */
+    public OutboundBatcher(MessageCodec codec, int tamanhoMaximo, long esperaMaximaNanos, boolean direto) {
+        this.codec = codec;
+        this.tamanhoMaximo = tamanhoMaximo;
+        this.esperaMaximaNanos = esperaMaximaNanos;
+        // Folga para um registro que sozinho ultrapasse o tamanho máximo
+        int capacidade = 64 * 1024;
+        this.lote = direto ? ByteBuffer.allocateDirect(capacidade) : ByteBuffer.allocate(capacidade);
+    }
+
+    /**
+     * Verifica se não há mensagens aguardando no lote.
+     * @return true se o lote está vazio
+     */
+    public boolean vazio() {
+        return quantidade == 0;
+    }
+
+    /**
+     * Retorna a quantidade de mensagens no lote em montagem.
+     * @return número de registros
+     */
+    public int quantidade() {
+        return quantidade;
+    }
+
+    /**
+     * Tenta adicionar uma mensagem ao lote. Um registro sozinho é sempre aceito, mesmo que
+     * ultrapasse o tamanho máximo, desde que caiba em um datagrama.
+     * @param mensagem mensagem "msg" já carimbada
+     * @param base vetor da mensagem anterior do remetente para o timestamp diferencial, ou null
+     * @return true se a mensagem entrou no lote; false se ele precisa ser enviado antes
+     */
+    public boolean adicionar(Message mensagem, int[] base) {
+        if (quantidade == 0) {
+            lote.clear();
+            posicaoQuantidade = codec.iniciarLote(lote, mensagem.cliente());
+            inicio = System.nanoTime();
+        }
+        int marca = lote.position();
+        try {
+            codec.codificarRegistro(mensagem, base, lote);
+        } catch (BufferOverflowException ex) {
+            lote.position(marca);
+            return false;
+        }
+        if (quantidade > 0 && (lote.position() > tamanhoMaximo || quantidade == MessageCodec.MAXIMO_REGISTROS_LOTE)) {
+            lote.position(marca);
+            return false;
+        }
+        quantidade++;
+        return true;
+    }
+
+    /**
+     * Calcula quanto falta para o lote atual expirar.
+     * @return nanossegundos restantes, ou 0 se já expirou ou está vazio
+     */
+    public long nanosAteExpirar() {
+        if (quantidade == 0) {
+            return 0;
+        }
+        return Math.max(0, esperaMaximaNanos - (System.nanoTime() - inicio));
+    }
+
+    /**
+     * Fecha o lote e o prepara para envio. O lote volta a ficar vazio.
+     * @return buffer com o datagrama entre a posição e o limite, válido até a próxima adição
+     */
+    public ByteBuffer finalizar() {
+        lote.putShort(posicaoQuantidade, (short) quantidade);
+        lote.flip();
+        quantidade = 0;
+        return lote;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Limitador de taxa do tipo balde de fichas (token bucket).
+ * O balde recebe fichas continuamente até a capacidade máxima, e cada ação consome uma ficha.
+ */
+class RateLimiter {
+
+    private final double fichasPorNano;
+    private final double capacidade;
+    private double fichas;
+    private long ultimaRecarga;
+
+    /**
+     * Construtor do limitador.
+     * @param taxaPorSegundo quantidade de ações permitidas por segundo, em regime
+     * @param rajada quantidade máxima de ações permitidas de uma só vez
+     */
+    public RateLimiter(double taxaPorSegundo, int rajada) {
+        this.fichasPorNano = taxaPorSegundo / 1_000_000_000d;
+        this.capacidade = rajada;
+        this.fichas = rajada;
+        this.ultimaRecarga = System.nanoTime();
+    }
+
+    /**
+     * Tenta consumir uma ficha.
+     * @return true se a ação é permitida agora
+     */
+    public synchronized boolean tentarAdquirir() {
+        long agora = System.nanoTime();
+        fichas = Math.min(capacidade, fichas + (agora - ultimaRecarga) * fichasPorNano);
+        ultimaRecarga = agora;
+        if (fichas < 1) {
+            return false;
+        }
+        fichas--;
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Mensagem já carimbada e enviada por {@link StableMulticast#msendAsync}. Pode ser reenviada a
+ * outros destinatários com {@link StableMulticast#reenviarAsync}, mantendo o mesmo timestamp.
+ */
+public final class SentMessage {
+    private final Message mensagem;
+
+    SentMessage(Message mensagem) {
+        this.mensagem = mensagem;
+    }
+
+    /**
+     * Retorna o conteúdo da mensagem.
+     * @return texto enviado
+     */
+    public String texto() {
+        return mensagem.message();
+    }
+
+    /**
+     * Retorna uma cópia do timestamp atribuído à mensagem no envio.
+     * @return vetor de relógios, indexado pelo ID dos membros
+     */
+    public int[] timestamp() {
+        return mensagem.timestamp().clone();
+    }
+
+    /**
+     * Retorna a mensagem interna, para o reenvio.
+     * @return mensagem carimbada
+     */
+    Message mensagem() {
+        return mensagem;
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rede simulada em memória, para rodar vários nós StableMulticast na mesma JVM sem sockets
+ * nem interface de rede.
+ *
+ * Cada nó recebe um transporte de {@link #transporte()}; os datagramas enviados são copiados
+ * e entregues por uma única thread da rede, em ordem de instante de chegada. Sem falhas
+ * configuradas, a rede é um loopback em memória que entrega tudo, em ordem, assim que possível.
+ * Com elas, cada datagrama pode ser perdido, duplicado, atrasado por uma latência sorteada
+ * entre a mínima e a máxima e, com a probabilidade de reordenação, segurado por um atraso
+ * extra que o faz chegar depois dos seguintes. A cópia que o remetente recebe de um envio ao
+ * grupo não passa pela rede, como no loopback do multicast IP: chega sem falhas e em ordem.
+ *
+ * Os sorteios vêm de um gerador por enlace (remetente, destinatário), criado a partir da
+ * semente e dos IPs e portas das duas pontas: o destino do k-ésimo datagrama de um enlace é
+ * sempre o mesmo para a mesma semente, independente de como as threads dos nós intercalam os
+ * envios entre enlaces diferentes e de como o sistema resolve os nomes dos endereços.
+ */
+class SimulatedNetwork implements Closeable {
+
+    private final long semente;
+    private double perda;
+    private double duplicacao;
+    private double reordenacao;
+    private long atrasoReordenacaoNanos;
+    private long latenciaMinimaNanos;
+    private long latenciaMaximaNanos;
+
+    // Nós conectados, pelo endereço unicast, e membros de cada grupo multicast
+    private final Map<InetSocketAddress, Ponto> pontos = new HashMap<>();
+    private final Map<InetSocketAddress, List<Ponto>> grupos = new HashMap<>();
+    private final Map<Long, Random> sorteios = new HashMap<>();
+
+    // Datagramas a caminho, pelo instante de chegada; empates saem na ordem de envio
+    private final PriorityQueue<Datagrama> agenda = new PriorityQueue<>();
+    private long proximaOrdem;
+    private final Thread thread;
+    private boolean encerrada;
+
+    // Estatísticas
+    private long enviados;
+    private long perdidos;
+    private long duplicados;
+
+    /**
+     * Datagrama a caminho do destinatário.
+     */
+    private static final class Datagrama implements Comparable<Datagrama> {
+        final long chegada;
+        final long ordem;
+        final InetSocketAddress origem;
+        final InetSocketAddress destino;
+        final byte[] dados;
+
+        Datagrama(long chegada, long ordem, InetSocketAddress origem, InetSocketAddress destino, byte[] dados) {
+            this.chegada = chegada;
+            this.ordem = ordem;
+            this.origem = origem;
+            this.destino = destino;
+            this.dados = dados;
+        }
+
+        @Override
+        public int compareTo(Datagrama outro) {
+            int comparacao = Long.compare(chegada, outro.chegada);
+            return comparacao != 0 ? comparacao : Long.compare(ordem, outro.ordem);
+        }
+    }
+
+    /**
+     * Cria a rede, sem falhas, e inicia a thread que entrega os datagramas.
+     * @param semente semente dos sorteios de perda, duplicação, reordenação e latência
+     */
+    public SimulatedNetwork(long semente) {
+        this.semente = semente;
+        this.thread = new Thread(this::executar, "rede-simulada");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Define a probabilidade de cada datagrama ser perdido.
+     * @param probabilidade valor entre 0 e 1
+     * @return esta rede
+     */
+    public synchronized SimulatedNetwork perda(double probabilidade) {
+        this.perda = probabilidade;
+        return this;
+    }
+
+    /**
+     * Define a probabilidade de cada datagrama ser entregue duas vezes, com latências sorteadas
+     * separadamente.
+     * @param probabilidade valor entre 0 e 1
+     * @return esta rede
+     */
+    public synchronized SimulatedNetwork duplicacao(double probabilidade) {
+        this.duplicacao = probabilidade;
+        return this;
+    }
+
+    /**
+     * Define a probabilidade de cada datagrama ser segurado por um atraso extra.
+     * @param probabilidade valor entre 0 e 1
+     * @param atraso atraso somado à latência do datagrama
+     * @param unidade unidade do atraso
+     * @return esta rede
+     */
+    public synchronized SimulatedNetwork reordenacao(double probabilidade, long atraso, TimeUnit unidade) {
+        this.reordenacao = probabilidade;
+        this.atrasoReordenacaoNanos = unidade.toNanos(atraso);
+        return this;
+    }
+
+    /**
+     * Define a faixa da latência de cada datagrama, sorteada uniformemente.
+     * @param minima menor latência
+     * @param maxima maior latência
+     * @param unidade unidade das latências
+     * @return esta rede
+     */
+    public synchronized SimulatedNetwork latencia(long minima, long maxima, TimeUnit unidade) {
+        if (maxima < minima) {
+            throw new IllegalArgumentException("A latência máxima é menor que a mínima.");
+        }
+        this.latenciaMinimaNanos = unidade.toNanos(minima);
+        this.latenciaMaximaNanos = unidade.toNanos(maxima);
+        return this;
+    }
+
+    /**
+     * Cria um transporte ligado a esta rede, para ser passado a um nó.
+     * @return transporte ainda não aberto
+     */
+    public Transport transporte() {
+        return new Ponto();
+    }
+
+    /**
+     * Retorna quantos datagramas foram enviados, contando cada destinatário de um envio ao grupo.
+     * @return total de envios
+     */
+    public synchronized long enviados() {
+        return enviados;
+    }
+
+    /**
+     * Retorna quantos datagramas foram perdidos pela rede.
+     * @return total de perdas sorteadas
+     */
+    public synchronized long perdidos() {
+        return perdidos;
+    }
+
+    /**
+     * Retorna quantos datagramas foram entregues em duplicata.
+     * @return total de duplicações sorteadas
+     */
+    public synchronized long duplicados() {
+        return duplicados;
+    }
+
+    /**
+     * Encerra a thread da rede. Os datagramas ainda a caminho são descartados.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            encerrada = true;
+            agenda.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Identifica uma ponta de enlace pelo IP e pela porta. O texto do endereço não serve, já
+     * que pode ou não incluir o nome do host, conforme ele tenha sido resolvido.
+     */
+    private static int chave(InetSocketAddress endereco) {
+        return 31 * Arrays.hashCode(endereco.getAddress().getAddress()) + endereco.getPort();
+    }
+
+    /**
+     * Sorteia o destino de um datagrama e o coloca na agenda.
+     */
+    private synchronized void agendar(InetSocketAddress origem, InetSocketAddress destino, byte[] dados) {
+        if (encerrada) {
+            return;
+        }
+        enviados++;
+        long agora = System.nanoTime();
+        if (origem.equals(destino)) {
+            agenda.add(new Datagrama(agora, proximaOrdem++, origem, destino, dados));
+            notifyAll();
+            return;
+        }
+        long enlace = ((long) chave(origem) << 32) | (chave(destino) & 0xFFFFFFFFL);
+        Random sorteio = sorteios.get(enlace);
+        if (sorteio == null) {
+            sorteio = new Random(semente * 31 + enlace);
+            sorteios.put(enlace, sorteio);
+        }
+        if (sorteio.nextDouble() < perda) {
+            perdidos++;
+            return;
+        }
+        int copias = 1;
+        if (sorteio.nextDouble() < duplicacao) {
+            duplicados++;
+            copias = 2;
+        }
+        for (int i = 0; i < copias; i++) {
+            long atraso = latenciaMinimaNanos + (long) (sorteio.nextDouble() * (latenciaMaximaNanos - latenciaMinimaNanos));
+            if (sorteio.nextDouble() < reordenacao) {
+                atraso += atrasoReordenacaoNanos;
+            }
+            agenda.add(new Datagrama(agora + atraso, proximaOrdem++, origem, destino, dados));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Corpo da thread da rede: espera o próximo datagrama chegar e o entrega ao destinatário,
+     * se ele ainda estiver conectado.
+     */
+    private void executar() {
+        while (true) {
+            Datagrama datagrama;
+            Ponto destino;
+            synchronized (this) {
+                try {
+                    while (!encerrada && (agenda.isEmpty() || agenda.peek().chegada > System.nanoTime())) {
+                        if (agenda.isEmpty()) {
+                            wait();
+                        } else {
+                            long espera = agenda.peek().chegada - System.nanoTime();
+                            TimeUnit.NANOSECONDS.timedWait(this, espera);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (encerrada) {
+                    return;
+                }
+                datagrama = agenda.poll();
+                destino = pontos.get(datagrama.destino);
+            }
+            if (destino == null) {
+                continue; // Ninguém no endereço: o datagrama se perde, como no UDP
+            }
+            try {
+                destino.receptor.receber(ByteBuffer.wrap(datagrama.dados), datagrama.origem);
+            } catch (RuntimeException ex) {
+                // Um datagrama com problema não pode derrubar a entrega aos demais nós
+                System.err.println("Erro ao processar mensagem recebida!");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Transporte de um nó conectado à rede simulada.
+     */
+    private final class Ponto implements Transport {
+        private InetSocketAddress endereco;
+        private InetSocketAddress grupo;
+        private Receptor receptor;
+
+        @Override
+        public void abrir(InetAddress grupo, int portaGrupo, InetAddress local, int portaLocal, Receptor receptor) throws IOException {
+            InetSocketAddress endereco = new InetSocketAddress(local, portaLocal);
+            synchronized (SimulatedNetwork.this) {
+                if (pontos.containsKey(endereco)) {
+                    throw new BindException("Endereço já em uso na rede simulada: " + endereco);
+                }
+                this.endereco = endereco;
+                this.grupo = new InetSocketAddress(grupo, portaGrupo);
+                this.receptor = receptor;
+                pontos.put(endereco, this);
+                grupos.computeIfAbsent(this.grupo, g -> new ArrayList<>()).add(this);
+            }
+        }
+
+        @Override
+        public void enviarParaGrupo(ByteBuffer dados) {
+            byte[] copia = copiar(dados);
+            synchronized (SimulatedNetwork.this) {
+                for (Ponto membro : grupos.getOrDefault(grupo, Collections.emptyList())) {
+                    agendar(endereco, membro.endereco, copia);
+                }
+            }
+        }
+
+        @Override
+        public void enviar(ByteBuffer dados, InetAddress endereco, int porta) {
+            agendar(this.endereco, new InetSocketAddress(endereco, porta), copiar(dados));
+        }
+
+        /**
+         * Desconecta o nó da rede; os datagramas a caminho dele passam a ser descartados.
+         */
+        @Override
+        public void close() {
+            synchronized (SimulatedNetwork.this) {
+                if (endereco != null && pontos.get(endereco) == this) {
+                    pontos.remove(endereco);
+                    grupos.get(grupo).remove(this);
+                }
+            }
+        }
+
+        private byte[] copiar(ByteBuffer dados) {
+            byte[] copia = new byte[dados.remaining()];
+            dados.duplicate().get(copia);
+            return copia;
+        }
+    }
+}
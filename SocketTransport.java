@@ -0,0 +1,113 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Transporte sobre sockets bloqueantes: um MulticastSocket para o grupo e um DatagramSocket
+ * para o unicast, cada um com uma thread de recepção própria.
+ */
+class SocketTransport implements Transport {
+
+    private InetAddress grupo;
+    private int portaGrupo;
+    private MulticastSocket socket;
+    private DatagramSocket socket_unicast;
+    private volatile boolean encerrado;
+
+    @Override
+    public void abrir(InetAddress grupo, int portaGrupo, InetAddress local, int portaLocal, Receptor receptor) throws IOException {
+        this.grupo = grupo;
+        this.portaGrupo = portaGrupo;
+        NetworkInterface redeInterface = Transport.interfaceMulticast();
+
+        this.socket = new MulticastSocket(portaGrupo);
+        this.socket_unicast = new DatagramSocket(portaLocal, local);
+        socket.joinGroup(new InetSocketAddress(grupo, portaGrupo), redeInterface);
+        socket.setNetworkInterface(redeInterface);
+        socket.setReuseAddress(true);
+
+        // Inicializa os listeners para os sockets
+        listening(this.socket, receptor);
+        listening(this.socket_unicast, receptor);
+    }
+
+    @Override
+    public void enviarParaGrupo(ByteBuffer dados) throws IOException {
+        transmitir(this.socket, dados, this.grupo, this.portaGrupo);
+    }
+
+    @Override
+    public void enviar(ByteBuffer dados, InetAddress endereco, int porta) throws IOException {
+        transmitir(this.socket_unicast, dados, endereco, porta);
+    }
+
+    /**
+     * Fecha os sockets, o que também encerra as threads de recepção.
+     */
+    @Override
+    public void close() {
+        encerrado = true;
+        for (Closeable recurso : new Closeable[] { socket, socket_unicast }) {
+            try {
+                if (recurso != null) {
+                    recurso.close();
+                }
+            } catch (IOException ex) {
+                System.err.println("Falha ao fechar o socket!");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static void transmitir(DatagramSocket skt, ByteBuffer dados, InetAddress endereco, int porta) throws IOException {
+        if (!dados.hasArray()) {
+            // Buffer direto: copia para um array, já que o DatagramPacket não aceita outra forma
+            ByteBuffer copia = ByteBuffer.allocate(dados.remaining());
+            copia.put(dados.duplicate()).flip();
+            dados = copia;
+        }
+        // Cria um pacote de dados com o endereço e a porta de destino
+        DatagramPacket pacoteEnvio = new DatagramPacket(dados.array(), dados.arrayOffset() + dados.position(), dados.remaining(), endereco, porta);
+        // Envia o pacote através do socket
+        skt.send(pacoteEnvio);
+    }
+
+    /**
+     * Método para ouvir mensagens em um socket.
+     * @param skt socket a ser ouvido
+     * @param receptor quem processa os datagramas recebidos
+     */
+    private void listening(DatagramSocket skt, Receptor receptor) {
+        // Criação de uma nova thread para ouvir mensagens UDP de forma assíncrona
+        Thread udpThread = new Thread(() -> {
+            // Pacote reutilizado por toda a vida da thread; mensagens maiores que a MTU chegam fragmentadas
+            DatagramPacket pacote = new DatagramPacket(new byte[MessageCodec.TAMANHO_MTU], MessageCodec.TAMANHO_MTU);
+            // Loop para receber mensagens enquanto a thread não for interrompida
+            while (!encerrado && !Thread.currentThread().isInterrupted()) {
+                try {
+                    // Recebe o pacote de dados através do socket
+                    pacote.setLength(pacote.getData().length);
+                    skt.receive(pacote);
+                } catch (IOException ex) {
+                    if (!encerrado) {
+                        System.err.println("Falha ao receber a mensagem!");
+                        ex.printStackTrace();
+                    }
+                    if (skt.isClosed()) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    receptor.receber(ByteBuffer.wrap(pacote.getData(), 0, pacote.getLength()), pacote.getSocketAddress());
+                } catch (RuntimeException ex) {
+                    System.err.println("Erro ao processar mensagem recebida!");
+                    ex.printStackTrace();
+                }
+            }
+        }, "recepcao-" + skt.getLocalPort());
+        udpThread.setDaemon(true);
+        // Inicia a thread
+        udpThread.start();
+    }
+}
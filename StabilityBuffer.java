@@ -0,0 +1,412 @@
+import java.util.*;
+
+/**
+ * Buffer das mensagens ainda não estáveis, organizado em uma fila por remetente.
+ * Cada fila é um array circular indexado pelo número de sequência da mensagem,
+ * o que permite localizar uma mensagem em O(1) e descartar as estáveis sempre pela cabeça.
+ *
+ * A marca de estabilidade de cada remetente é o mínimo da sua coluna na matriz de relógios:
+ * toda mensagem com sequência abaixo dela já foi entregue por todos os membros.
+ * Como a marca só avança, cada mensagem é descartada uma única vez e o custo de
+ * coleta é O(1) amortizado por mensagem. A coleta pela matriz confere só os remetentes cuja
+ * coluna a matriz registrou como alterada e os que voltaram a ter mensagens desde a última
+ * coleta, em vez de percorrer todas as filas.
+ *
+ * As mensagens em si ficam codificadas fora do heap, em uma {@link OffHeapArena}: as filas guardam
+ * só o identificador long de cada uma, e a mensagem é decodificada quando alguém a pede.
+ */
+class StabilityBuffer implements Iterable<Message> {
+
+    // Maior distância aceita entre a sequência de uma mensagem e a base da fila do remetente.
+    // A sequência vem da rede; sem o limite, um valor forjado ou corrompido faria a fila
+    // alocar um array do tamanho da distância, ou estourar o cálculo da capacidade
+    static final int JANELA_MAXIMA = 1 << 20;
+
+    // Área onde as mensagens ficam codificadas
+    private final OffHeapArena arena;
+
+    // Filas indexadas pelo ID do remetente
+    private FilaRemetente[] filas = new FilaRemetente[4];
+
+    // Total de mensagens armazenadas
+    private int tamanho;
+
+    // Remetentes cuja fila deixou de estar vazia desde a última coleta pela matriz
+    private int[] pendentes = new int[4];
+    private int quantidadePendentes;
+
+    // Matriz usada na última coleta; as colunas alteradas só valem para ela
+    private ClockMatrix matrizConferida;
+
+    // Histograma do tempo até a estabilidade, ou null se não medido
+    private LatencyHistogram tempoEstabilizacao;
+
+    /**
+     * Construtor do buffer.
+     * @param arena área fora do heap onde as mensagens são guardadas
+     */
+    public StabilityBuffer(OffHeapArena arena) {
+        this.arena = arena;
+    }
+
+    /**
+     * Retorna a quantidade de mensagens no buffer.
+     * @return número de mensagens ainda não estáveis
+     */
+    public int tamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Verifica se o buffer está vazio.
+     * @return true se não houver mensagens
+     */
+    public boolean isEmpty() {
+        return tamanho == 0;
+    }
+
+    /**
+     * Passa a registrar, para cada mensagem descartada por estar estável, quanto tempo ela ficou no buffer.
+     * Mensagens descartadas porque o remetente saiu do grupo não são medidas.
+     * @param histograma histograma que recebe as medidas, ou null para não medir
+     */
+    public void medirEstabilizacao(LatencyHistogram histograma) {
+        this.tempoEstabilizacao = histograma;
+    }
+
+    /**
+     * Adiciona uma mensagem na fila do seu remetente, gravando-a na área fora do heap.
+     * Mensagens repetidas, com sequência abaixo da marca de estabilidade já descartada ou mais de
+     * {@link #JANELA_MAXIMA} sequências à frente dela são ignoradas.
+     * @param mensagem mensagem recebida, com o timestamp completo
+     */
+    public void adicionar(Message mensagem) {
+        int remetente = mensagem.cliente().getID();
+        if (remetente >= filas.length) {
+            filas = Arrays.copyOf(filas, Math.max(remetente + 1, filas.length * 2));
+        }
+        if (filas[remetente] == null) {
+            filas[remetente] = new FilaRemetente();
+        }
+        FilaRemetente fila = filas[remetente];
+        boolean vazia = fila.quantidade == 0;
+        int inseridas = fila.inserir(mensagem.timestamp()[remetente], mensagem, arena);
+        tamanho += inseridas;
+        if (vazia && inseridas > 0 && !fila.pendente) {
+            // A coluna do remetente pode ter sido retirada da matriz enquanto a fila estava vazia
+            fila.pendente = true;
+            if (quantidadePendentes == pendentes.length) {
+                pendentes = Arrays.copyOf(pendentes, pendentes.length * 2);
+            }
+            pendentes[quantidadePendentes++] = remetente;
+        }
+    }
+
+    /**
+     * Obtém uma mensagem ainda armazenada pelo remetente e número de sequência.
+     * @param remetente ID do remetente
+     * @param sequencia número de sequência da mensagem
+     * @return nova instância da mensagem, decodificada da área, ou null se ela não estiver no buffer
+     */
+    public Message obter(int remetente, int sequencia) {
+        if (remetente < 0 || remetente >= filas.length || filas[remetente] == null) {
+            return null;
+        }
+        long identificador = filas[remetente].obter(sequencia);
+        return identificador != 0 ? arena.ler(identificador) : null;
+    }
+
+    /**
+     * Retorna quantas mensagens de um remetente estão no buffer.
+     * @param remetente ID do remetente
+     * @return número de mensagens do remetente
+     */
+    public int tamanho(int remetente) {
+        if (remetente < 0 || remetente >= filas.length || filas[remetente] == null) {
+            return 0;
+        }
+        return filas[remetente].quantidade;
+    }
+
+    /**
+     * Descarta as mensagens de um remetente que estão abaixo da sua marca de estabilidade.
+     * @param remetente ID do remetente
+     * @param marca número de mensagens do remetente que todos os membros já entregaram
+     * @return quantidade de mensagens descartadas
+     */
+    public int descartarEstaveis(int remetente, int marca) {
+        if (remetente < 0 || remetente >= filas.length || filas[remetente] == null) {
+            return 0;
+        }
+        int descartadas = filas[remetente].avancarMarca(marca, tempoEstabilizacao, arena);
+        tamanho -= descartadas;
+        return descartadas;
+    }
+
+    /**
+     * Descarta as mensagens estáveis dos remetentes cuja marca pode ter avançado, usando como marca
+     * o mínimo em cache de cada coluna da matriz. São conferidas as colunas retiradas com
+     * {@link ClockMatrix#retirarColunaAlterada} e as filas que voltaram a ter mensagens desde a última
+     * coleta; na primeira coleta com uma matriz diferente todas as filas são conferidas.
+     * Remetentes que não fazem mais parte da matriz têm todas as mensagens descartadas.
+     * @param relogios matriz de relógios do grupo
+     * @return quantidade de mensagens descartadas
+     */
+    public int descartarEstaveis(ClockMatrix relogios) {
+        int descartadas = 0;
+        while (quantidadePendentes > 0) {
+            int remetente = pendentes[--quantidadePendentes];
+            if (filas[remetente] != null) {
+                filas[remetente].pendente = false;
+            }
+            if (relogios == matrizConferida) {
+                descartadas += conferir(relogios, remetente);
+            }
+        }
+        if (relogios != matrizConferida) {
+            // Matriz nova: as alterações registradas nela não dizem nada sobre as filas atuais
+            matrizConferida = relogios;
+            while (relogios.retirarColunaAlterada() >= 0) {
+                // Descarta o registro; todas as filas são conferidas abaixo
+            }
+            for (int remetente = 0; remetente < filas.length && tamanho > 0; remetente++) {
+                descartadas += conferir(relogios, remetente);
+            }
+            return descartadas;
+        }
+        for (int remetente = relogios.retirarColunaAlterada(); remetente >= 0;
+                remetente = relogios.retirarColunaAlterada()) {
+            descartadas += conferir(relogios, remetente);
+        }
+        return descartadas;
+    }
+
+    /**
+     * Descarta as mensagens estáveis de um remetente, ou todas se ele saiu da matriz.
+     * @return quantidade de mensagens descartadas
+     */
+    private int conferir(ClockMatrix relogios, int remetente) {
+        if (remetente >= filas.length || filas[remetente] == null || filas[remetente].quantidade == 0) {
+            return 0;
+        }
+        if (relogios.contem(remetente)) {
+            return descartarEstaveis(remetente, relogios.minimoColuna(remetente));
+        }
+        return descartarRemetente(remetente);
+    }
+
+    /**
+     * Descarta todas as mensagens de um remetente.
+     * @param remetente ID do remetente
+     * @return quantidade de mensagens descartadas
+     */
+    public int descartarRemetente(int remetente) {
+        if (remetente < 0 || remetente >= filas.length || filas[remetente] == null) {
+            return 0;
+        }
+        int descartadas = filas[remetente].quantidade;
+        filas[remetente].liberarTudo(arena);
+        filas[remetente] = null;
+        tamanho -= descartadas;
+        return descartadas;
+    }
+
+    /**
+     * Descarta todas as mensagens de todos os remetentes.
+     */
+    public void esvaziar() {
+        for (int remetente = 0; remetente < filas.length; remetente++) {
+            descartarRemetente(remetente);
+        }
+    }
+
+    /**
+     * Move as mensagens dos slabs quase vazios para o slab atual da área, liberando os slabs
+     * que só continuavam ocupados por elas.
+     * @return quantidade de mensagens movidas
+     */
+    public int compactar() {
+        int movidas = 0;
+        for (FilaRemetente fila : filas) {
+            if (fila != null && fila.quantidade > 0) {
+                movidas += fila.compactar(arena);
+            }
+        }
+        return movidas;
+    }
+
+    /**
+     * Calcula há quanto tempo a mensagem mais antiga do buffer aguarda para se tornar estável.
+     * @param agora instante atual, em nanossegundos de System.nanoTime
+     * @return idade da mensagem mais antiga em nanossegundos, ou 0 se o buffer estiver vazio
+     */
+    public long idadeMaisAntiga(long agora) {
+        long maisAntiga = agora;
+        for (int remetente = 0; remetente < filas.length && tamanho > 0; remetente++) {
+            FilaRemetente fila = filas[remetente];
+            if (fila != null && fila.quantidade > 0) {
+                maisAntiga = Math.min(maisAntiga, fila.instanteMaisAntigo());
+            }
+        }
+        return agora - maisAntiga;
+    }
+
+    /**
+     * Percorre as mensagens agrupadas por remetente e em ordem de sequência, decodificando todas.
+     * @return iterador sobre cópias das mensagens do buffer
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        List<Message> mensagens = new ArrayList<>(tamanho);
+        for (FilaRemetente fila : filas) {
+            if (fila != null) {
+                fila.copiarPara(mensagens, arena);
+            }
+        }
+        return mensagens.iterator();
+    }
+
+    /**
+     * Fila circular dos identificadores das mensagens de um único remetente, indexada pelo número
+     * de sequência. A posição da sequência s é (cabeca + s - base) módulo a capacidade; lacunas ficam com 0.
+     */
+    private static final class FilaRemetente {
+        private long[] itens = new long[8];
+        private long[] instantes = new long[8]; // Instante em que cada mensagem entrou no buffer
+        private int cabeca;     // Posição no array da sequência base
+        private int base;       // Menor sequência ainda não descartada
+        private int extensao;   // Quantidade de sequências cobertas a partir da base
+        private int quantidade; // Quantidade de posições ocupadas
+        private boolean pendente; // Já está entre os remetentes a conferir na próxima coleta
+
+        /**
+         * Grava a mensagem na área e insere o seu identificador na posição da sua sequência.
+         * @return 1 se a posição estava vazia, 0 se a mensagem foi ignorada
+         */
+        int inserir(int sequencia, Message mensagem, OffHeapArena arena) {
+            if (sequencia < base) {
+                return 0; // Já estável e descartada anteriormente
+            }
+            int deslocamento = sequencia - base;
+            if (deslocamento >= JANELA_MAXIMA) {
+                return 0; // Longe demais da base para ser uma sequência legítima
+            }
+            if (deslocamento >= itens.length) {
+                crescer(deslocamento + 1);
+            }
+            int posicao = (cabeca + deslocamento) & (itens.length - 1);
+            if (itens[posicao] != 0) {
+                return 0; // A mesma mensagem já está guardada
+            }
+            itens[posicao] = arena.gravar(mensagem);
+            instantes[posicao] = System.nanoTime();
+            extensao = Math.max(extensao, deslocamento + 1);
+            quantidade++;
+            return 1;
+        }
+
+        long obter(int sequencia) {
+            int deslocamento = sequencia - base;
+            if (deslocamento < 0 || deslocamento >= extensao) {
+                return 0;
+            }
+            return itens[(cabeca + deslocamento) & (itens.length - 1)];
+        }
+
+        /**
+         * Remove pela cabeça todas as sequências abaixo da marca.
+         * @param estabilizacao histograma do tempo no buffer das removidas, ou null
+         * @param arena área de onde as removidas são liberadas
+         * @return quantidade de mensagens removidas
+         */
+        int avancarMarca(int marca, LatencyHistogram estabilizacao, OffHeapArena arena) {
+            int removidas = 0;
+            long agora = estabilizacao != null && base < marca && extensao > 0 ? System.nanoTime() : 0;
+            while (base < marca && extensao > 0) {
+                if (itens[cabeca] != 0) {
+                    arena.liberar(itens[cabeca]);
+                    itens[cabeca] = 0;
+                    if (estabilizacao != null) {
+                        estabilizacao.registrar(agora - instantes[cabeca]);
+                    }
+                    removidas++;
+                }
+                cabeca = (cabeca + 1) & (itens.length - 1);
+                base++;
+                extensao--;
+            }
+            if (base < marca) {
+                base = marca; // Fila vazia: a marca avança direto
+            }
+            quantidade -= removidas;
+            return removidas;
+        }
+
+        /**
+         * Retorna o instante de chegada da primeira mensagem a partir da cabeça, que é a próxima
+         * a se tornar estável e segura todas as demais da fila.
+         */
+        long instanteMaisAntigo() {
+            for (int i = 0; i < extensao; i++) {
+                int posicao = (cabeca + i) & (itens.length - 1);
+                if (itens[posicao] != 0) {
+                    return instantes[posicao];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void copiarPara(List<Message> destino, OffHeapArena arena) {
+            for (int i = 0; i < extensao; i++) {
+                long identificador = itens[(cabeca + i) & (itens.length - 1)];
+                if (identificador != 0) {
+                    destino.add(arena.ler(identificador));
+                }
+            }
+        }
+
+        /**
+         * Move para o slab atual as mensagens da fila que estão em slabs esparsos.
+         * @return quantidade de mensagens movidas
+         */
+        int compactar(OffHeapArena arena) {
+            int movidas = 0;
+            for (int i = 0; i < extensao; i++) {
+                int posicao = (cabeca + i) & (itens.length - 1);
+                if (itens[posicao] != 0 && arena.esparso(itens[posicao])) {
+                    itens[posicao] = arena.mover(itens[posicao]);
+                    movidas++;
+                }
+            }
+            return movidas;
+        }
+
+        /**
+         * Libera na área todas as mensagens da fila, quando o remetente sai do grupo.
+         */
+        void liberarTudo(OffHeapArena arena) {
+            for (int i = 0; i < extensao; i++) {
+                long identificador = itens[(cabeca + i) & (itens.length - 1)];
+                if (identificador != 0) {
+                    arena.liberar(identificador);
+                }
+            }
+        }
+
+        /**
+         * Aumenta a capacidade para a próxima potência de dois, realinhando a base na posição 0.
+         */
+        private void crescer(int minimo) {
+            int capacidade = Integer.highestOneBit(minimo - 1) << 1;
+            long[] novos = new long[capacidade];
+            long[] novosInstantes = new long[capacidade];
+            for (int i = 0; i < extensao; i++) {
+                novos[i] = itens[(cabeca + i) & (itens.length - 1)];
+                novosInstantes[i] = instantes[(cabeca + i) & (itens.length - 1)];
+            }
+            itens = novos;
+            instantes = novosInstantes;
+            cabeca = 0;
+        }
+    }
+}
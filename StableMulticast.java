@@ -1,267 +1,657 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
 
+public class StableMulticast implements Serializable, Closeable{
 
-/**
- * Representa uma mensagem trocada entre clientes em um sistema de multicast.
- */
-class Message implements Serializable {
-    private Integer[] timestamp;   // Array que guarda os timestamps da mensagem
-    private String textoMensagem;  // Conteúdo da mensagem
-    private String comando;        // Comando associado à mensagem
-    private ClientInfo cliente;    // Informações do cliente que enviou a mensagem
-    private ArrayList<ClientInfo> listaClientes; // Lista de clientes conectados
+    // Informações dos outros clientes. A lista nunca é alterada depois de publicada: o núcleo
+    // a substitui por uma cópia, e as threads de recepção a leem sem sincronização
+    private volatile ArrayList<ClientInfo> clientes;
 
-    /**
-     * Construtor para criar uma nova mensagem.
-     * @param timestamp Array de timestamps
-     * @param textoMensagem Conteúdo da mensagem
-     * @param cliente Informações do cliente
-     * @param comando Comando associado
-     */
-    public Message(Integer[] timestamp, String textoMensagem, ClientInfo cliente, String comando) {
-        this.timestamp = timestamp;
-        this.textoMensagem = textoMensagem;
-        this.cliente = cliente;
-        this.comando = comando;
-    }
+    // Buffer e timestamps
+    private StabilityBuffer buffer;
+    private OffHeapArena arena; // Mensagens do buffer, codificadas fora do heap
+    private ClockMatrix MCi;
 
-     /**
-     * Retorna o conteúdo da mensagem.
-     * @return Conteúdo da mensagem
-     */
-    public String message(){
-        return textoMensagem;
-    }
+    // Mensagens recebidas fora de ordem, aguardando suas dependências causais
+    private CausalDeliveryQueue filaCausal;
+
+    // Informações do cliente
+    private ClientInfo client;
+
+    // Estágio que passa as mensagens ao cliente fora da thread do núcleo
+    private DeliveryDispatcher entrega;
+
+    // Métricas do nó, também exportadas via JMX com o nome registrado abaixo
+    private MulticastMetrics metricas;
+    private ObjectName nomeJmx;
+
+    // Unicast
+    private String ip_unicast;
+    private Integer porta_unicast;
+    private InetAddress unicast;
+
+    // Multicast
+    private String ip = "224.0.5.1";
+    private Integer porta = 1236;
+    private InetAddress multicast;
+
+    // Transporte dos datagramas: sockets, canais em um laço de eventos ou uma rede simulada
+    private Transport transporte;
+
+    // Cores
+    public final String COLOR_RESET = "\u001B[0m";
+    public final String COLOR_PURPLE = "\u001B[35m";
+    public final String COLOR_CYAN = "\u001B[36m";
+
+    // Codificação das mensagens
+    private static final int TAMANHO_MAXIMO_DATAGRAMA = 64 * 1024;
+    // Maior texto aceito para envio, em bytes UTF-8, com folga no datagrama para o cabeçalho e
+    // o timestamp. Um texto maior seria carimbado sem nunca caber em um datagrama, nem no reparo
+    static final int TAMANHO_MAXIMO_TEXTO = TAMANHO_MAXIMO_DATAGRAMA - 4 * 1024;
+    private MessageCodec codec;
+    private ByteBuffer bufferEnvio;
+    private volatile boolean serializacaoJava = false; // Compatibilidade com nós que usam serialização Java
+
+    // Envio para o grupo inteiro com um único datagrama multicast, em vez de um unicast por membro
+    private volatile boolean envioMulticast = true;
+
+    // Envios pendentes, carimbados e enviados pelo núcleo; as vagas limitam quantos podem aguardar
+    private final MpscQueue<EnvioPendente> filaEnvio = new MpscQueue<>();
+    // Ordena as ofertas na fila de envio com o encerramento: um envio oferecido antes de
+    // encerrado ficar verdadeiro é visto pela última rodada do núcleo; depois, é recusado
+    private final Object travaEnvio = new Object();
+    private Semaphore vagasEnvio;
+    private long tempoMaximoBloqueioMs;
+
+    // Agrupamento das mensagens para o grupo em datagramas de lote (null se desativado)
+    private OutboundBatcher agrupador;
+
+    // Fragmentação das mensagens maiores que a MTU
+    private static final long TEMPO_LIMITE_REMONTAGEM_MS = 2000;
+    private FragmentReassembler remontador;
+    private ByteBuffer bufferFragmento;
+    private int proximoIdFragmentado;
+
+    // Cópias repetidas de uma "msg", vindas do multicast, do unicast ou de uma retransmissão,
+    // são descartadas na recepção por uma janela das sequências já entregues de cada remetente
+    private DuplicateFilter filtroDuplicadas;
+
+    // Recuperação de perdas: lacunas detectadas pela matriz são pedidas com NACKs via unicast
+    private static final long INTERVALO_VERIFICACAO_LACUNAS_MS = 50;
+    private static final long INTERVALO_REPETICAO_NACK_MS = 200;
+    private static final int MAXIMO_MENSAGENS_POR_NACK = 64;
+    private static final double REPAROS_POR_SEGUNDO = 1000;
+    private static final int RAJADA_REPAROS = 128;
+    private ScheduledExecutorService temporizador;
+    private final Map<Integer, RateLimiter> limitesReparo = new HashMap<>();
+    private int[] lacunaObservada = new int[0]; // Contagem de entregas em que a lacuna de cada membro foi vista
+    private long[] ultimoNack = new long[0];
+
+    // Heartbeats com a linha local da matriz, para que membros quietos não segurem a estabilidade.
+    // Com entregas a anunciar, o intervalo encurta conforme o buffer cresce ou envelhece;
+    // sem elas, o heartbeat é só um sinal de vida ocasional
+    private static final long INTERVALO_MINIMO_HEARTBEAT_MS = 20;
+    private static final long ATRASO_MAXIMO_ANUNCIO_MS = 200;
+    private static final long INTERVALO_MAXIMO_HEARTBEAT_MS = 1000;
+    private static final int MENSAGENS_POR_PASSO_HEARTBEAT = 16;
+    private long ultimoAnuncio = System.nanoTime();
+    private int entregasNaoAnunciadas;
+
+    // Visão do grupo: só o coordenador (menor ID) admite novos membros e atribui os IDs, que
+    // nunca são reaproveitados, e anuncia a nova visão ao grupo com um "hello". As adesões vistas
+    // antes de a visão chegar esperam por ela. O join é repetido a cada tempo de fundação; sem
+    // resposta depois de algumas tentativas, e sem sinal recente de um grupo já existente, o nó
+    // funda o grupo
+    private static final long TEMPO_FUNDACAO_MS = 500;
+    private static final int TENTATIVAS_ADESAO = 2;
+    private int proximoId;
+    private final List<ClientInfo> adesoesPendentes = new ArrayList<>();
+    private int tentativasAdesao;
+    private long ultimoTrafegoGrupo; // Última mensagem de um membro vista sem a visão, em nanossegundos
+    private int idAbandonado = -1;   // ID do qual este nó foi removido, recusado se reaparecer em um hello
+
+    // Mudanças de visão perdidas: um vetor maior que os IDs conhecidos revela um membro admitido
+    // sem que o hello tenha chegado aqui, e a visão é pedida a quem enviou o vetor. Um membro
+    // removido que continua falando é avisado com um "leave" com o próprio ID, e adere de novo
+    private static final long INTERVALO_PEDIDO_VISAO_MS = 500;
+    private static final int MAXIMO_REMOVIDOS_LEMBRADOS = 64;
+    private long ultimoPedidoVisao;
+    private long ultimoAvisoRemocao;
+    private final Map<Integer, ClientInfo> removidos = new LinkedHashMap<Integer, ClientInfo>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ClientInfo> maisAntigo) {
+            return size() > MAXIMO_REMOVIDOS_LEMBRADOS;
+        }
+    };
+
+    // Transferência de estado na adesão: o coordenador (menor ID) envia ao novo membro a matriz
+    // e o buffer em partes via unicast. Mensagens e partes que chegam antes da visão esperam por ela
+    private static final int TAMANHO_PARTE_ESTADO = MessageCodec.TAMANHO_MTU;
+    private final List<Message> mensagensPendentes = new ArrayList<>();
+
+    // Timestamps diferenciais: as mensagens para o grupo levam só as entradas que mudaram desde a
+    // anterior, com o vetor completo a cada tantas mensagens. Reparos e unicasts vão sempre completos
+    private static final int MENSAGENS_ENTRE_RESSINCRONIZACOES = 32;
+    private final TimestampReconstructor reconstrutor = new TimestampReconstructor();
+    private int[] ultimoVetorGrupo;
+    private int enviadasDesdeRessincronizacao;
+
+    // Detector de falhas por tempo limite: um membro calado por vários intervalos máximos
+    // de heartbeat é considerado falho e removido da visão
+    private static final long INTERVALO_VERIFICACAO_FALHAS_MS = 500;
+    private static final long TEMPO_SUSPEITA_MS = 5 * INTERVALO_MAXIMO_HEARTBEAT_MS;
+    private long[] ultimoContato = new long[0];
+
+    // Persistência opcional: as mensagens do buffer, as atualizações dos relógios e as mudanças de
+    // visão vão para um log em segmentos mapeados em memória, reproduzido quando o nó reinicia
+    private static final int TAMANHO_SEGMENTO_LOG = 4 * 1024 * 1024;
+    private WriteAheadLog log;
+
+    // Retorno a partir do log: o ID recuperado só vale depois que um membro o confirma com um
+    // hello. Quem já o removeu responde com um leave; sem resposta alguma, o nó adere de novo
+    private static final long TEMPO_CONFIRMACAO_RETORNO_MS = 3 * INTERVALO_MAXIMO_HEARTBEAT_MS;
+    private long inicioRetorno; // Instante do retorno ainda não confirmado, ou 0
+
+    // Núcleo de escritor único: só a thread do núcleo altera a visão, a matriz, o buffer e o
+    // estado do envio. As threads de recepção, o temporizador e quem envia apenas colocam
+    // tarefas na caixa de entrada, sem bloqueio, e acordam o núcleo se ele estiver dormindo
+    private static final long INTERVALO_PUBLICACAO_MS = 50;
+    private static final int TAREFAS_POR_RODADA = 64;
+    private final MpscQueue<Runnable> caixaEntrada = new MpscQueue<>();
+    private Thread nucleo;
+    private volatile boolean nucleoDormindo;
+    private final List<EnvioPendente> noLote = new ArrayList<>(); // Envios do lote aberto
+    private boolean envioRetido; // Envios esperando o buffer voltar ao orçamento
+    // Mensagens novas retiradas da fila com o buffer acima do orçamento, na ordem de chegada;
+    // cada uma ainda ocupa a sua vaga na fila de envio
+    private final ArrayDeque<EnvioPendente> enviosRetidos = new ArrayDeque<>();
+    private long ultimaCompactacao;
+    private boolean alterado; // Há mudanças ainda não publicadas no retrato
+    private long ultimaPublicacao;
+    private ArrayList<ClientInfo> clientesPublicados; // Lista do último retrato, para publicar mudanças de visão na hora
+
+    // Retrato imutável do estado publicado pelo núcleo, lido pelos métodos de exibição e de diagnóstico
+    private volatile GroupSnapshot retrato = GroupSnapshot.VAZIO;
+
+    // Rastreamento opcional: o temporizador imprime os retratos novos, no máximo um por intervalo
+    private ScheduledFuture<?> rastreamento;
+    private String ultimoRastreado;
+
+    // Tópico em um hospedeiro compartilhado (null em um nó avulso): o transporte, a thread do
+    // núcleo, o temporizador e o pool de entrega são do hospedeiro, e as rodadas do núcleo deste
+    // nó são executadas por ele
+    private TopicHost.Topico topicoHospedado;
+    private final List<ScheduledFuture<?>> tarefasPeriodicas = new ArrayList<>();
+
+    // Encerramento; saindo fica verdadeiro desde o envio do leave próprio, para que a cópia dele
+    // não seja confundida com uma remoção pelo grupo
+    private volatile boolean saindo;
+    private volatile boolean encerrado;
 
-     /**
-     * Retorna as informações do cliente que enviou a mensagem.
-     * @return Informações do cliente
-     */
-    public ClientInfo cliente(){
-        return cliente;
-    }
 
     /**
-     * Retorna o array de timestamps da mensagem.
-     * @return Array de timestamps
+     * Cria o middleware com a configuração padrão de grupo, no modo com uma thread por socket.
+     * @param enderecoIP endereço IP para comunicação unicast
+     * @param porta porta para comunicação unicast
+     * @param nome nome do cliente no grupo
+     * @param cliente instância que recebe as mensagens entregues
+     * @throws UncheckedIOException se os sockets não puderem ser abertos
      */
-    public Integer[] timestamp(){
-        return timestamp;
+    public StableMulticast(String enderecoIP, Integer porta, String nome, IStableMulticast cliente) {
+        this(builder().endereco(enderecoIP).porta(porta).nome(nome).cliente(cliente));
     }
 
-     /**
-     * Retorna o comando associado à mensagem.
-     * @return Comando
+    /**
+     * Cria um construtor de configuração para o middleware.
+     * @return novo Builder com os valores padrão
      */
-    public String command(){
-        return comando;
+    public static Builder builder() {
+        return new Builder();
     }
 
     /**
-     * Define a lista de clientes conectados.
-     * @param listaClientes Lista de clientes
+     * Cria o middleware a partir de uma configuração. Sem um transporte informado, com um laço
+     * de eventos os sockets são canais não bloqueantes registrados nele; sem laço, cada socket
+     * ganha uma thread própria.
+     * @param config configuração do nó
      */
-    public void setClientList(ArrayList<ClientInfo> clientes){
-        this.listaClientes = clientes;
-    }
+    private StableMulticast(Builder config) {
+        if (config.nome == null || config.porta == null || config.cliente == null) {
+            throw new IllegalArgumentException("Nome, porta e cliente são obrigatórios.");
+        }
+        if (config.capacidadeEntrega < 0 || (config.capacidadeEntrega == 0 && config.executorEntrega != null)) {
+            // Com capacidade zero o núcleo chama o cliente direto, e o executor seria ignorado
+            throw new IllegalArgumentException("Capacidade de entrega deve ser positiva quando há executor de entrega.");
+        }
+
+        // Inicializa o endereço IP e a porta para comunicação unicast
+        this.ip_unicast = config.endereco;
+        this.porta_unicast = config.porta;
+        this.ip = config.ipGrupo;
+        this.porta = config.portaGrupo;
+        if (config.hospedeiro != null) {
+            this.topicoHospedado = config.hospedeiro.registrar(config.topico, this);
+            this.transporte = this.topicoHospedado;
+        } else if (config.transporte != null) {
+            this.transporte = config.transporte;
+        } else if (config.eventLoop != null) {
+            this.transporte = new ChannelTransport(config.eventLoop);
+        } else {
+            this.transporte = new SocketTransport();
+        }
+        this.serializacaoJava = config.serializacaoJava;
+        this.envioMulticast = config.envioMulticast;
+        this.vagasEnvio = new Semaphore(config.capacidadeFilaEnvio);
+        this.tempoMaximoBloqueioMs = config.tempoMaximoBloqueioMs;
+        // Um tópico hospedado entrega em série no pool do hospedeiro, na ordem causal. A thread
+        // do núcleo é de todos os tópicos: com as entregas acumuladas, só este tópico pausa
+        Executor executorEntrega = config.executorEntrega;
+        Runnable aoLiberarEntrega = null;
+        if (topicoHospedado != null && config.capacidadeEntrega > 0) {
+            if (executorEntrega == null) {
+                executorEntrega = topicoHospedado.entregas;
+            }
+            aoLiberarEntrega = topicoHospedado::acordar;
+        }
+        this.entrega = new DeliveryDispatcher(config.cliente, config.capacidadeEntrega, executorEntrega,
+                "entrega-" + config.porta, aoLiberarEntrega);
+        this.codec = new MessageCodec(this::buscarCliente, config.topico);
+        this.arena = new OffHeapArena(this.codec, config.memoriaBuffer,
+                topicoHospedado != null ? TopicHost.TAMANHO_SLAB : OffHeapArena.TAMANHO_SLAB);
+        this.metricas = new MulticastMetrics(() -> this.retrato, this.entrega, this.arena);
+        this.filtroDuplicadas = new DuplicateFilter(this.metricas.duplicadasDescartadas);
+        boolean memoriaNativa = this.transporte.usaMemoriaNativa();
+        String nomeCliente = config.nome;
+        IStableMulticast cliente = config.cliente;
     
-    /**
-     * Retorna a lista de clientes conectados.
-     * @return Lista de clientes
-     */
-    public ArrayList<ClientInfo> getClientList(){
-        return this.listaClientes;
-    }
-}
+        // Configura os arrays necessários
+        this.clientes = new ArrayList<>();
+        this.MCi = new ClockMatrix();
+        this.buffer = new StabilityBuffer(this.arena);
+        this.buffer.medirEstabilizacao(this.metricas.tempoEstabilizacao);
+        this.filaCausal = new CausalDeliveryQueue();
+        // Os canais enviam direto de memória nativa; os sockets exigem um array de apoio. Os
+        // tópicos de um hospedeiro usam os buffers dele, já que enviam todos da mesma thread
+        if (topicoHospedado != null) {
+            this.bufferEnvio = config.hospedeiro.bufferEnvio();
+            this.bufferFragmento = config.hospedeiro.bufferFragmento();
+        } else {
+            this.bufferEnvio = memoriaNativa ? ByteBuffer.allocateDirect(TAMANHO_MAXIMO_DATAGRAMA) : ByteBuffer.allocate(TAMANHO_MAXIMO_DATAGRAMA);
+            this.bufferFragmento = memoriaNativa ? ByteBuffer.allocateDirect(MessageCodec.TAMANHO_MTU) : ByteBuffer.allocate(MessageCodec.TAMANHO_MTU);
+        }
+        this.remontador = new FragmentReassembler(TEMPO_LIMITE_REMONTAGEM_MS);
+        if (config.tamanhoMaximoLote > 0) {
+            this.agrupador = new OutboundBatcher(codec, config.tamanhoMaximoLote, config.esperaMaximaLoteNanos, memoriaNativa);
+        }
 
-class ClientInfo implements Serializable {
-    private String nome;
-    private Integer identificador;
-    private InetAddress enderecoIP;
-    private Integer porta;
-    private IStableMulticast cliente;
+        // Abre o transporte e entra no grupo
+        try {
+            this.multicast = InetAddress.getByName(this.ip);
+            this.unicast = InetAddress.getByName(this.ip_unicast);
+            this.client = new ClientInfo(unicast, porta_unicast, nomeCliente, cliente);
+            this.transporte.abrir(this.multicast, this.porta, this.unicast, this.porta_unicast, this::receberDatagrama);
+        } catch (IOException e) {
+            // Nada foi iniciado ainda além do estágio de entrega e do próprio transporte
+            encerrado = true;
+            this.entrega.close();
+            try {
+                this.transporte.close();
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw new UncheckedIOException("Erro ao criar o socket!", e);
+        }
+    
+        registrarJmx();
+        boolean recuperado = config.diretorioLog != null && abrirLog(config.diretorioLog);
 
-    /**
-     * Construtor da classe ClientInfo.
-     * @param enderecoIP endereço IP do cliente
-     * @param porta porta do cliente
-     * @param nome nome do cliente
-     * @param cliente instância de IStableMulticast associada ao cliente
-     */
-    public ClientInfo(InetAddress enderecoIP, Integer porta, String nome, IStableMulticast cliente) {
-        this.enderecoIP = enderecoIP;
-        this.porta = porta;
-        this.cliente = cliente;
-        this.nome = nome;
-        this.identificador = -1; // Inicializa o ID como -1 para indicar que ainda não foi definido
-    }
+        // Inicia o núcleo, que processa as mensagens recebidas e os envios
+        if (topicoHospedado != null) {
+            this.temporizador = config.hospedeiro.temporizador();
+            topicoHospedado.iniciar();
+        } else {
+            this.nucleo = new Thread(this::executarNucleo, "nucleo-" + this.porta_unicast);
+            this.nucleo.setDaemon(true);
+            this.nucleo.start();
+            this.temporizador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+                Thread thread = new Thread(tarefa, "temporizador-" + this.porta_unicast);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
 
-     /**
-     * Obtém a instância de IStableMulticast associada ao cliente.
-     * @return instância de IStableMulticast
-     */
-    public IStableMulticast getClient(){
-        return cliente;
-    }
+        // Procura periodicamente por mensagens perdidas
+        tarefasPeriodicas.add(this.temporizador.scheduleWithFixedDelay(() -> executarNoNucleo(this::verificarLacunas),
+                INTERVALO_VERIFICACAO_LACUNAS_MS, INTERVALO_VERIFICACAO_LACUNAS_MS, TimeUnit.MILLISECONDS));
+        // Anuncia as entregas quando nenhuma mensagem para o grupo as levou
+        tarefasPeriodicas.add(this.temporizador.scheduleWithFixedDelay(() -> executarNoNucleo(this::anunciarEntregas),
+                INTERVALO_MINIMO_HEARTBEAT_MS, INTERVALO_MINIMO_HEARTBEAT_MS, TimeUnit.MILLISECONDS));
+        // Remove da visão os membros que pararam de responder
+        tarefasPeriodicas.add(this.temporizador.scheduleWithFixedDelay(() -> executarNoNucleo(this::verificarFalhas),
+                INTERVALO_VERIFICACAO_FALHAS_MS, INTERVALO_VERIFICACAO_FALHAS_MS, TimeUnit.MILLISECONDS));
+        if (recuperado) {
+            // O estado veio do log: o nó retoma o seu lugar no grupo em vez de pedir adesão
+            executarNoNucleo(this::anunciarRetorno);
+            return;
+        }
 
-     /**
-     * Obtém o endereço IP do cliente.
-     * @return endereço IP do cliente
-     */
-    public InetAddress getIP(){
-        return enderecoIP;
+        // Envia a mensagem de adesão em multicast; se ninguém responder, este nó é o primeiro do grupo
+        executarNoNucleo(this::pedirAdesao);
     }
 
-     /**
-     * Obtém a porta do cliente.
-     * @return porta do cliente
+    /**
+     * Configuração do middleware, montada de forma fluente.
      */
-    public Integer getPort(){
-        return porta;
-    }
+    public static class Builder {
+        private String nome;
+        private String endereco = "localhost";
+        private Integer porta;
+        private IStableMulticast cliente;
+        private String ipGrupo = "224.0.5.1";
+        private Integer portaGrupo = 1236;
+        private EventLoop eventLoop;
+        private Transport transporte;
+        private boolean serializacaoJava = false;
+        private boolean envioMulticast = true;
+        private int capacidadeFilaEnvio = 1024;
+        private long tempoMaximoBloqueioMs = 1000;
+        private int tamanhoMaximoLote = MessageCodec.TAMANHO_MTU;
+        private long esperaMaximaLoteNanos = 0;
+        private int capacidadeEntrega = 1024;
+        private Executor executorEntrega;
+        private String diretorioLog;
+        private long memoriaBuffer = 64L * 1024 * 1024;
+        private TopicHost hospedeiro;
+        private int topico = MessageCodec.TOPICO_PADRAO;
 
-     /**
-     * Obtém o nome do cliente.
-     * @return nome do cliente
-     */
-    public String getName(){
-        return nome;
-    }
+        /**
+         * Define o nome do cliente no grupo.
+         * @param nome nome exibido aos outros membros
+         * @return este Builder
+         */
+        public Builder nome(String nome) {
+            this.nome = nome;
+            return this;
+        }
 
-     /**
-     * Obtém o ID do cliente.
-     * @return ID do cliente
-     */
-    public Integer getID(){
-        return identificador;
-    }
+        /**
+         * Define o endereço IP local usado para comunicação unicast.
+         * @param endereco endereço IP ou nome do host
+         * @return este Builder
+         */
+        public Builder endereco(String endereco) {
+            this.endereco = endereco;
+            return this;
+        }
 
-     /**
-     * Define o ID do cliente.
-     * @param id novo ID do cliente
-     */
-    public void setID(Integer id){
-        this.identificador = id;
-    }
-}
+        /**
+         * Define a porta local usada para comunicação unicast.
+         * @param porta porta unicast
+         * @return este Builder
+         */
+        public Builder porta(Integer porta) {
+            this.porta = porta;
+            return this;
+        }
 
+        /**
+         * Define quem recebe as mensagens entregues.
+         * @param cliente implementação de IStableMulticast
+         * @return este Builder
+         */
+        public Builder cliente(IStableMulticast cliente) {
+            this.cliente = cliente;
+            return this;
+        }
 
-public class StableMulticast implements Serializable{
+        /**
+         * Define o endereço e a porta do grupo multicast.
+         * @param ip endereço do grupo multicast
+         * @param porta porta do grupo multicast
+         * @return este Builder
+         */
+        public Builder grupo(String ip, Integer porta) {
+            this.ipGrupo = ip;
+            this.portaGrupo = porta;
+            return this;
+        }
 
-    // Informações dos outros clientes
-    private ArrayList<ClientInfo> clientes;
+        /**
+         * Usa canais não bloqueantes registrados no laço de eventos informado.
+         * @param laco laço de eventos, possivelmente compartilhado com outros nós
+         * @return este Builder
+         */
+        public Builder eventLoop(EventLoop laco) {
+            this.eventLoop = laco;
+            return this;
+        }
 
-    // Buffer e timestamps
-    private List<Message> buffer;
-    private Integer[][] MCi;
+        /**
+         * Usa o transporte informado no lugar dos sockets, por exemplo um de uma
+         * {@link SimulatedNetwork} para rodar vários nós na mesma JVM. Tem precedência sobre
+         * {@link #eventLoop}.
+         * @param transporte transporte ainda não aberto, exclusivo deste nó
+         * @return este Builder
+         */
+        public Builder transporte(Transport transporte) {
+            this.transporte = transporte;
+            return this;
+        }
 
-    // Informações do cliente
-    private ClientInfo client;
+        /**
+         * Envia com serialização Java em vez do codec binário.
+         * @param ativar true para usar serialização Java
+         * @return este Builder
+         */
+        public Builder serializacaoJava(boolean ativar) {
+            this.serializacaoJava = ativar;
+            return this;
+        }
 
-    // Unicast
-    private String ip_unicast;
-    private Integer porta_unicast;
-    private InetAddress unicast;
-    private DatagramSocket socket_unicast;
+        /**
+         * Define se as mensagens para o grupo saem via multicast ou um unicast por membro.
+         * @param ativar true para enviar via multicast
+         * @return este Builder
+         */
+        public Builder envioMulticast(boolean ativar) {
+            this.envioMulticast = ativar;
+            return this;
+        }
 
-    // Multicast
-    private String ip = "224.0.5.1";
-    private Integer porta = 1236;
-    private InetAddress multicast;
-    private MulticastSocket socket;
+        /**
+         * Define quantos envios podem aguardar na fila antes que msendAsync passe a bloquear.
+         * @param capacidade tamanho máximo da fila de envio
+         * @return este Builder
+         */
+        public Builder capacidadeFilaEnvio(int capacidade) {
+            this.capacidadeFilaEnvio = capacidade;
+            return this;
+        }
 
-    // Cores
-    public final String COLOR_RESET = "\u001B[0m";
-    public final String COLOR_PURPLE = "\u001B[35m";
-    public final String COLOR_CYAN = "\u001B[36m";
+        /**
+         * Define por quanto tempo msendAsync espera por espaço na fila cheia antes de rejeitar o envio.
+         * @param tempo tempo máximo de bloqueio
+         * @param unidade unidade do tempo
+         * @return este Builder
+         */
+        public Builder tempoMaximoBloqueio(long tempo, TimeUnit unidade) {
+            this.tempoMaximoBloqueioMs = unidade.toMillis(tempo);
+            return this;
+        }
 
-    // Tamanho do grupo
-    final private Integer tamanho_grupo = 3;
+        /**
+         * Configura o agrupamento das mensagens para o grupo em datagramas de lote.
+         * Com espera zero, só são agrupadas as mensagens que já estão na fila no momento do envio.
+         * @param tamanhoMaximo tamanho máximo do datagrama de lote em bytes, ou 0 para desativar
+         * @param esperaMaxima tempo máximo que uma mensagem aguarda a chegada de outras
+         * @param unidade unidade do tempo de espera
+         * @return este Builder
+         */
+        public Builder lote(int tamanhoMaximo, long esperaMaxima, TimeUnit unidade) {
+            this.tamanhoMaximoLote = tamanhoMaximo;
+            this.esperaMaximaLoteNanos = unidade.toNanos(esperaMaxima);
+            return this;
+        }
 
-    private Scanner input;
+        /**
+         * Define quantas mensagens podem aguardar a entrega ao cliente antes que o núcleo espere
+         * por ele. Em um tópico de um {@link TopicHost}, só a recepção do tópico pausa, sem
+         * segurar o núcleo dos demais. Com capacidade zero, o cliente é chamado direto na thread
+         * do núcleo, o que não pode ser combinado com {@link #executorEntrega(Executor)}.
+         * @param capacidade máximo de entregas pendentes, zero ou positivo
+         * @return este Builder
+         */
+        public Builder capacidadeEntrega(int capacidade) {
+            this.capacidadeEntrega = capacidade;
+            return this;
+        }
 
+        /**
+         * Executa cada entrega como uma tarefa do executor informado, em vez da fila ordenada.
+         * As entregas podem então chegar ao cliente fora da ordem causal. Exige capacidade de
+         * entrega positiva; a construção falha com IllegalArgumentException caso contrário.
+         * @param executor executor dos callbacks, por exemplo um de uma thread virtual por tarefa
+         * @return este Builder
+         */
+        public Builder executorEntrega(Executor executor) {
+            this.executorEntrega = executor;
+            return this;
+        }
 
-    public StableMulticast(String enderecoIP, Integer porta, IStableMulticast cliente) {
+        /**
+         * Ativa a persistência do estado em um log no diretório informado. Se o nó reiniciar
+         * antes de ser considerado falho pelo grupo, ele recupera o buffer, a matriz de relógios
+         * e a visão a partir do log e retoma o seu lugar, sem uma nova adesão, desde que o grupo
+         * confirme o ID recuperado. Um encerramento por close() apaga o log.
+         * @param diretorio diretório dos segmentos do log, exclusivo deste nó
+         * @return este Builder
+         */
+        public Builder persistencia(String diretorio) {
+            this.diretorioLog = diretorio;
+            return this;
+        }
 
-        // Inicializa o endereço IP e a porta para comunicação unicast
-        this.ip_unicast = enderecoIP;
-        this.porta_unicast = porta;
-    
-        // Configura os arrays necessários
-        this.clientes = new ArrayList<>();
-        this.MCi = new Integer[tamanho_grupo][tamanho_grupo];
+        /**
+         * Define quanta memória fora do heap o buffer de estabilidade pode ocupar. Acima dela,
+         * o núcleo deixa de carimbar novos envios até que mensagens se tornem estáveis, e quem
+         * envia espera pelas vagas da fila de envio; as mensagens recebidas continuam sendo guardadas.
+         * @param bytes orçamento em bytes, arredondado para cima em slabs de {@link OffHeapArena#TAMANHO_SLAB}
+         * @return este Builder
+         */
+        public Builder memoriaBuffer(long bytes) {
+            this.memoriaBuffer = bytes;
+            return this;
+        }
 
-        for (Integer[] linha : this.MCi) {
-            Arrays.fill(linha, -1);
+        /**
+         * Faz do nó um tópico do hospedeiro informado, com os endereços dele. Usado por
+         * {@link TopicHost#topico}; o transporte e o laço de eventos deste Builder são ignorados.
+         * @param hospedeiro hospedeiro que executa o tópico
+         * @param topico ID do tópico
+         * @return este Builder
+         */
+        Builder hospedeiro(TopicHost hospedeiro, int topico) {
+            this.hospedeiro = hospedeiro;
+            this.topico = topico;
+            this.endereco = hospedeiro.endereco();
+            this.porta = hospedeiro.porta();
+            this.ipGrupo = hospedeiro.ipGrupo();
+            this.portaGrupo = hospedeiro.portaGrupo();
+            return this;
         }
-        this.buffer = new ArrayList<>();        
-    
-        // Coleta o nome do cliente
-        this.input = new Scanner(System.in);
-        System.out.println("Por favor, insira seu nome:");
-        String nomeCliente = input.nextLine();
-    
-        // Inicializa os sockets
+
+        /**
+         * Cria o middleware e envia o pedido de adesão ao grupo.
+         * @return o middleware configurado
+         * @throws UncheckedIOException se o transporte não puder ser aberto
+         * @throws IllegalArgumentException se a configuração for inválida
+         */
+        public StableMulticast construir() {
+            return new StableMulticast(this);
+        }
+    }
+
+    /**
+     * Envio aguardando na fila: um texto novo a ser carimbado ou uma mensagem já carimbada.
+     */
+    private static final class EnvioPendente {
+        final String texto;
+        final Message mensagem;
+        final Collection<ClientInfo> destinatarios;
+        final CompletableFuture<Message> futuro = new CompletableFuture<>();
+        final long instante = System.nanoTime(); // Início do envio, para a latência até a entrega local
+        Message carimbada; // Mensagem já carimbada, aguardando o envio do lote
+
+        EnvioPendente(String texto, Message mensagem, Collection<ClientInfo> destinatarios) {
+            this.texto = texto;
+            this.mensagem = mensagem;
+            this.destinatarios = destinatarios;
+        }
+    }
+
+    /**
+     * Registra as métricas do nó no servidor de MBeans da plataforma, com o nome
+     * StableMulticast:type=Metricas,porta=&lt;porta unicast&gt;, seguido de ,topico=&lt;ID&gt;
+     * em um tópico hospedado.
+     */
+    private void registrarJmx() {
         try {
-            this.multicast = InetAddress.getByName(this.ip);
-            this.socket = new MulticastSocket(this.porta);
-    
-            this.unicast = InetAddress.getByName(this.ip_unicast);
-            this.socket_unicast = new DatagramSocket(this.porta_unicast, this.unicast);
-    
-            // Obtém a interface de rede apropriada
-            NetworkInterface redeInterface = null;
-            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
-            while (interfaces.hasMoreElements()) {
-                NetworkInterface iface = interfaces.nextElement();
-                if (iface.supportsMulticast() && !iface.isLoopback() && iface.isUp()) {
-                    redeInterface = iface;
-                    break;
-                }
-            }
-    
-            if (redeInterface == null) {
-                System.err.println("Nenhuma interface de rede adequada foi encontrada!");
-                return;
-            }
-    
-            socket.joinGroup(new InetSocketAddress(this.multicast, this.porta), redeInterface);
-            socket.setReuseAddress(true);           
-        } catch (Exception e) {
-            System.err.println("Erro ao criar o socket!");
-            e.printStackTrace();
-            return;
+            ObjectName nome = new ObjectName("StableMulticast:type=Metricas,porta=" + this.porta_unicast
+                    + (topicoHospedado != null ? ",topico=" + topicoHospedado.id : ""));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.metricas, nome);
+            this.nomeJmx = nome;
+        } catch (JMException ex) {
+            System.err.println("Falha ao registrar as métricas no JMX!");
+            ex.printStackTrace();
         }
-    
-        // Inicializa os listeners para os sockets
-        listening(this.socket); 
-        listening(this.socket_unicast);
-    
-        // Cria e envia a mensagem de adesão em multicast
-        this.client = new ClientInfo(unicast, porta_unicast, nomeCliente, cliente);
-        Message mensagemJoin = new Message(null, "", this.client, "join");
-        enviarMensagem(mensagemJoin, this.socket, this.multicast, this.porta);
     }
-    
 
     /**
-     * Exibe o conteúdo do buffer e a matriz de timestamps de maneira formatada.
+     * Exibe o conteúdo do buffer e a matriz de timestamps de maneira formatada. As mensagens
+     * ficam fora do heap, então são decodificadas pelo núcleo; o resto vem do último retrato.
      */
     public void exibirConteudoETimestamps() {
         // Coleta as mensagens do buffer em uma lista temporária
-        List<String> mensagens = new ArrayList<>();
-        for (Message mensagem : buffer) {
-            mensagens.add(mensagem.message());
+        CompletableFuture<List<String>> coleta = new CompletableFuture<>();
+        executarNoNucleo(() -> {
+            List<String> textos = new ArrayList<>(this.buffer.tamanho());
+            for (Message mensagem : this.buffer) {
+                textos.add(formatar(mensagem));
+            }
+            coleta.complete(textos);
+        });
+        List<String> mensagens;
+        try {
+            mensagens = coleta.get(this.tempoMaximoBloqueioMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException ex) {
+            System.err.println("Falha ao ler o conteudo do buffer!");
+            ex.printStackTrace();
+            mensagens = Collections.emptyList();
         }
+        GroupSnapshot atual = this.retrato;
         
         // Exibe o conteúdo das mensagens do buffer
         System.out.println("Conteudo do Buffer: " + mensagens);
+
+        // Exibe quantas mensagens de cada remetente aguardam e há quanto tempo espera a mais antiga
+        StringBuilder profundidades = new StringBuilder();
+        for (int posicao = 0; posicao < atual.tamanho(); posicao++) {
+            profundidades.append(posicao == 0 ? "" : ", ").append(atual.id(posicao)).append("=").append(atual.profundidade(posicao));
+        }
+        System.out.println("Por remetente: [" + profundidades + "], mais antiga ha "
+                + TimeUnit.NANOSECONDS.toMillis(atual.idadeMaisAntigaNanos()) + " ms");
         
         // Exibe a matriz de timestamps
         System.out.println("Matriz de Timestamps:");
-        for (int linha = 0; linha < tamanho_grupo; linha++) {
+        int tamanho = atual.tamanho();
+        for (int linha = 0; linha < tamanho; linha++) {
             // Imprime a abertura do colchete para a linha
             if (linha == 0) {
                 System.out.print("[");
@@ -270,42 +660,118 @@ public class StableMulticast implements Serializable{
             }
             
             // Imprime os valores da linha atual da matriz de timestamps
-            for (int coluna = 0; coluna < tamanho_grupo - 1; coluna++) {
-                System.out.print(MCi[linha][coluna] + ", ");
+            for (int coluna = 0; coluna < tamanho - 1; coluna++) {
+                System.out.print(atual.relogio(linha, coluna) + ", ");
             }
             
             // Imprime o último valor da linha e fecha o colchete
-            System.out.print(MCi[linha][tamanho_grupo - 1] + "]");
+            System.out.print(atual.relogio(linha, tamanho - 1) + "]");
             System.out.println(); // Nova linha para a próxima linha da matriz
         }
     }
 
     /**
-     * Exibe os nomes de todos os clientes armazenados na lista.
+     * Retorna o diagnóstico do grupo: a profundidade do buffer por remetente, a matriz de relógios
+     * e a idade da mensagem não estável mais antiga. É o último retrato publicado pelo núcleo,
+     * com no máximo {@link #INTERVALO_PUBLICACAO_MS} de atraso, e pode ser lido de qualquer thread.
+     * @return retrato imutável do estado do grupo
+     */
+    public GroupSnapshot diagnostico() {
+        return this.retrato;
+    }
+
+    /**
+     * Retorna as métricas do nó: mensagens enviadas, recebidas e entregues, falhas de decodificação
+     * e de envio, NACKs, profundidade do buffer e os percentis das latências de entrega e de
+     * estabilidade, em microssegundos. São os mesmos atributos exportados via JMX.
+     * @return mapa imutável do nome da métrica para o seu valor
+     */
+    public Map<String, Long> metricas() {
+        return this.metricas.copiar();
+    }
+
+    /**
+     * Ativa o rastreamento assíncrono: a thread do temporizador imprime o diagnóstico no máximo
+     * uma vez por intervalo, e só quando ele mudou desde a última impressão. Nada é impresso pela thread do núcleo.
+     * @param intervalo intervalo mínimo entre duas impressões
+     * @param unidade unidade do intervalo
+     * @throws IllegalStateException se o middleware já foi encerrado
+     */
+    public synchronized void ativarRastreamento(long intervalo, TimeUnit unidade) {
+        // close() marca o encerramento antes de parar o temporizador ou desativar o rastreamento
+        if (encerrado || this.temporizador == null) {
+            throw new IllegalStateException("Middleware encerrado: o rastreamento não pode ser ativado.");
+        }
+        desativarRastreamento();
+        try {
+            this.rastreamento = this.temporizador.scheduleWithFixedDelay(() -> {
+                String atual = this.retrato.toString();
+                if (!atual.equals(ultimoRastreado)) {
+                    ultimoRastreado = atual;
+                    System.out.print("[rastreamento " + this.porta_unicast + "] " + atual);
+                }
+            }, intervalo, intervalo, unidade);
+        } catch (RejectedExecutionException ex) {
+            // O temporizador parou entre a verificação e o agendamento
+            throw new IllegalStateException("Middleware encerrado: o rastreamento não pode ser ativado.", ex);
+        }
+    }
+
+    /**
+     * Desativa o rastreamento assíncrono, se estiver ativo.
+     */
+    public synchronized void desativarRastreamento() {
+        if (this.rastreamento != null) {
+            this.rastreamento.cancel(false);
+            this.rastreamento = null;
+        }
+    }
+
+    /**
+     * Exibe os nomes de todos os clientes do último retrato publicado pelo núcleo.
      */
     public void exibirClientes() {
         // Itera sobre a lista de clientes e imprime o nome de cada um
-        for (ClientInfo cliente : this.clientes) {
+        for (ClientInfo cliente : this.retrato.clientes()) {
             System.out.println(cliente.getName());
         }
     }
 
     /**
-     * Obtém o menor valor de timestamp para um remetente específico.
-     * @param remetente ID do cliente que enviou a mensagem
-     * @return o menor timestamp registrado para o remetente
+     * Ativa ou desativa o envio com serialização Java em vez do codec binário.
+     * A recepção aceita os dois formatos independentemente desta opção.
+     * @param ativar true para enviar com serialização Java
+     */
+    public void setSerializacaoJava(boolean ativar) {
+        this.serializacaoJava = ativar;
+    }
+
+    /**
+     * Define se as mensagens para todo o grupo saem em um único datagrama multicast
+     * ou em um datagrama unicast para cada membro.
+     * @param ativar true para enviar via multicast
+     */
+    public void setEnvioMulticast(boolean ativar) {
+        this.envioMulticast = ativar;
+    }
+
+    /**
+     * Obtém as informações de um cliente conhecido a partir do seu ID.
+     * @param id ID do cliente
+     * @return informações do cliente, ou null se ele ainda não for conhecido
      */
-    private int obterTimestampMinimo(Integer remetente) {
-        int indice = 0;
-        int timestampMinimo = Integer.MAX_VALUE; // Utiliza o valor máximo possível como inicial
-        // Percorre todos os timestamps para encontrar o menor valor
-        while (indice < tamanho_grupo) {
-            if (MCi[indice][remetente] < timestampMinimo) {
-                timestampMinimo = MCi[indice][remetente];
+    private ClientInfo buscarCliente(int id) {
+        ArrayList<ClientInfo> lista = this.clientes;
+        // Os IDs são atribuídos na ordem de adesão, então normalmente coincidem com a posição na lista
+        if (id >= 0 && id < lista.size() && lista.get(id).getID() == id) {
+            return lista.get(id);
+        }
+        for (ClientInfo cliente : lista) {
+            if (cliente.getID() == id) {
+                return cliente;
             }
-            indice++;
         }
-        return timestampMinimo;
+        return null;
     }
 
     /**
@@ -314,19 +780,12 @@ public class StableMulticast implements Serializable{
     private void verificarEliminarBuffer() {
         // Verifica se o buffer contém mensagens
         if (!buffer.isEmpty()) {
-            int indice = 0;
-            while (indice < buffer.size()) {
-                // Obtém a mensagem atual do buffer
-                Message mensagemAtual = buffer.get(indice);
-                // Verifica se o timestamp da mensagem atende ao critério mínimo
-                if (mensagemAtual.timestamp()[mensagemAtual.cliente().getID()] <= obterTimestampMinimo(mensagemAtual.cliente().getID())) {
-                    // Remove a mensagem do buffer
-                    buffer.remove(mensagemAtual);
-                   
-                    indice--; // Ajusta o índice após remoção
-                }
-                indice++;
-            }
+            // Cada fila do buffer descarta pela cabeça as mensagens abaixo do mínimo da coluna do remetente
+            buffer.descartarEstaveis(MCi);
+        }
+        // Segmentos do log com todas as mensagens estáveis não são mais necessários
+        if (this.log != null) {
+            this.log.descartarEstaveis(MCi);
         }
     }
 
@@ -364,6 +823,7 @@ public class StableMulticast implements Serializable{
             // Retorna o objeto desserializado
             return objectStream.readObject();
         } catch (IOException | ClassNotFoundException ex) {
+            this.metricas.falhasDecodificacao.increment();
             System.err.println("Falha na desserialização do objeto.");
             ex.printStackTrace();
             return null;
@@ -371,182 +831,1786 @@ public class StableMulticast implements Serializable{
     }
 
     /**
-     * Envia uma mensagem através de um socket especificado.
+     * Envia uma mensagem pelo transporte, para o grupo ou para um endereço unicast.
+     * @param mensagem objeto da mensagem a ser enviada
+     * @param viaMulticast true para enviar ao grupo, false para o endereço informado
+     * @param endereco IP de destino
+     * @param porta porta de destino
+     */
+    private void enviarMensagem(Message mensagem, boolean viaMulticast, InetAddress endereco, Integer porta) {
+        enviarMensagem(mensagem, null, viaMulticast, endereco, porta);
+    }
+
+    /**
+     * Envia uma mensagem, escrevendo o timestamp como diferença em relação ao vetor-base informado.
      * @param mensagem objeto da mensagem a ser enviada
-     * @param socket socket utilizado para envio
+     * @param base vetor da mensagem anterior do remetente, ou null para o timestamp completo
+     * @param viaMulticast true para enviar ao grupo, false para o endereço informado
      * @param endereco IP de destino
      * @param porta porta de destino
      */
-    private void enviarMensagem(Message mensagem, DatagramSocket socket, InetAddress endereco, Integer porta) {
+    private void enviarMensagem(Message mensagem, int[] base, boolean viaMulticast, InetAddress endereco, Integer porta) {
         try {
-            // Serializa o objeto da mensagem
-            byte[] dadosParaEnvio = converterParaBytes(mensagem);
-            // Cria um pacote de dados com o endereço e a porta de destino
-            DatagramPacket pacoteEnvio = new DatagramPacket(dadosParaEnvio, dadosParaEnvio.length, endereco, porta);
-            // Envia o pacote através do socket
-            socket.send(pacoteEnvio);
+            if (serializacaoJava) {
+                // Serializa o objeto da mensagem
+                byte[] dadosParaEnvio = converterParaBytes(mensagem);
+                enviarDatagrama(ByteBuffer.wrap(dadosParaEnvio), viaMulticast, endereco, porta);
+                return;
+            }
+            // Codifica no buffer de envio reutilizável; só o núcleo envia
+            bufferEnvio.clear();
+            codec.codificar(mensagem, base, bufferEnvio);
+            bufferEnvio.flip();
+            enviarDatagrama(bufferEnvio, viaMulticast, endereco, porta);
         } catch (Exception ex) {
-            System.err.println("Falha ao enviar a mensagem via unicast!");
+            this.metricas.falhasEnvio.increment();
+            System.err.println("Falha ao enviar a mensagem via " + (viaMulticast ? "multicast" : "unicast") + "!");
             ex.printStackTrace();
+            anteciparAnuncio(); // Uma mensagem carimbada perdida aqui é recuperada por NACK
         }
     }
 
-
+    /**
+     * Envia uma mensagem via unicast para vários destinatários, codificando-a uma única vez.
+     * @param mensagem objeto da mensagem a ser enviada
+     * @param destinos clientes que devem receber a mensagem
+     */
+    private void enviarMensagem(Message mensagem, Collection<ClientInfo> destinos) {
+        if (serializacaoJava) {
+            for (ClientInfo destino : destinos) {
+                enviarMensagem(mensagem, false, destino.getIP(), destino.getPort());
+            }
+            return;
+        }
+        bufferEnvio.clear();
+        codec.codificar(mensagem, bufferEnvio);
+        bufferEnvio.flip();
+        for (ClientInfo destino : destinos) {
+            try {
+                enviarDatagrama(bufferEnvio, false, destino.getIP(), destino.getPort());
+            } catch (Exception ex) {
+                this.metricas.falhasEnvio.increment();
+                System.err.println("Falha ao enviar a mensagem via unicast para " + destino.getName() + "!");
+                ex.printStackTrace();
+            }
+            bufferEnvio.rewind(); // O mesmo conteúdo é reenviado ao próximo destinatário
+        }
+    }
 
     /**
-     * Recebe uma mensagem através de um socket especificado.
-     * @param socket socket utilizado para recepção
-     * @return o objeto da mensagem recebida
+     * Envia os bytes entre a posição e o limite do buffer como um único datagrama.
+     * @param dados conteúdo do datagrama
+     * @param viaMulticast true para enviar ao grupo, false para o endereço informado
+     * @param endereco IP de destino
+     * @param porta porta de destino
+     * @throws IOException se o envio falhar
      */
-    private Message receberMensagem(DatagramSocket socket) {
-        byte[] dadosRecebidos = new byte[1024];
-        DatagramPacket pacoteRecebido = new DatagramPacket(dadosRecebidos, dadosRecebidos.length);
-        try {
-            // Recebe o pacote de dados através do socket
-            socket.receive(pacoteRecebido);
-            // Converte os dados recebidos em um objeto de mensagem
-            return (Message) converteParaObject(pacoteRecebido.getData());
-        } catch (Exception ex) {
-            System.err.println("Falha ao receber a mensagem!");
-            ex.printStackTrace();
+    private void enviarDatagrama(ByteBuffer dados, boolean viaMulticast, InetAddress endereco, int porta) throws IOException {
+        if (dados.remaining() > MessageCodec.TAMANHO_MTU) {
+            enviarFragmentos(dados, viaMulticast, endereco, porta);
+        } else {
+            transmitir(dados, viaMulticast, endereco, porta);
         }
-        return null;
     }
 
     /**
-     * Método para ouvir mensagens em um socket.
-     * @param socket socket a ser ouvido
+     * Divide um datagrama maior que a MTU em fragmentos e os envia em ordem.
+     * @param dados conteúdo completo, entre a posição e o limite do buffer
+     * @param viaMulticast true para enviar ao grupo, false para o endereço informado
+     * @param endereco IP de destino
+     * @param porta porta de destino
+     * @throws IOException se o envio de algum fragmento falhar
      */
-    private synchronized void listening(DatagramSocket skt) {
-        // Criação de uma nova thread para ouvir mensagens UDP de forma assíncrona
-        Thread udpThread = new Thread(() -> {
-            try {
-                // Loop para receber mensagens enquanto a thread não for interrompida
-                while (!Thread.currentThread().isInterrupted()) {
-                    // Recebe a mensagem do socket
-                    Message sms = receberMensagem(skt);
-                    
-                    // Verifica o comando da mensagem recebida
-                    switch (sms.command()) {
-                        case "msg":
-                            // Caso o comando seja "msg", adiciona a mensagem ao buffer
-                            this.buffer.add(sms);
-                            
-                            // Atualiza os relógios lógicos caso o ID do cliente na mensagem
-                            // seja diferente do ID do cliente atual
-                            if (sms.cliente().getID().intValue() != this.client.getID().intValue()) {
-                                this.MCi[sms.cliente().getID()] = sms.timestamp(); // Atualiza o timestamp
-                                this.MCi[this.client.getID()][sms.cliente().getID()]++; // Incrementa o relógio lógico
-                            }
-                            
-                            // Entrega a mensagem ao cliente
-                            this.client.getClient().deliver(sms.message());
-                            
-                            // Verifica se há mensagens no buffer que podem ser eliminadas
-                            verificarEliminarBuffer();
-                            
-                            // Mostra o buffer e os timestamps para fins de depuração
-                            mostrarBufferETimestamps();
-                            break;
-                        
-                        case "join":
-                            // Caso o comando seja "join", configura o ID do cliente que está se juntando
-                            sms.cliente().setID(this.clientes.size());
-                            
-                            // Adiciona o cliente à lista de clientes
-                            clientes.add(sms.cliente());
-                            
-                            // Entrega uma mensagem de boas-vindas ao novo cliente
-                            this.client.getClient().deliver(COLOR_CYAN + "Bem vindo(a) " + sms.cliente().getName() + " ao chat!" + COLOR_RESET);
-                            
-                            // Cria uma mensagem "hello" para o novo cliente
-                            Message hello = new Message(null, "", this.client, "hello");
-                            
-                            // Define a lista de clientes na mensagem "hello"
-                            hello.setClientList(clientes);
-                            
-                            // Envia a mensagem "hello" para o novo cliente através do socket unicast
-                            enviarMensagem(hello, this.socket_unicast, sms.cliente().getIP(), sms.cliente().getPort());
-                            break;
-                        
-                        case "hello":
-                            // Caso o comando seja "hello", atualiza a lista de clientes
-                            this.clientes = sms.getClientList();
-                            
-                            // Configura o ID do cliente atual para o tamanho da lista de clientes menos 1
-                            this.client.setID(this.clientes.size() - 1);
-                            
-                            // Inicializa o relógio lógico para o cliente atual
-                            this.MCi[this.client.getID()][this.client.getID()] = 0;
-                            break;
-                    }
-                }
-            } catch (Exception e) {
-                // Imprime uma mensagem de erro caso ocorra uma exceção
-                System.err.println("Erro ao receber mensagens!");
-                e.printStackTrace();
+    private void enviarFragmentos(ByteBuffer dados, boolean viaMulticast, InetAddress endereco, int porta) throws IOException {
+        int inicio = dados.position();
+        int fim = dados.limit();
+        int total = (fim - inicio + MessageCodec.DADOS_POR_FRAGMENTO - 1) / MessageCodec.DADOS_POR_FRAGMENTO;
+        int remetente = this.client.getID() != null ? this.client.getID() : -1;
+        int id = proximoIdFragmentado++;
+        try {
+            for (int indice = 0; indice < total; indice++) {
+                int deslocamento = inicio + indice * MessageCodec.DADOS_POR_FRAGMENTO;
+                bufferFragmento.clear();
+                codec.iniciarFragmento(bufferFragmento, remetente, id, indice, total);
+                // Copia só a fatia deste fragmento, limitando temporariamente o buffer de origem
+                dados.limit(Math.min(fim, deslocamento + MessageCodec.DADOS_POR_FRAGMENTO));
+                dados.position(deslocamento);
+                bufferFragmento.put(dados);
+                bufferFragmento.flip();
+                transmitir(bufferFragmento, viaMulticast, endereco, porta);
             }
-        });
-        // Inicia a thread
-        udpThread.start();
+        } finally {
+            dados.limit(fim);
+            dados.position(inicio);
+        }
     }
 
     /**
-     * Apresenta o conteúdo do buffer e os timestamps de maneira organizada.
+     * Envia um datagrama que cabe na MTU pelo transporte, para o grupo ou para um endereço.
+     * @param dados conteúdo do datagrama
+     * @param viaMulticast true para enviar ao grupo, false para o endereço informado
+     * @param endereco IP de destino
+     * @param porta porta de destino
+     * @throws IOException se o envio falhar
      */
-    private void mostrarBufferETimestamps() {
-        System.out.println("Conteudo do Buffer:");
-        for (Message mensagem : buffer) {
-            System.out.println("  " + mensagem.cliente().getName() + ": " + mensagem.message());
+    private void transmitir(ByteBuffer dados, boolean viaMulticast, InetAddress endereco, int porta) throws IOException {
+        if (viaMulticast) {
+            transporte.enviarParaGrupo(dados);
+        } else {
+            transporte.enviar(dados, endereco, porta);
         }
+    }
 
-        System.out.println("Matriz de Timestamps:");
-        for (Integer[] linha : MCi) {
-            System.out.print("  ");
-            for (Integer timestamp : linha) {
-                System.out.print(String.format("%3d ", timestamp != null ? timestamp : -1));
+    /**
+     * Converte um datagrama recebido em mensagens, detectando o formato pelo primeiro byte.
+     * Um datagrama de lote produz várias mensagens, na ordem em que foram enviadas, e um
+     * fragmento só produz a mensagem quando completa a sua remontagem.
+     * @param dados conteúdo do datagrama, entre a posição e o limite do buffer
+     * @param origem endereço de quem enviou o datagrama
+     * @param destino lista onde as mensagens recebidas são adicionadas
+     */
+    private void decodificar(ByteBuffer dados, SocketAddress origem, List<Message> destino) {
+        if (MessageCodec.ehFragmento(dados)) {
+            ByteBuffer completo;
+            try {
+                completo = remontador.receber(dados, origem);
+            } catch (IllegalArgumentException ex) {
+                this.metricas.falhasDecodificacao.increment();
+                System.err.println("Falha na remontagem da mensagem: " + ex.getMessage());
+                return;
             }
-            System.out.println();
+            if (completo != null) {
+                // A mensagem remontada é decodificada e o buffer volta ao pool
+                decodificar(completo, origem, destino);
+                remontador.liberar(completo);
+            }
+            return;
+        }
+        if (MessageCodec.ehFormatoBinario(dados)) {
+            try {
+                codec.decodificar(dados, destino, filtroDuplicadas);
+            } catch (IllegalArgumentException ex) {
+                this.metricas.falhasDecodificacao.increment();
+                System.err.println("Falha na decodificação da mensagem: " + ex.getMessage());
+            }
+            return;
+        }
+        // Serialização Java: o fluxo de objetos precisa de um array de bytes próprio
+        byte[] bytes = new byte[dados.remaining()];
+        dados.get(bytes);
+        Object objeto = converteParaObject(bytes);
+        if (objeto instanceof Message) {
+            destino.add((Message) objeto);
         }
     }
 
+    /**
+     * Recebe um datagrama lido pelo transporte.
+     * @param dados conteúdo do datagrama, válido apenas durante a chamada
+     * @param origem endereço de quem enviou
+     */
+    private void receberDatagrama(ByteBuffer dados, SocketAddress origem) {
+        // A recepção só decodifica: o processamento fica com o núcleo, já que o laço de eventos
+        // ou a rede simulada podem ser compartilhados por vários nós
+        List<Message> recebidas = new ArrayList<>(1);
+        decodificar(dados, origem, recebidas);
+        long chegada = System.nanoTime();
+        for (Message sms : recebidas) {
+            sms.setLocalTime(chegada);
+            executarNoNucleo(() -> processarMensagem(sms));
+        }
+    }
 
-/**
- * Envia uma mensagem para múltiplos destinatários via multicast.
- * @param conteudoMensagem o conteúdo da mensagem a ser enviada
- */
-public synchronized void msend(String conteudoMensagem) {
-    // Formata a mensagem com a cor e o nome do cliente
-    String mensagemFormatada = this.COLOR_PURPLE + this.client.getName() + ": " + this.COLOR_RESET + conteudoMensagem;
-    // Cria um novo objeto Message com o timestamp atual e o conteúdo formatado
-    Message mensagem = new Message(Arrays.stream(MCi[this.client.getID()]).toArray(Integer[]::new), mensagemFormatada, this.client, "msg");
-    // Incrementa o timestamp do cliente atual
-    this.MCi[this.client.getID()][this.client.getID()]++;
+    /**
+     * Processa uma mensagem recebida pelo transporte.
+     * @param sms mensagem recebida
+     */
+    private void processarMensagem(Message sms) {
+        // Qualquer mensagem de um membro conhecido serve de sinal de vida para o detector de falhas
+        if (sms.cliente() != null && this.MCi.contem(sms.cliente().getID())) {
+            registrarContato(sms.cliente().getID());
+        } else if (sms.cliente() != null && sms.cliente().getID() >= 0 && !"join".equals(sms.command())
+                && !"leave".equals(sms.command())) {
+            if (!possuiVisao()) {
+                ultimoTrafegoGrupo = System.nanoTime(); // Há um grupo: não vale fundar outro
+            } else {
+                avisarRemocao(sms.cliente().getID());
+            }
+        }
 
-    // Pergunta ao usuário se deseja enviar a mensagem para todos
-    System.out.println("Deseja enviar para todos? 's' para sim ou 'n' para nao.");
-    String resposta = this.input.nextLine();
-    
-    switch (resposta) {
-        case "s":
-            // Envia a mensagem para todos os clientes
-            for (ClientInfo cliente : this.clientes) {
-                enviarMensagem(mensagem, this.socket_unicast, cliente.getIP(), cliente.getPort());
-            }
-            break;
-        case "n":
-            // Envia a mensagem para clientes selecionados individualmente
-            for (ClientInfo cliente : this.clientes) {
-                if (!cliente.getID().equals(this.client.getID())) {
-                    System.out.println("Pressione Enter para enviar para: " + COLOR_CYAN + cliente.getName() + COLOR_RESET);
-                    this.input.nextLine();  // Espera o usuário pressionar Enter
+        // Verifica o comando da mensagem recebida
+        switch (sms.command()) {
+            case "msg":
+                if (!possuiVisao()) {
+                    // Sem a visão ainda não há relógios: a mensagem é processada depois dela
+                    mensagensPendentes.add(sms);
+                    break;
+                }
+                this.metricas.recebidas.increment();
+                verificarVisao(sms);
+                if (sms.cliente().getID().intValue() == this.client.getID().intValue()) {
+                    // Cópia de uma mensagem própria, que já foi entregue aqui ao ser enviada: a
+                    // entrega local não depende de a cópia voltar pelo transporte
+                } else {
+                    // Mensagens com timestamp diferencial esperam pela anterior do mesmo remetente
+                    for (Message pronta : this.reconstrutor.receber(sms)) {
+                        receberDoGrupo(pronta);
+                    }
+                }
+
+                // Verifica se há mensagens no buffer que podem ser eliminadas
+                verificarEliminarBuffer();
+                break;
+
+            case "estado":
+                // Caso o comando seja "estado", aplica uma parte da transferência de estado
+                if (!possuiVisao()) {
+                    mensagensPendentes.add(sms);
+                    break;
+                }
+                aplicarEstado(sms);
+                break;
+
+            case "join":
+                if (!possuiVisao()) {
+                    // Sem a visão do grupo ainda não há como atribuir IDs: a adesão é
+                    // tratada quando a visão chegar, pelo hello ou pela fundação do grupo
+                    if (sms.cliente().getID() < 0 && !mesmoEndereco(sms.cliente(), this.client)) {
+                        adesoesPendentes.add(sms.cliente());
+                    }
+                    break;
+                }
+                if (sms.cliente().getID() >= 0) {
+                    // Um join com ID é o pedido de visão de um membro que perdeu uma mudança
+                    responderVisao(sms.cliente());
+                } else if (ehCoordenador(-1)) {
+                    admitirMembro(sms.cliente());
+                }
+                break;
+
+            case "hello":
+                // A primeira visão recebida é instalada; as seguintes só acrescentam os membros
+                // admitidos pelo coordenador depois dela
+                if (!possuiVisao()) {
+                    instalarVisao(sms);
+                } else {
+                    if (inicioRetorno != 0 && !mesmoEndereco(sms.cliente(), this.client)
+                            && sms.getClientList().stream().anyMatch(membro ->
+                            membro.getID().equals(this.client.getID()) && mesmoEndereco(membro, this.client))) {
+                        inicioRetorno = 0; // O grupo ainda conta o ID recuperado do log
+                    }
+                    mesclarVisao(sms);
+                }
+                break;
+
+            case "leave":
+                // Caso o comando seja "leave", o membro informado saiu ou foi considerado falho
+                int membroSaiu = sms.getArguments()[0];
+                if (!possuiVisao()) {
+                    break;
+                }
+                if (membroSaiu != this.client.getID()) {
+                    removerDaVisao(membroSaiu);
+                } else if (!saindo && aceitaRemocao(sms.cliente().getID())) {
+                    reingressar(); // Considerado falho por engano: o grupo já não o conta
+                }
+                break;
+
+            case "heartbeat":
+                // Caso o comando seja "heartbeat", atualiza as entregas do remetente e a estabilidade
+                verificarVisao(sms);
+                absorverEntregas(sms);
+                verificarEliminarBuffer();
+                break;
+
+            case "nack":
+                // Caso o comando seja "nack", aproveita as entregas que vieram junto e
+                // reenvia as mensagens pedidas que ainda estão no buffer
+                verificarVisao(sms);
+                absorverEntregas(sms);
+                verificarEliminarBuffer();
+                atenderNack(sms);
+                break;
+        }
+    }
+
+    /**
+     * Coloca uma tarefa na caixa de entrada do núcleo, que a executa na ordem de chegada.
+     * Pode ser chamado de qualquer thread e nunca bloqueia.
+     * @param tarefa tarefa a executar
+     */
+    private void executarNoNucleo(Runnable tarefa) {
+        caixaEntrada.oferecer(tarefa);
+        acordarNucleo();
+    }
+
+    /**
+     * Acorda o núcleo se ele estiver dormindo. Deve ser chamado depois de inserir o trabalho,
+     * para que o núcleo o encontre ao acordar.
+     */
+    private void acordarNucleo() {
+        if (topicoHospedado != null) {
+            topicoHospedado.acordar();
+        } else if (nucleoDormindo) {
+            LockSupport.unpark(nucleo);
+        }
+    }
+
+    /**
+     * Corpo da thread do núcleo de um nó avulso: executa rodadas enquanto houver trabalho e, sem
+     * ele, dorme até ser acordado por um produtor ou até o próximo prazo. Ao encerrar, envia o
+     * lote aberto e rejeita os envios que ficaram na fila.
+     */
+    private void executarNucleo() {
+        while (!encerrado) {
+            long espera = rodadaNucleo();
+            if (espera == 0) {
+                continue;
+            }
+            nucleoDormindo = true;
+            // Confere de novo depois de anunciar que vai dormir: um produtor que inseriu antes
+            // disso não viu o aviso e não vai acordar o núcleo
+            if (!possuiTrabalhoNucleo() && !encerrado) {
+                LockSupport.parkNanos(this, Math.min(espera, TimeUnit.MILLISECONDS.toNanos(INTERVALO_PUBLICACAO_MS)));
+            }
+            nucleoDormindo = false;
+        }
+        encerrarNucleo();
+    }
+
+    /**
+     * Executa uma rodada do núcleo: alterna entre as tarefas da caixa de entrada e os envios,
+     * fecha o lote quando ele expira e publica o retrato do estado. Chamado pela thread do
+     * núcleo do nó avulso ou pela do hospedeiro do tópico.
+     * @return 0 se ainda há trabalho; senão, o tempo em nanossegundos até o próximo prazo, ou
+     *         Long.MAX_VALUE se o núcleo só precisa rodar de novo quando chegar trabalho
+     */
+    long rodadaNucleo() {
+        boolean trabalhou = false;
+
+        // Rodadas limitadas, para que uma rajada de envios não atrase as mensagens recebidas.
+        // Em um tópico hospedado com as entregas acumuladas, a recepção pausa até o estágio de
+        // entrega avisar que há espaço, sem segurar a thread do núcleo dos outros tópicos
+        Runnable tarefa;
+        for (int i = 0; i < TAREFAS_POR_RODADA && !entrega.cheio() && (tarefa = caixaEntrada.retirar()) != null; i++) {
+            try {
+                tarefa.run();
+            } catch (RuntimeException ex) {
+                System.err.println("Falha ao processar uma tarefa do núcleo!");
+                ex.printStackTrace();
+            }
+            trabalhou = true;
+        }
+        // Com o buffer acima do orçamento, só as mensagens novas, que entrariam nele, esperam até
+        // que mensagens estabilizem; o leave e os reenvios de mensagens já carimbadas seguem.
+        // Elas também esperam enquanto a entrega local delas não cabe no estágio de entrega
+        boolean excedido = excedeuOrcamento() || entrega.cheio();
+        for (int i = 0; i < TAREFAS_POR_RODADA; i++) {
+            EnvioPendente envio = excedido ? null : enviosRetidos.poll();
+            if (envio == null) {
+                envio = filaEnvio.retirar();
+                if (envio == null) {
+                    break;
+                }
+                if (envio.texto != null && (excedido || !enviosRetidos.isEmpty())) {
+                    enviosRetidos.add(envio);
+                    trabalhou = true;
+                    continue;
+                }
+            }
+            vagasEnvio.release();
+            processarEnvio(envio, noLote);
+            trabalhou = true;
+            excedido = arena.excedeuOrcamento() || entrega.cheio();
+        }
+        envioRetido = !enviosRetidos.isEmpty();
+        if (agrupador != null && !agrupador.vazio() && agrupador.nanosAteExpirar() == 0) {
+            enviarLote(noLote); // Tempo de espera do lote expirou
+        }
+        alterado |= trabalhou;
+
+        long agora = System.nanoTime();
+        long prazoPublicacao = TimeUnit.MILLISECONDS.toNanos(INTERVALO_PUBLICACAO_MS) - (agora - ultimaPublicacao);
+        if (alterado && (prazoPublicacao <= 0 || this.clientes != clientesPublicados)) {
+            publicarRetrato(agora);
+        }
+        if (trabalhou) {
+            return 0;
+        }
+
+        long espera = Long.MAX_VALUE;
+        if (alterado) {
+            espera = Math.max(0, prazoPublicacao);
+        }
+        if (envioRetido) {
+            // Confere o orçamento de novo depois de um intervalo, mesmo sem mensagens chegando
+            espera = Math.min(espera, TimeUnit.MILLISECONDS.toNanos(INTERVALO_PUBLICACAO_MS));
+        }
+        if (agrupador != null && !agrupador.vazio()) {
+            espera = Math.min(espera, agrupador.nanosAteExpirar());
+        }
+        return espera;
+    }
+
+    /**
+     * Verifica se o núcleo tem trabalho imediato: tarefas na caixa de entrada ou envios que
+     * não estão retidos pelo orçamento.
+     * @return true se uma nova rodada deve ser executada sem esperar
+     */
+    private boolean possuiTrabalhoNucleo() {
+        return !caixaEntrada.vazia() || !filaEnvio.vazia() || (envioRetido && !arena.excedeuOrcamento());
+    }
+
+    /**
+     * Verifica se o buffer passou do orçamento de memória. Antes de reter as mensagens novas,
+     * compacta os slabs em que poucas mensagens vivas seguram o slab inteiro, no máximo uma
+     * vez por {@link #INTERVALO_PUBLICACAO_MS}.
+     * @return true se o buffer continua acima do orçamento
+     */
+    private boolean excedeuOrcamento() {
+        if (!arena.excedeuOrcamento()) {
+            return false;
+        }
+        long agora = System.nanoTime();
+        if (agora - ultimaCompactacao >= TimeUnit.MILLISECONDS.toNanos(INTERVALO_PUBLICACAO_MS)) {
+            ultimaCompactacao = agora;
+            buffer.compactar();
+        }
+        return arena.excedeuOrcamento();
+    }
+
+    /**
+     * Última rodada do núcleo: envia o lote aberto e rejeita os envios que ficaram na fila.
+     */
+    void encerrarNucleo() {
+        enviarLote(noLote);
+        EnvioPendente pendente;
+        while ((pendente = enviosRetidos.poll()) != null || (pendente = filaEnvio.retirar()) != null) {
+            pendente.futuro.completeExceptionally(new IllegalStateException("Middleware encerrado."));
+        }
+    }
+
+    /**
+     * Publica um novo retrato imutável da visão, da matriz e das profundidades do buffer.
+     * @param agora instante atual, em nanossegundos
+     */
+    private void publicarRetrato(long agora) {
+        int[] ids = this.MCi.ids();
+        int[] profundidades = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            profundidades[i] = this.buffer.tamanho(ids[i]);
+        }
+        clientesPublicados = this.clientes;
+        this.retrato = new GroupSnapshot(clientesPublicados, ids, this.MCi.copiarPorSlot(), profundidades,
+                this.buffer.tamanho(), this.buffer.idadeMaisAntiga(agora));
+        ultimaPublicacao = agora;
+        alterado = false;
+    }
+
+    /**
+     * Recebe uma mensagem "msg" do grupo, entregando-a assim que for causalmente possível.
+     * @param sms mensagem recebida
+     */
+    private void receberDoGrupo(Message sms) {
+        int remetente = sms.cliente().getID();
+        int local = this.client.getID();
+        if (!this.MCi.contem(remetente)) {
+            // Mensagens de membros ainda desconhecidos não têm relógio com que ser ordenadas.
+            // As próprias já foram entregues ao serem enviadas e caem como cópias na fila causal
+            this.buffer.adicionar(sms);
+            gravarNoLog(sms);
+            this.filtroDuplicadas.registrar(remetente, sms.timestamp()[remetente]);
+            entregarAoCliente(sms, this.metricas.esperaCausal);
+        } else {
+            // O timestamp diz o que o remetente já entregou, mesmo antes de a mensagem
+            // ser entregue aqui; assim a matriz revela as mensagens que ainda faltam
+            int[] timestamp = sms.timestamp();
+            if (sms.getDelta() != null) {
+                // As demais entradas já vieram com as mensagens anteriores do remetente
+                this.MCi.mesclarDiferenca(remetente, sms.getDelta());
+            } else {
+                this.MCi.mesclarLinha(remetente, timestamp);
+            }
+            // Ao enviar, o remetente já contava esta mensagem como enviada
+            this.MCi.elevar(remetente, remetente, timestamp[remetente] + 1);
+
+            // Retém a mensagem até que suas dependências causais tenham sido entregues
+            this.filaCausal.receber(sms, this.MCi, local, this::entregarCausal);
+        }
+    }
+
+    /**
+     * Verifica se este nó já conhece a visão do grupo, ou seja, se já tem um ID.
+     * @return true se a visão já foi instalada
+     */
+    private boolean possuiVisao() {
+        Integer local = this.client.getID();
+        return local != null && local >= 0 && this.MCi.contem(local);
+    }
+
+    /**
+     * Compara dois clientes pelo endereço unicast, que os identifica antes de terem um ID.
+     * @param a primeiro cliente
+     * @param b segundo cliente
+     * @return true se os dois usam o mesmo IP e porta
+     */
+    private static boolean mesmoEndereco(ClientInfo a, ClientInfo b) {
+        return Objects.equals(a.getIP(), b.getIP()) && Objects.equals(a.getPort(), b.getPort());
+    }
+
+    /**
+     * Ordena dois clientes pelo endereço unicast, para desempatar a fundação do grupo.
+     * @param a primeiro cliente
+     * @param b segundo cliente
+     * @return negativo, zero ou positivo conforme o endereço de a for menor, igual ou maior que o de b
+     */
+    private static int compararEndereco(ClientInfo a, ClientInfo b) {
+        int comparacao = Arrays.compareUnsigned(a.getIP().getAddress(), b.getIP().getAddress());
+        return comparacao != 0 ? comparacao : Integer.compare(a.getPort(), b.getPort());
+    }
+
+    /**
+     * Admite um novo membro na visão com o próximo ID livre e anuncia a nova visão ao grupo com
+     * um "hello", que leva as entregas locais ao novo membro. Só o coordenador admite, para que o
+     * ID seja o mesmo em todos os membros. Um join repetido recebe o hello de novo, via unicast.
+     * @param novo cliente que enviou o join
+     */
+    private void admitirMembro(ClientInfo novo) {
+        ClientInfo membro = null;
+        for (ClientInfo cliente : this.clientes) {
+            if (mesmoEndereco(cliente, novo)) {
+                membro = cliente;
+            }
+        }
+        boolean admitido = membro == null;
+        if (admitido) {
+            if (proximoId > MessageCodec.MAXIMO_ID_MEMBRO) {
+                // IDs não são reutilizados: um ID além do máximo tornaria inválidos todos os
+                // vetores do grupo, então a adesão é recusada
+                System.err.println("Falha ao admitir " + novo.getName() + ": os IDs de membro do grupo se esgotaram.");
+                return;
+            }
+            membro = novo;
+            membro.setID(proximoId++);
+            incluirMembro(membro);
+        }
+        if (mesmoEndereco(membro, this.client)) {
+            return;
+        }
+
+        // Cria uma mensagem "hello" com a visão e as entregas já realizadas
+        Message hello = new Message(this.MCi.copiarLinha(this.client.getID()), "", this.client, "hello");
+        hello.setClientList(this.clientes);
+        hello.setArguments(proximoId);
+        if (admitido) {
+            // Os demais membros incluem o novo com o mesmo ID
+            if (this.envioMulticast) {
+                enviarMensagem(hello, true, this.multicast, this.porta);
+            } else {
+                enviarMensagem(hello, this.clientes);
+            }
+        } else {
+            enviarMensagem(hello, false, membro.getIP(), membro.getPort());
+        }
+
+        // O coordenador também transfere o estado
+        enviarEstado(membro);
+    }
+
+    /**
+     * Inclui um membro já com ID na visão e na matriz de relógios.
+     * @param membro cliente admitido pelo coordenador
+     */
+    private void incluirMembro(ClientInfo membro) {
+        // O novo membro parte de um estado que inclui tudo o que já é estável: a sua linha
+        // começa nas marcas de estabilidade atuais, em vez de zerar o mínimo de cada coluna
+        int[] ids = this.MCi.ids();
+        int[] marcas = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            marcas[i] = this.MCi.minimoColuna(ids[i]);
+        }
+
+        // Adiciona o cliente a uma cópia da lista de clientes e à matriz de relógios
+        ArrayList<ClientInfo> lista = new ArrayList<>(this.clientes);
+        lista.add(membro);
+        this.clientes = lista;
+        this.MCi.adicionarMembro(membro.getID());
+        for (int i = 0; i < ids.length; i++) {
+            this.MCi.elevar(membro.getID(), ids[i], marcas[i]);
+        }
+        registrarContato(membro.getID());
+        registrarPontoDeControle();
+
+        // Entrega uma mensagem de boas-vindas ao novo cliente
+        this.entrega.entregar(COLOR_CYAN + "Bem vindo(a) " + membro.getName() + " ao chat!" + COLOR_RESET);
+    }
+
+    /**
+     * Acrescenta à visão os membros de um "hello" que o coordenador admitiu depois dos IDs já
+     * conhecidos aqui. Membros com ID menor que o próximo livre e fora da visão foram removidos,
+     * e não voltam.
+     * @param hello mensagem "hello" com a visão de outro membro
+     */
+    private void mesclarVisao(Message hello) {
+        int conhecidos = proximoId;
+        for (ClientInfo membro : hello.getClientList()) {
+            if (membro.getID() >= conhecidos && !this.MCi.contem(membro.getID())) {
+                incluirMembro(membro);
+            }
+        }
+        if (hello.getArguments() != null) {
+            proximoId = Math.max(proximoId, hello.getArguments()[0]);
+        }
+    }
+
+    /**
+     * Responde ao pedido de visão de um membro com um "hello" via unicast. Se este nó já o
+     * removeu, avisa-o com um "leave" para que ele faça a adesão de novo.
+     * @param membro cliente que pediu a visão, com o seu ID
+     */
+    private void responderVisao(ClientInfo membro) {
+        if (mesmoEndereco(membro, this.client)) {
+            return; // O próprio pedido, recebido de volta pelo multicast
+        }
+        ClientInfo conhecido = buscarCliente(membro.getID());
+        if (conhecido == null || !mesmoEndereco(conhecido, membro)) {
+            if (membro.getID() < proximoId) {
+                Message leave = new Message(null, "", this.client, "leave");
+                leave.setArguments(membro.getID());
+                enviarMensagem(leave, false, membro.getIP(), membro.getPort());
+            }
+            return;
+        }
+        Message hello = new Message(this.MCi.copiarLinha(this.client.getID()), "", this.client, "hello");
+        hello.setClientList(this.clientes);
+        hello.setArguments(proximoId);
+        enviarMensagem(hello, false, membro.getIP(), membro.getPort());
+    }
+
+    /**
+     * Pede a visão a quem enviou um vetor com mais entradas do que os IDs conhecidos aqui: o
+     * remetente conhece um membro cujo hello não chegou. Os pedidos são espaçados por
+     * {@link #INTERVALO_PEDIDO_VISAO_MS}.
+     * @param sms mensagem recebida com o vetor do remetente
+     */
+    private void verificarVisao(Message sms) {
+        int[] vetor = sms.timestamp();
+        ClientInfo remetente = sms.cliente();
+        if (vetor == null || vetor.length <= proximoId || !possuiVisao() || remetente == null
+                || remetente.getIP() == null || remetente.getID().intValue() == this.client.getID().intValue()) {
+            return;
+        }
+        long agora = System.nanoTime();
+        if (agora - ultimoPedidoVisao < TimeUnit.MILLISECONDS.toNanos(INTERVALO_PEDIDO_VISAO_MS)) {
+            return;
+        }
+        ultimoPedidoVisao = agora;
+        enviarMensagem(new Message(null, "", this.client, "join"), false, remetente.getIP(), remetente.getPort());
+    }
+
+    /**
+     * Avisa um membro já removido da visão, que continua enviando, de que o grupo não o conta
+     * mais. Os avisos são espaçados por {@link #INTERVALO_PEDIDO_VISAO_MS}.
+     * @param id ID do remetente fora da visão
+     */
+    private void avisarRemocao(int id) {
+        ClientInfo removido = removidos.get(id);
+        long agora = System.nanoTime();
+        if (removido == null || agora - ultimoAvisoRemocao < TimeUnit.MILLISECONDS.toNanos(INTERVALO_PEDIDO_VISAO_MS)) {
+            return;
+        }
+        ultimoAvisoRemocao = agora;
+        Message leave = new Message(null, "", this.client, "leave");
+        leave.setArguments(id);
+        enviarMensagem(leave, false, removido.getIP(), removido.getPort());
+    }
+
+    /**
+     * Decide se um aviso de remoção deste nó vale. Depois de uma partição, cada lado pode ter
+     * removido o outro: prevalece o lado do menor ID, e só o outro adere de novo. Um aviso de
+     * quem ainda está na visão sempre vale.
+     * @param remetente ID de quem enviou o leave
+     * @return true se este nó deve aderir de novo ao grupo
+     */
+    private boolean aceitaRemocao(int remetente) {
+        if (this.MCi.contem(remetente)) {
+            return true;
+        }
+        for (int id : this.MCi.ids()) {
+            if (id < remetente) {
+                return false;
+            }
+        }
+        return remetente >= 0;
+    }
+
+    /**
+     * Volta a aderir ao grupo depois de ser removido da visão por engano, como um membro novo:
+     * o estado do ID antigo é descartado, e o grupo atribui outro.
+     */
+    private void reingressar() {
+        enviarLote(noLote);
+        this.entrega.entregar(COLOR_CYAN + "Removido do grupo; aderindo novamente..." + COLOR_RESET);
+        idAbandonado = this.client.getID();
+        inicioRetorno = 0;
+        descartarRecuperacao();
+        this.filaCausal = new CausalDeliveryQueue();
+        this.ultimoVetorGrupo = null;
+        adesoesPendentes.clear();
+        mensagensPendentes.clear();
+        removidos.clear();
+        tentativasAdesao = 0;
+        pedirAdesao();
+    }
+
+    /**
+     * Verifica se este nó é o coordenador da visão, ou seja, o membro de menor ID, sem contar
+     * o membro que acabou de aderir.
+     * @param novo ID do membro que está aderindo, ou -1
+     * @return true se este nó admite os novos membros e lhes transfere o estado
+     */
+    private boolean ehCoordenador(int novo) {
+        int local = this.client.getID();
+        for (int id : this.MCi.ids()) {
+            if (id != novo && id < local) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Envia ao novo membro, via unicast, a matriz de relógios e as mensagens ainda não estáveis.
+     * A primeira parte leva a matriz; as demais levam as mensagens, em ordem de remetente e
+     * sequência, em partes de aproximadamente {@link #TAMANHO_PARTE_ESTADO} bytes.
+     * @param destino membro que acabou de aderir
+     */
+    private void enviarEstado(ClientInfo destino) {
+        int[][] matriz = copiarMatrizPorId();
+
+        List<ArrayList<Message>> partes = new ArrayList<>();
+        partes.add(new ArrayList<>()); // Parte da matriz
+        int tamanhoParte = TAMANHO_PARTE_ESTADO;
+        for (Message pendente : this.buffer) {
+            int tamanhoMensagem = pendente.message().length() + 5 * pendente.timestamp().length + 5;
+            if (tamanhoParte + tamanhoMensagem > TAMANHO_PARTE_ESTADO) {
+                partes.add(new ArrayList<>());
+                tamanhoParte = 0;
+            }
+            partes.get(partes.size() - 1).add(pendente);
+            tamanhoParte += tamanhoMensagem;
+        }
+
+        for (int parte = 0; parte < partes.size(); parte++) {
+            Message estado = new Message(null, "", this.client, "estado");
+            estado.setArguments(parte, partes.size());
+            estado.setMatrix(parte == 0 ? matriz : new int[0][]);
+            estado.setBaseVectors(parte == 0 ? this.reconstrutor.bases() : new int[0][]);
+            estado.setMessages(partes.get(parte));
+            enviarMensagem(estado, false, destino.getIP(), destino.getPort());
+        }
+    }
+
+    /**
+     * Copia as linhas da matriz de relógios no formato da transferência de estado.
+     * @return linhas indexadas pelo ID do membro, com null para IDs sem membro
+     */
+    private int[][] copiarMatrizPorId() {
+        int[] ids = this.MCi.ids();
+        int maiorId = 0;
+        for (int id : ids) {
+            maiorId = Math.max(maiorId, id);
+        }
+        int[][] matriz = new int[maiorId + 1][];
+        for (int id : ids) {
+            matriz[id] = this.MCi.copiarLinha(id);
+        }
+        return matriz;
+    }
+
+    /**
+     * Aplica uma parte da transferência de estado. As linhas da matriz são mescladas, exceto a
+     * local, que já partiu das entregas de quem respondeu ao join. As mensagens anteriores a esse
+     * ponto só entram no buffer, para atender a NACKs e completar a estabilidade; as demais são
+     * recebidas normalmente, como se tivessem chegado pelo grupo.
+     * @param estado mensagem "estado" com parte da matriz e do buffer do coordenador
+     */
+    private void aplicarEstado(Message estado) {
+        int local = this.client.getID();
+        int[][] matriz = estado.getMatrix();
+        for (int id = 0; matriz != null && id < matriz.length; id++) {
+            if (matriz[id] != null && id != local && this.MCi.contem(id)) {
+                this.MCi.mesclarLinha(id, matriz[id]);
+            }
+        }
+        // Sem o vetor da última mensagem de cada remetente, a próxima diferencial dele não poderia
+        // ser reconstruída
+        int[][] bases = estado.getBaseVectors();
+        for (int id = 0; bases != null && id < bases.length; id++) {
+            if (bases[id] != null && id != local && this.MCi.contem(id)) {
+                this.reconstrutor.registrar(id, bases[id]);
+            }
+        }
+        if (estado.getMessages() != null) {
+            for (Message pendente : estado.getMessages()) {
+                int remetente = pendente.cliente().getID();
+                if (!this.MCi.contem(remetente)) {
+                    continue;
+                }
+                if (pendente.timestamp()[remetente] < this.MCi.get(local, remetente)) {
+                    this.buffer.adicionar(pendente);
+                    this.reconstrutor.registrar(remetente, pendente.timestamp());
+                    gravarNoLog(pendente);
+                } else {
+                    for (Message pronta : this.reconstrutor.receber(pendente)) {
+                        receberDoGrupo(pronta);
+                    }
+                }
+            }
+        }
+        registrarPontoDeControle();
+        verificarEliminarBuffer();
+    }
+
+    /**
+     * Instala a visão recebida em resposta ao join. O ID local é o da entrada da lista com o
+     * endereço deste nó.
+     * @param hello mensagem "hello" com a lista de membros e o próximo ID livre
+     */
+    private void instalarVisao(Message hello) {
+        ArrayList<ClientInfo> lista = hello.getClientList();
+        int posicao = -1;
+        for (int i = 0; i < lista.size(); i++) {
+            if (mesmoEndereco(lista.get(i), this.client)) {
+                posicao = i;
+            }
+        }
+        if (posicao < 0 || lista.get(posicao).getID() == idAbandonado) {
+            return; // Resposta a outra adesão, ou de quem ainda não viu a remoção deste nó
+        }
+        this.client.setID(lista.get(posicao).getID());
+        lista.set(posicao, this.client);
+        this.clientes = lista;
+        this.proximoId = hello.getArguments() != null ? hello.getArguments()[0] : lista.size();
+
+        // Inclui na matriz de relógios todos os membros do grupo
+        for (ClientInfo membro : this.clientes) {
+            this.MCi.adicionarMembro(membro.getID());
+            registrarContato(membro.getID());
+        }
+
+        // O histórico anterior à adesão não será entregue: parte das contagens do membro que respondeu
+        if (hello.timestamp() != null && this.MCi.contem(hello.cliente().getID())) {
+            this.MCi.mesclarLinha(this.client.getID(), hello.timestamp());
+            this.MCi.mesclarLinha(hello.cliente().getID(), hello.timestamp());
+        }
+        registrarPontoDeControle();
+
+        this.entrega.entregar(COLOR_CYAN + "Bem vindo(a) " + this.client.getName() + " ao chat!" + COLOR_RESET);
+        admitirPendentes();
+    }
+
+    /**
+     * Envia o pedido de adesão ao grupo e agenda a verificação da resposta.
+     */
+    private void pedirAdesao() {
+        if (encerrado) {
+            return;
+        }
+        enviarMensagem(new Message(null, "", this.client, "join"), true, this.multicast, this.porta);
+        this.temporizador.schedule(() -> executarNoNucleo(this::fundarGrupo), TEMPO_FUNDACAO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Funda o grupo com este nó como único membro, se nenhum "hello" chegou até agora.
+     * Nós que começaram juntos viram os joins uns dos outros sem que houvesse visão: só o de
+     * menor endereço funda, e os demais repetem o join para serem admitidos por ele. O join
+     * também é repetido nas primeiras tentativas, já que ele ou o hello podem ter se perdido, e
+     * enquanto houver sinal recente de um grupo, cujo coordenador pode estar fora do ar.
+     */
+    private void fundarGrupo() {
+        if (possuiVisao() || encerrado) {
+            return;
+        }
+        boolean grupoAtivo = ultimoTrafegoGrupo != 0
+                && System.nanoTime() - ultimoTrafegoGrupo < TimeUnit.MILLISECONDS.toNanos(2 * INTERVALO_MAXIMO_HEARTBEAT_MS);
+        if (grupoAtivo || tentativasAdesao < TENTATIVAS_ADESAO
+                || adesoesPendentes.stream().anyMatch(pendente -> compararEndereco(pendente, this.client) < 0)) {
+            // Se o nó de menor endereço não estiver mais vivo, a próxima tentativa já não o espera
+            adesoesPendentes.removeIf(pendente -> compararEndereco(pendente, this.client) < 0);
+            tentativasAdesao++;
+            pedirAdesao();
+            return;
+        }
+        this.client.setID(proximoId++);
+        ArrayList<ClientInfo> lista = new ArrayList<>(this.clientes);
+        lista.add(this.client);
+        this.clientes = lista;
+        this.MCi.adicionarMembro(this.client.getID());
+        registrarPontoDeControle();
+
+        this.entrega.entregar(COLOR_CYAN + "Bem vindo(a) " + this.client.getName() + " ao chat!" + COLOR_RESET);
+        admitirPendentes();
+    }
+
+    /**
+     * Trata as adesões, mensagens e partes do estado que chegaram antes da visão, na ordem
+     * em que foram recebidas.
+     */
+    private void admitirPendentes() {
+        // Só o coordenador admite; os demais pendentes repetem o join
+        if (ehCoordenador(-1)) {
+            for (ClientInfo pendente : adesoesPendentes) {
+                admitirMembro(pendente);
+            }
+        }
+        adesoesPendentes.clear();
+
+        // Mensagens e partes do estado que chegaram durante a adesão: as já incluídas no
+        // ponto de partida são descartadas como cópias pela fila causal
+        List<Message> recebidas = new ArrayList<>(mensagensPendentes);
+        mensagensPendentes.clear();
+        for (Message recebida : recebidas) {
+            processarMensagem(recebida);
+        }
+    }
+
+    /**
+     * Abre o log de escrita antecipada e, se ele tiver sido escrito há menos de
+     * {@link #TEMPO_SUSPEITA_MS}, quando o grupo ainda não considerou este nó falho, recupera
+     * dele a visão, a matriz de relógios e o buffer. Um log mais antigo ou de outro endereço é
+     * apagado, e o nó adere ao grupo do zero.
+     * @param diretorio diretório dos segmentos do log
+     * @return true se o estado foi recuperado
+     */
+    private boolean abrirLog(String diretorio) {
+        try {
+            WriteAheadLog aberto = new WriteAheadLog(Paths.get(diretorio), TAMANHO_SEGMENTO_LOG, this.codec);
+            long ultimaEscrita = aberto.ultimaEscrita();
+            boolean recuperado = false;
+            if (ultimaEscrita > 0 && System.currentTimeMillis() - ultimaEscrita <= TEMPO_SUSPEITA_MS) {
+                aberto.reproduzir(this::reproduzirRegistro);
+                recuperado = possuiVisao();
+            }
+            if (recuperado) {
+                verificarEliminarBuffer();
+            } else {
+                descartarRecuperacao();
+                aberto.descartarTudo();
+            }
+            // Só depois da reprodução o log passa a receber escritas; o primeiro segmento novo
+            // já começa com o ponto de controle do estado recuperado
+            this.log = aberto;
+            aberto.iniciar(this::registrarPontoDeControle);
+            return recuperado;
+        } catch (IOException ex) {
+            System.err.println("Falha ao abrir o log em " + diretorio + "!");
+            ex.printStackTrace();
+            descartarRecuperacao();
+            this.log = null;
+            return false;
+        }
+    }
+
+    /**
+     * Aplica ao estado do nó um registro lido do log, na ordem em que foi gravado.
+     * Os relógios só aumentam, então reaplicar um registro já coberto por um ponto de controle
+     * posterior não altera o resultado.
+     * @param registro mensagem gravada no log
+     */
+    private void reproduzirRegistro(Message registro) {
+        switch (registro.command()) {
+            case "hello": {
+                // Ponto de controle da visão: substitui a lista de membros e recomeça a matriz
+                ArrayList<ClientInfo> lista = registro.getClientList();
+                int posicao = -1;
+                for (int i = 0; i < lista.size(); i++) {
+                    if (mesmoEndereco(lista.get(i), this.client) && lista.get(i).getID().equals(registro.cliente().getID())) {
+                        posicao = i;
+                    }
+                }
+                if (posicao < 0) {
+                    break; // Log de outro endereço
+                }
+                this.client.setID(lista.get(posicao).getID());
+                lista.set(posicao, this.client);
+                this.clientes = lista;
+                this.proximoId = registro.getArguments()[0];
+                this.MCi = new ClockMatrix();
+                for (ClientInfo membro : lista) {
+                    this.MCi.adicionarMembro(membro.getID());
+                    registrarContato(membro.getID());
+                }
+                break;
+            }
+            case "estado": {
+                // Ponto de controle dos relógios e dos vetores-base dos timestamps diferenciais
+                int[][] matriz = registro.getMatrix();
+                for (int id = 0; id < matriz.length; id++) {
+                    if (matriz[id] != null && this.MCi.contem(id)) {
+                        this.MCi.mesclarLinha(id, matriz[id]);
+                    }
+                }
+                int[][] bases = registro.getBaseVectors();
+                for (int id = 0; id < bases.length; id++) {
+                    if (bases[id] != null && this.MCi.contem(id)) {
+                        this.reconstrutor.registrar(id, bases[id]);
+                    }
+                }
+                break;
+            }
+            case "msg": {
+                // Mensagem enviada ou entregue por este nó: volta ao buffer com o efeito da entrega nos relógios
+                int remetente = registro.cliente().getID();
+                if (possuiVisao() && this.MCi.contem(remetente)) {
+                    int[] timestamp = registro.timestamp();
+                    if (remetente != this.client.getID()) {
+                        this.MCi.mesclarLinha(remetente, timestamp);
+                    }
+                    this.MCi.elevar(remetente, remetente, timestamp[remetente] + 1);
+                    this.MCi.elevar(this.client.getID(), remetente, timestamp[remetente] + 1);
+                    this.reconstrutor.registrar(remetente, timestamp);
+                }
+                this.buffer.adicionar(registro);
+                break;
+            }
+            case "heartbeat":
+            case "nack":
+                absorverEntregas(registro);
+                break;
+        }
+    }
+
+    /**
+     * Volta ao estado inicial, sem visão, depois de uma recuperação que não pôde ser concluída.
+     */
+    private void descartarRecuperacao() {
+        for (int id = 0; id < this.reconstrutor.bases().length; id++) {
+            this.reconstrutor.descartarRemetente(id);
+        }
+        this.filtroDuplicadas.limpar();
+        this.clientes = new ArrayList<>();
+        this.MCi = new ClockMatrix();
+        this.buffer.esvaziar();
+        this.client.setID(-1);
+        this.proximoId = 0;
+    }
+
+    /**
+     * Anuncia ao grupo, com um heartbeat, que este nó voltou com o estado recuperado do log.
+     * Os membros respondem normalmente, e as mensagens perdidas enquanto o nó estava fora são
+     * pedidas por NACK assim que os heartbeats deles revelarem as lacunas.
+     */
+    private void anunciarRetorno() {
+        Message heartbeat = new Message(this.MCi.copiarLinha(this.client.getID()), "", this.client, "heartbeat");
+        enviarParaDestinatarios(heartbeat, null);
+        this.entrega.entregar(COLOR_CYAN + "Bem vindo(a) de volta " + this.client.getName() + " ao chat!" + COLOR_RESET);
+        if (this.MCi.ids().length > 1) {
+            inicioRetorno = System.nanoTime();
+            confirmarRetorno();
+        }
+    }
+
+    /**
+     * Pede a visão ao grupo com um join com o ID recuperado, a cada {@link #INTERVALO_PEDIDO_VISAO_MS},
+     * até que um hello que inclua este nó chegue. Sem confirmação em
+     * {@link #TEMPO_CONFIRMACAO_RETORNO_MS}, o grupo não conta mais este ID, e o nó adere de novo.
+     */
+    private void confirmarRetorno() {
+        if (inicioRetorno == 0 || encerrado) {
+            return;
+        }
+        if (System.nanoTime() - inicioRetorno > TimeUnit.MILLISECONDS.toNanos(TEMPO_CONFIRMACAO_RETORNO_MS)) {
+            reingressar();
+            // Ninguém respondeu: nenhum membro conhece o ID antigo, que pode ser atribuído de novo
+            idAbandonado = -1;
+            return;
+        }
+        enviarMensagem(new Message(null, "", this.client, "join"), true, this.multicast, this.porta);
+        this.temporizador.schedule(() -> executarNoNucleo(this::confirmarRetorno),
+                INTERVALO_PEDIDO_VISAO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Grava uma mensagem no log, se a persistência estiver ativa.
+     * @param mensagem mensagem "msg" que entrou no buffer, ou de controle com um vetor de entregas
+     */
+    private void gravarNoLog(Message mensagem) {
+        if (this.log != null) {
+            this.log.anexar(mensagem);
+        }
+    }
+
+    /**
+     * Grava no log um ponto de controle da visão e dos relógios, que supera tudo o que foi
+     * gravado antes dele, exceto as mensagens do buffer. É gravado a cada mudança de visão e
+     * no início de cada segmento.
+     */
+    private void registrarPontoDeControle() {
+        if (this.log == null || !possuiVisao()) {
+            return;
+        }
+        Message visao = new Message(null, "", this.client, "hello");
+        visao.setClientList(this.clientes);
+        visao.setArguments(proximoId);
+        Message relogios = new Message(null, "", this.client, "estado");
+        relogios.setArguments(0, 1);
+        relogios.setMatrix(copiarMatrizPorId());
+        relogios.setBaseVectors(this.reconstrutor.bases());
+        relogios.setMessages(new ArrayList<>());
+        this.log.anexar(visao);
+        this.log.anexar(relogios);
+    }
+
+    /**
+     * Registra que um membro deu sinal de vida agora.
+     * @param id ID do membro
+     */
+    private void registrarContato(int id) {
+        if (id >= ultimoContato.length) {
+            ultimoContato = Arrays.copyOf(ultimoContato, Math.max(id + 1, ultimoContato.length * 2));
+        }
+        ultimoContato[id] = System.nanoTime();
+    }
+
+    /**
+     * Detector de falhas: remove da visão os membros sem sinal de vida há mais de
+     * {@link #TEMPO_SUSPEITA_MS} e avisa o grupo com um "leave" em nome deles, para que
+     * todos mudem de visão mesmo que não tenham detectado a falha ao mesmo tempo.
+     */
+    private void verificarFalhas() {
+        try {
+            if (!possuiVisao()) {
+                return;
+            }
+            long agora = System.nanoTime();
+            for (int membro : this.MCi.ids()) {
+                if (membro == this.client.getID()
+                        || agora - ultimoContato[membro] <= TimeUnit.MILLISECONDS.toNanos(TEMPO_SUSPEITA_MS)) {
+                    continue;
+                }
+                Message leave = new Message(null, "", this.client, "leave");
+                leave.setArguments(membro);
+                enviarParaDestinatarios(leave, null);
+                removerDaVisao(membro);
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("Falha ao verificar os membros do grupo!");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Mudança de visão: retira um membro da lista, da matriz de relógios e do buffer, e recalcula
+     * imediatamente a estabilidade. Mensagens retidas que dependiam dele são reavaliadas, já que
+     * as dependências de um membro que saiu não são mais esperadas.
+     * @param id ID do membro que saiu
+     */
+    private void removerDaVisao(int id) {
+        if (!this.MCi.contem(id)) {
+            return;
+        }
+        ClientInfo membro = buscarCliente(id);
+        if (membro != null) {
+            removidos.put(id, membro);
+        }
+
+        // A lista é substituída, e não alterada, porque as threads de recepção podem estar percorrendo a atual
+        ArrayList<ClientInfo> restantes = new ArrayList<>(this.clientes);
+        restantes.removeIf(cliente -> cliente.getID() == id);
+        this.clientes = restantes;
+
+        this.MCi.removerMembro(id);
+        this.buffer.descartarRemetente(id);
+        this.reconstrutor.descartarRemetente(id);
+        this.filtroDuplicadas.descartarRemetente(id);
+        this.limitesReparo.remove(id);
+        if (id < lacunaObservada.length) {
+            lacunaObservada[id] = -1;
+        }
+        this.filaCausal.reavaliar(this.MCi, this.client.getID(), this::entregarCausal);
+        registrarPontoDeControle();
+        verificarEliminarBuffer();
+
+        if (membro != null) {
+            this.entrega.entregar(COLOR_CYAN + membro.getName() + " saiu do chat." + COLOR_RESET);
+        }
+    }
+
+    /**
+     * Sai do grupo: avisa os membros com um "leave", depois de enviar o que ainda estava na
+     * fila, e libera as threads e os sockets. Envios posteriores são rejeitados.
+     */
+    @Override
+    public void close() {
+        if (encerrado) {
+            return;
+        }
+        saindo = true;
+        // A visão é consultada no retrato, já que só o núcleo lê a matriz
+        if (this.retrato.clientes().contains(this.client)) {
+            Message leave = new Message(null, "", this.client, "leave");
+            leave.setArguments(this.client.getID());
+            try {
+                enfileirar(new EnvioPendente(null, leave, null)).get(tempoMaximoBloqueioMs, TimeUnit.MILLISECONDS);
+            } catch (Exception ex) {
+                System.err.println("Falha ao avisar o grupo da saída!");
+            }
+        }
+        synchronized (travaEnvio) {
+            encerrado = true;
+        }
+
+        if (topicoHospedado != null) {
+            // O temporizador e a thread do núcleo são do hospedeiro: só as tarefas deste tópico param
+            for (ScheduledFuture<?> periodica : tarefasPeriodicas) {
+                periodica.cancel(false);
+            }
+            desativarRastreamento();
+            try {
+                topicoHospedado.encerrar().get(tempoMaximoBloqueioMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException ex) {
+                System.err.println("Falha ao encerrar o nucleo do topico!");
+            }
+        } else if (this.temporizador != null) {
+            this.temporizador.shutdownNow();
+        }
+        if (this.nucleo != null) {
+            // O núcleo sai do laço, rejeita os envios restantes e deixa de usar os sockets
+            LockSupport.unpark(this.nucleo);
+            try {
+                this.nucleo.join(tempoMaximoBloqueioMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Entrega o que o núcleo já tinha liberado antes de encerrar
+        this.entrega.close();
+        if (this.log != null) {
+            // A saída foi anunciada: o grupo já não conta este ID, e o log não deve ser recuperado
+            try {
+                this.log.descartarTudo();
+            } catch (IOException ex) {
+                System.err.println("Falha ao apagar o log!");
+                ex.printStackTrace();
+            }
+            this.log.close();
+        }
+
+        if (this.nomeJmx != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.nomeJmx);
+            } catch (JMException ex) {
+                System.err.println("Falha ao remover as métricas do JMX!");
+                ex.printStackTrace();
+            }
+        }
+
+        // Fechar os canais também os retira do laço de eventos, que pode ser compartilhado;
+        // em um tópico hospedado, só o retira do hospedeiro
+        try {
+            this.transporte.close();
+        } catch (IOException ex) {
+            System.err.println("Falha ao fechar o transporte!");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Mescla na linha do remetente o vetor de entregas de uma mensagem de controle.
+     * @param sms mensagem "heartbeat" ou "nack" com o vetor de entregas do remetente
+     */
+    private void absorverEntregas(Message sms) {
+        int remetente = sms.cliente().getID();
+        if (sms.timestamp() != null && remetente != this.client.getID() && this.MCi.contem(remetente)) {
+            this.MCi.mesclarLinha(remetente, sms.timestamp());
+            gravarNoLog(sms);
+        }
+    }
+
+    /**
+     * Envia ao grupo um heartbeat com a linha local da matriz, se o intervalo atual já passou
+     * desde o último anúncio das entregas.
+     */
+    private void anunciarEntregas() {
+        try {
+            Integer local = this.client.getID();
+            if (local == null || !this.MCi.contem(local)) {
+                return;
+            }
+            long agora = System.nanoTime();
+            if (agora - ultimoAnuncio < intervaloHeartbeat(agora)) {
+                return;
+            }
+            Message heartbeat = new Message(this.MCi.copiarLinha(local), "", this.client, "heartbeat");
+            enviarParaDestinatarios(heartbeat, null);
+        } catch (RuntimeException ex) {
+            System.err.println("Falha ao enviar o heartbeat!");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Calcula o intervalo até o próximo heartbeat. O buffer local reflete quantas mensagens o
+     * grupo ainda segura: quanto maior ele for, mais cedo as entregas são anunciadas, e se a
+     * mensagem mais antiga já esperou demais o anúncio sai no intervalo mínimo.
+     * @param agora instante atual, em nanossegundos
+     * @return intervalo em nanossegundos
+     */
+    private long intervaloHeartbeat(long agora) {
+        if (entregasNaoAnunciadas == 0) {
+            return TimeUnit.MILLISECONDS.toNanos(INTERVALO_MAXIMO_HEARTBEAT_MS);
+        }
+        long intervalo = TimeUnit.MILLISECONDS.toNanos(ATRASO_MAXIMO_ANUNCIO_MS)
+                / (1 + this.buffer.tamanho() / MENSAGENS_POR_PASSO_HEARTBEAT);
+        if (this.buffer.idadeMaisAntiga(agora) > TimeUnit.MILLISECONDS.toNanos(2 * ATRASO_MAXIMO_ANUNCIO_MS)) {
+            intervalo = 0;
+        }
+        return Math.max(intervalo, TimeUnit.MILLISECONDS.toNanos(INTERVALO_MINIMO_HEARTBEAT_MS));
+    }
+
+    /**
+     * Registra que a linha local acabou de ser enviada ao grupo, junto de uma mensagem ou heartbeat.
+     */
+    private void registrarAnuncio() {
+        entregasNaoAnunciadas = 0;
+        ultimoAnuncio = System.nanoTime();
+    }
+
+    /**
+     * Faz o próximo heartbeat sair na primeira oportunidade, depois de um envio que falhou: o
+     * anúncio registrado junto dele não chegou ao grupo, que precisa saber das sequências
+     * carimbadas para pedir a retransmissão.
+     */
+    private void anteciparAnuncio() {
+        entregasNaoAnunciadas++;
+        ultimoAnuncio = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(INTERVALO_MAXIMO_HEARTBEAT_MS);
+    }
+
+    /**
+     * Procura lacunas na entrega: um membro cuja coluna tem, em alguma linha da matriz, um valor
+     * maior que o da linha local enviou mensagens que ainda não foram entregues aqui. Se a lacuna
+     * persiste desde a verificação anterior (e não é só uma mensagem atrasada), pede a
+     * retransmissão com um NACK, repetido a cada {@link #INTERVALO_REPETICAO_NACK_MS}.
+     */
+    private void verificarLacunas() {
+        try {
+            Integer local = this.client.getID();
+            if (local == null || !this.MCi.contem(local)) {
+                return;
+            }
+            long agora = System.nanoTime();
+            for (int membro : this.MCi.ids()) {
+                if (membro == local) {
+                    continue;
+                }
+                if (membro >= lacunaObservada.length) {
+                    int capacidadeAnterior = lacunaObservada.length;
+                    lacunaObservada = Arrays.copyOf(lacunaObservada, Math.max(membro + 1, capacidadeAnterior * 2));
+                    Arrays.fill(lacunaObservada, capacidadeAnterior, lacunaObservada.length, -1);
+                    ultimoNack = Arrays.copyOf(ultimoNack, lacunaObservada.length);
+                }
+
+                int entregues = this.MCi.get(local, membro);
+                int conhecidas = this.MCi.maximoColuna(membro);
+                if (conhecidas <= entregues) {
+                    lacunaObservada[membro] = -1;
+                    continue;
+                }
+                if (lacunaObservada[membro] != entregues) {
+                    // Lacuna nova, ou a entrega avançou: espera a próxima verificação
+                    lacunaObservada[membro] = entregues;
+                    ultimoNack[membro] = agora - TimeUnit.MILLISECONDS.toNanos(INTERVALO_REPETICAO_NACK_MS);
+                    continue;
+                }
+                if (agora - ultimoNack[membro] >= TimeUnit.MILLISECONDS.toNanos(INTERVALO_REPETICAO_NACK_MS)) {
+                    ultimoNack[membro] = agora;
+                    enviarNack(membro, entregues, Math.min(conhecidas, entregues + MAXIMO_MENSAGENS_POR_NACK));
                 }
-                enviarMensagem(mensagem, this.socket_unicast, cliente.getIP(), cliente.getPort());
             }
-            break;
-        default:
-            System.err.println("Comando nao reconhecido. Tente novamente.");
-            break;
+        } catch (RuntimeException ex) {
+            // A tarefa periódica é cancelada se lançar uma exceção
+            System.err.println("Falha ao verificar as lacunas de entrega!");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Pede a retransmissão de um intervalo de mensagens de um membro. O pedido vai ao próprio
+     * autor ou, se ele não estiver mais na lista de clientes, ao membro que mais entregou dele.
+     * @param membro ID do autor das mensagens perdidas
+     * @param de primeiro número de sequência pedido
+     * @param ate número de sequência seguinte ao último pedido
+     */
+    private void enviarNack(int membro, int de, int ate) {
+        ClientInfo destino = buscarCliente(membro);
+        if (destino == null) {
+            int maior = de;
+            for (int id : this.MCi.ids()) {
+                ClientInfo candidato = buscarCliente(id);
+                if (id != this.client.getID() && candidato != null && this.MCi.get(id, membro) > maior) {
+                    maior = this.MCi.get(id, membro);
+                    destino = candidato;
+                }
+            }
+        }
+        if (destino == null || destino.getIP() == null) {
+            return;
+        }
+        // O NACK leva junto as entregas locais, como qualquer mensagem de controle
+        Message nack = new Message(this.MCi.copiarLinha(this.client.getID()), "", this.client, "nack");
+        nack.setArguments(membro, de, ate);
+        enviarMensagem(nack, false, destino.getIP(), destino.getPort());
+        this.metricas.nacksEnviados.increment();
+    }
+
+    /**
+     * Atende a um NACK reenviando via unicast as mensagens pedidas que ainda estão no buffer.
+     * Os reparos para cada membro são limitados por taxa, para que pedidos repetidos não
+     * inundem a rede; cópias já entregues são descartadas pela fila causal de quem pediu.
+     * @param nack mensagem "nack" com o autor e o intervalo de sequências pedido
+     */
+    private void atenderNack(Message nack) {
+        ClientInfo solicitante = nack.cliente();
+        int[] pedido = nack.getArguments();
+        if (solicitante.getIP() == null || pedido == null || pedido.length < 3) {
+            return; // Solicitante desconhecido: não há para onde responder
+        }
+        RateLimiter limite = limitesReparo.computeIfAbsent(solicitante.getID(),
+                id -> new RateLimiter(REPAROS_POR_SEGUNDO, RAJADA_REPAROS));
+        int ate = Math.min(pedido[2], pedido[1] + MAXIMO_MENSAGENS_POR_NACK);
+        for (int sequencia = Math.max(0, pedido[1]); sequencia < ate; sequencia++) {
+            Message perdida = this.buffer.obter(pedido[0], sequencia);
+            if (perdida == null) {
+                continue;
+            }
+            if (!limite.tentarAdquirir()) {
+                break;
+            }
+            enviarMensagem(perdida, false, solicitante.getIP(), solicitante.getPort());
+            this.metricas.retransmissoes.increment();
+        }
+    }
+
+    /**
+     * Entrega ao cliente uma mensagem própria assim que ela sai, com ou sem sucesso no envio.
+     * Ninguém atende a um NACK do próprio remetente: se a entrega esperasse a cópia voltar pelo
+     * transporte, uma mensagem cujo envio falhou nunca seria entregue aqui, e as seguintes
+     * furariam a ordem FIFO. As cópias que voltarem são descartadas.
+     * @param mensagem mensagem carimbada por este nó
+     */
+    private void entregarPropria(Message mensagem) {
+        int local = this.client.getID();
+        this.filtroDuplicadas.registrar(local, mensagem.timestamp()[local]);
+        entregarAoCliente(mensagem, this.metricas.latenciaEnvioEntrega);
+    }
+
+    /**
+     * Entrega ao cliente uma mensagem de outro membro cujas dependências causais foram satisfeitas,
+     * atualizando os relógios e guardando-a no buffer até que se torne estável.
+     * @param mensagem mensagem pronta para entrega
+     */
+    private void entregarCausal(Message mensagem) {
+        int remetente = mensagem.cliente().getID();
+        this.MCi.incrementar(this.client.getID(), remetente); // Incrementa o relógio lógico
+        entregasNaoAnunciadas++;
+
+        this.buffer.adicionar(mensagem);
+        gravarNoLog(mensagem);
+        this.filtroDuplicadas.registrar(remetente, mensagem.timestamp()[remetente]);
+        entregarAoCliente(mensagem, this.metricas.esperaCausal);
+    }
+
+    /**
+     * Passa uma mensagem de aplicação ao estágio de entrega, registrando nas métricas o tempo
+     * desde o seu instante local.
+     * @param mensagem mensagem entregue
+     * @param latencia histograma do tempo desde o envio ou a chegada, ou null para não medir
+     */
+    private void entregarAoCliente(Message mensagem, LatencyHistogram latencia) {
+        if (latencia != null && mensagem.getLocalTime() != 0) {
+            latencia.registrar(System.nanoTime() - mensagem.getLocalTime());
+        }
+        this.metricas.entregues.increment();
+        this.entrega.entregar(formatar(mensagem));
+    }
+
+    /**
+     * Formata uma mensagem de aplicação para exibição, com a cor e o nome do remetente.
+     * @param mensagem mensagem "msg"
+     * @return texto exibido ao cliente
+     */
+    private String formatar(Message mensagem) {
+        return COLOR_PURPLE + mensagem.cliente().getName() + ": " + COLOR_RESET + mensagem.message();
+    }
+
+    /**
+     * Envia uma mensagem para todos os membros do grupo, aguardando o envio.
+     * Chamado de dentro de um deliver, só enfileira a mensagem e retorna, já que o envio pode
+     * depender do próprio callback terminar; falhas são então apenas informadas.
+     * @param conteudoMensagem o conteúdo da mensagem a ser enviada
+     */
+    public void msend(String conteudoMensagem) {
+        if (DeliveryDispatcher.emCallback()) {
+            msendAsync(conteudoMensagem, null).whenComplete((mensagem, erro) -> {
+                if (erro != null) {
+                    Throwable causa = erro instanceof CompletionException ? erro.getCause() : erro;
+                    System.err.println("Falha ao enviar a mensagem: " + causa.getMessage());
+                }
+            });
+            return;
+        }
+        try {
+            msendAsync(conteudoMensagem, null).join();
+        } catch (CompletionException ex) {
+            System.err.println("Falha ao enviar a mensagem: " + ex.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Enfileira uma mensagem para envio. O timestamp é atribuído quando ela sai da fila.
+     * Se a fila estiver cheia, bloqueia o chamador até haver espaço ou o tempo máximo de
+     * bloqueio expirar, caso em que o futuro falha com RejectedExecutionException. De dentro
+     * de um deliver não há espera: a fila cheia falha o envio na hora. Esperar pelo futuro
+     * dentro do deliver também pode travar o núcleo, que só envia depois do callback.
+     * @param conteudoMensagem o conteúdo da mensagem a ser enviada
+     * @param destinatarios membros que devem receber a mensagem, ou null para todo o grupo
+     * @return futuro concluído com a mensagem carimbada depois que ela for enviada, ou que falha
+     *         com IllegalArgumentException se o texto passar de {@link #TAMANHO_MAXIMO_TEXTO} bytes
+     */
+    public CompletableFuture<SentMessage> msendAsync(String conteudoMensagem, Collection<ClientInfo> destinatarios) {
+        if (MessageCodec.tamanhoUtf8(conteudoMensagem) > TAMANHO_MAXIMO_TEXTO) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Mensagem maior que " + TAMANHO_MAXIMO_TEXTO + " bytes."));
+        }
+        return enfileirar(new EnvioPendente(conteudoMensagem, null, destinatarios)).thenApply(SentMessage::new);
+    }
+
+    /**
+     * Reenvia a outros destinatários uma mensagem já carimbada por msendAsync, sem gerar
+     * um novo timestamp. Permite entregar a mesma mensagem aos membros em momentos diferentes.
+     * @param mensagem mensagem retornada por um envio anterior
+     * @param destinatarios membros que devem receber a mensagem, ou null para todo o grupo
+     * @return futuro concluído com a mensagem depois que ela for enviada
+     */
+    public CompletableFuture<SentMessage> reenviarAsync(SentMessage mensagem, Collection<ClientInfo> destinatarios) {
+        return enfileirar(new EnvioPendente(null, mensagem.mensagem(), destinatarios)).thenApply(enviada -> mensagem);
+    }
+
+    /**
+     * Retorna uma cópia da lista de membros conhecidos do grupo.
+     * @return membros do grupo, incluindo o próprio cliente
+     */
+    public List<ClientInfo> getClientes() {
+        return new ArrayList<>(this.retrato.clientes());
+    }
+
+    /**
+     * Retorna o estágio de entrega, com a profundidade e o atraso dos callbacks do cliente.
+     * @return estágio de entrega deste nó
+     */
+    DeliveryDispatcher getEntrega() {
+        return this.entrega;
+    }
+
+    /**
+     * Retorna as informações do próprio cliente.
+     * @return informações do cliente local
+     */
+    public ClientInfo getClientInfo() {
+        return this.client;
+    }
+
+    /**
+     * Coloca um envio na fila do núcleo, aplicando contrapressão quando não há vagas.
+     * @param envio envio a ser enfileirado
+     * @return futuro do envio
+     */
+    private CompletableFuture<Message> enfileirar(EnvioPendente envio) {
+        if (encerrado) {
+            envio.futuro.completeExceptionally(new IllegalStateException("Middleware encerrado."));
+            return envio.futuro;
+        }
+        try {
+            // Dentro de um deliver, esperar por vaga pode travar o núcleo, que esvazia a fila
+            long espera = DeliveryDispatcher.emCallback() ? 0 : tempoMaximoBloqueioMs;
+            if (!vagasEnvio.tryAcquire(espera, TimeUnit.MILLISECONDS)) {
+                envio.futuro.completeExceptionally(new RejectedExecutionException("Fila de envio cheia."));
+                return envio.futuro;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            envio.futuro.completeExceptionally(ex);
+            return envio.futuro;
+        }
+        synchronized (travaEnvio) {
+            if (encerrado) {
+                vagasEnvio.release();
+                envio.futuro.completeExceptionally(new IllegalStateException("Middleware encerrado."));
+                return envio.futuro;
+            }
+            filaEnvio.oferecer(envio);
+        }
+        acordarNucleo();
+        return envio.futuro;
+    }
+
+    /**
+     * Carimba e envia um envio retirado da fila, na thread do núcleo.
+     * Mensagens novas para o grupo são acumuladas em lote enquanto houver espaço e o
+     * tempo de espera não tiver expirado; qualquer outro envio fecha o lote antes, para
+     * preservar a ordem.
+     * @param envio envio retirado da fila
+     * @param noLote envios cujas mensagens estão no lote em montagem
+     */
+    private void processarEnvio(EnvioPendente envio, List<EnvioPendente> noLote) {
+        try {
+            if (podeAgrupar(envio)) {
+                Message mensagem = carimbar(envio.texto, envio.instante);
+                int[] base = baseDiferencial(mensagem);
+                if (!agrupador.adicionar(mensagem, base)) {
+                    enviarLote(noLote);
+                    if (!agrupador.adicionar(mensagem, base)) {
+                        // Grande demais até para um lote próprio
+                        enviarParaDestinatarios(mensagem, null);
+                        entregarPropria(mensagem);
+                        envio.futuro.complete(mensagem);
+                        return;
+                    }
+                }
+                registrarEnvioGrupo(mensagem, base);
+                envio.carimbada = mensagem;
+                noLote.add(envio);
+                if (filaEnvio.vazia() && agrupador.nanosAteExpirar() == 0) {
+                    enviarLote(noLote);
+                }
+            } else {
+                enviarLote(noLote);
+                Message mensagem = envio.mensagem != null ? envio.mensagem : carimbar(envio.texto, envio.instante);
+                enviarParaDestinatarios(mensagem, envio.destinatarios);
+                if (envio.texto != null) {
+                    entregarPropria(mensagem); // Um reenvio já foi entregue no envio original
+                }
+                envio.futuro.complete(mensagem);
+            }
+        } catch (RuntimeException ex) {
+            envio.futuro.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Verifica se o envio é uma mensagem nova para o grupo inteiro, que pode entrar em um lote.
+     * @param envio envio retirado da fila
+     * @return true se o envio pode ser agrupado
+     */
+    private boolean podeAgrupar(EnvioPendente envio) {
+        return agrupador != null && envio.texto != null && envio.destinatarios == null
+                && this.envioMulticast && !this.serializacaoJava;
+    }
+
+    /**
+     * Envia o lote em montagem, se houver, e conclui os futuros das mensagens nele.
+     * @param noLote envios cujas mensagens estão no lote; a lista é esvaziada
+     */
+    private void enviarLote(List<EnvioPendente> noLote) {
+        if (agrupador == null || agrupador.vazio()) {
+            return;
+        }
+        try {
+            registrarAnuncio(); // Cada registro do lote leva a linha local
+            enviarDatagrama(agrupador.finalizar(), true, this.multicast, this.porta);
+        } catch (Exception ex) {
+            this.metricas.falhasEnvio.increment();
+            System.err.println("Falha ao enviar o lote via multicast!");
+            ex.printStackTrace();
+            // As mensagens já estão carimbadas e no buffer: o próximo heartbeat anuncia as
+            // sequências e os membros as recuperam por NACK, então os envios ainda se concluem
+            anteciparAnuncio();
+        }
+        for (EnvioPendente envio : noLote) {
+            entregarPropria(envio.carimbada);
+            envio.futuro.complete(envio.carimbada);
+        }
+        noLote.clear();
+    }
+
+    /**
+     * Cria uma nova mensagem com o timestamp atual e incrementa o relógio do cliente.
+     * @param conteudoMensagem o conteúdo da mensagem
+     * @param instante instante em que o envio foi pedido, em nanossegundos
+     * @return mensagem pronta para envio
+     */
+    private Message carimbar(String conteudoMensagem, long instante) {
+        if (!this.MCi.contem(this.client.getID())) {
+            throw new IllegalStateException("O cliente ainda não foi aceito no grupo.");
+        }
+        // Cria um novo objeto Message com o timestamp atual; a cor e o nome são aplicados na entrega
+        Message mensagem = new Message(MCi.copiarLinha(this.client.getID()), conteudoMensagem, this.client, "msg");
+        mensagem.setLocalTime(instante);
+        // Guarda a mensagem desde já, para atender a pedidos de retransmissão mesmo sem recebê-la
+        // de volta ou se o envio falhar. É o último passo que pode recusá-la: só depois dele a
+        // sequência é consumida, para que uma falha aqui não deixe uma lacuna sem reparo
+        this.buffer.adicionar(mensagem);
+        this.metricas.enviadas.increment();
+        // Incrementa o timestamp do cliente atual
+        this.MCi.incrementar(this.client.getID(), this.client.getID());
+        this.reconstrutor.registrar(this.client.getID(), mensagem.timestamp());
+        gravarNoLog(mensagem);
+        return mensagem;
+    }
+
+    /**
+     * Escolhe o vetor-base do timestamp diferencial de uma mensagem para o grupo. A diferença só
+     * é possível se a mensagem anterior deste nó também foi para o grupo, e o vetor completo é
+     * reenviado periodicamente para limitar o tempo que um receptor fica sem poder reconstruí-la.
+     * @param mensagem mensagem a ser enviada ao grupo
+     * @return vetor da mensagem anterior, ou null para enviar o timestamp completo
+     */
+    private int[] baseDiferencial(Message mensagem) {
+        if (!"msg".equals(mensagem.command()) || this.serializacaoJava || ultimoVetorGrupo == null
+                || enviadasDesdeRessincronizacao >= MENSAGENS_ENTRE_RESSINCRONIZACOES) {
+            return null;
+        }
+        int local = mensagem.cliente().getID();
+        return ultimoVetorGrupo[local] == mensagem.timestamp()[local] - 1 ? ultimoVetorGrupo : null;
+    }
+
+    /**
+     * Registra o vetor de uma mensagem enviada ao grupo como base da próxima.
+     * @param mensagem mensagem enviada
+     * @param base vetor-base usado no envio, ou null se foi com o timestamp completo
+     */
+    private void registrarEnvioGrupo(Message mensagem, int[] base) {
+        if (!"msg".equals(mensagem.command())) {
+            return;
+        }
+        ultimoVetorGrupo = mensagem.timestamp();
+        enviadasDesdeRessincronizacao = base == null ? 0 : enviadasDesdeRessincronizacao + 1;
+    }
+
+    /**
+     * Envia uma mensagem ao grupo inteiro ou apenas aos destinatários informados.
+     * @param mensagem mensagem a ser enviada
+     * @param destinatarios membros que devem receber a mensagem, ou null para todo o grupo
+     */
+    private void enviarParaDestinatarios(Message mensagem, Collection<ClientInfo> destinatarios) {
+        if (destinatarios == null) {
+            // Toda mensagem para o grupo leva a linha local, seja no timestamp ou no heartbeat
+            registrarAnuncio();
+            if (this.envioMulticast) {
+                // Um único datagrama para o grupo, independente do número de membros
+                int[] base = baseDiferencial(mensagem);
+                enviarMensagem(mensagem, base, true, this.multicast, this.porta);
+                registrarEnvioGrupo(mensagem, base);
+            } else {
+                // Envia a mensagem para todos os clientes
+                enviarMensagem(mensagem, this.clientes);
+            }
+        } else {
+            // Envio seletivo via unicast
+            enviarMensagem(mensagem, destinatarios);
+        }
     }
 }
-}
\ No newline at end of file
@@ -0,0 +1,125 @@
+import java.util.*;
+
+/**
+ * Reconstrói os timestamps diferenciais das mensagens "msg" recebidas pelo grupo.
+ *
+ * Uma mensagem diferencial traz apenas a sua sequência e as entradas do vetor que mudaram desde
+ * a mensagem anterior do mesmo remetente, então o vetor completo só pode ser montado a partir do
+ * vetor da sequência anterior. Para cada remetente é mantido o último vetor conhecido; mensagens
+ * que chegam antes da anterior ficam aguardando e são reconstruídas em cadeia assim que ela
+ * chegar, seja pelo grupo, por um reparo (sempre com o vetor completo) ou por uma ressincronização.
+ */
+class TimestampReconstructor {
+
+    // Máximo de mensagens diferenciais aguardando a anterior, por remetente
+    private static final int MAXIMO_AGUARDANDO = 1024;
+
+    // Último vetor completo conhecido de cada remetente, indexado pelo ID
+    private int[][] bases = new int[4][];
+
+    // Mensagens diferenciais aguardando a anterior, por remetente e sequência
+    private final Map<Integer, TreeMap<Integer, Message>> aguardando = new HashMap<>();
+
+    /**
+     * Registra o vetor completo de uma mensagem de um remetente, como base para as seguintes.
+     * Vetores de sequências anteriores à base atual são ignorados.
+     * @param remetente ID do remetente
+     * @param vetor vetor completo da mensagem, indexado por ID
+     */
+    public synchronized void registrar(int remetente, int[] vetor) {
+        if (remetente >= bases.length) {
+            bases = Arrays.copyOf(bases, Math.max(remetente + 1, bases.length * 2));
+        }
+        int[] base = bases[remetente];
+        if (base == null || vetor[remetente] > base[remetente]) {
+            bases[remetente] = vetor;
+            TreeMap<Integer, Message> fila = aguardando.get(remetente);
+            if (fila != null) {
+                fila.headMap(vetor[remetente], true).clear(); // Já não podem ser reconstruídas por aqui
+            }
+        }
+    }
+
+    /**
+     * Recebe uma mensagem e retorna, em ordem de sequência, as que passaram a ter o vetor completo.
+     * Mensagens completas passam direto e podem liberar diferenciais que aguardavam por elas.
+     * @param mensagem mensagem "msg" recebida
+     * @return mensagens prontas, com o timestamp completo; vazia se a mensagem ficou aguardando
+     */
+    public synchronized List<Message> receber(Message mensagem) {
+        int remetente = mensagem.cliente().getID();
+        List<Message> prontas = new ArrayList<>(1);
+        if (mensagem.timestamp() != null) {
+            registrar(remetente, mensagem.timestamp());
+            prontas.add(mensagem);
+        } else {
+            int sequencia = mensagem.getDelta()[0];
+            int[] base = remetente < bases.length ? bases[remetente] : null;
+            if (base != null && sequencia <= base[remetente]) {
+                return prontas; // Cópia de uma mensagem já reconstruída
+            }
+            if (base == null || sequencia != base[remetente] + 1) {
+                TreeMap<Integer, Message> fila = aguardando.computeIfAbsent(remetente, k -> new TreeMap<>());
+                if (fila.size() < MAXIMO_AGUARDANDO) {
+                    fila.put(sequencia, mensagem);
+                }
+                return prontas;
+            }
+            prontas.add(reconstruir(mensagem, base));
+        }
+
+        // Reconstrói em cadeia as que aguardavam a sequência que acabou de chegar
+        TreeMap<Integer, Message> fila = aguardando.get(remetente);
+        while (fila != null && !fila.isEmpty()) {
+            int[] base = bases[remetente];
+            Message seguinte = fila.remove(base[remetente] + 1);
+            if (seguinte == null) {
+                break;
+            }
+            prontas.add(reconstruir(seguinte, base));
+        }
+        if (fila != null && fila.isEmpty()) {
+            aguardando.remove(remetente);
+        }
+        return prontas;
+    }
+
+    /**
+     * Retorna os vetores-base conhecidos, para a transferência de estado a um novo membro.
+     * @return cópia das bases indexadas pelo ID do remetente, com null para remetentes sem base
+     */
+    public synchronized int[][] bases() {
+        return bases.clone();
+    }
+
+    /**
+     * Esquece tudo o que se sabe de um remetente que saiu do grupo.
+     * @param remetente ID do remetente
+     */
+    public synchronized void descartarRemetente(int remetente) {
+        if (remetente < bases.length) {
+            bases[remetente] = null;
+        }
+        aguardando.remove(remetente);
+    }
+
+    /**
+     * Aplica a diferença da mensagem sobre o vetor-base e o registra como a nova base.
+     */
+    private Message reconstruir(Message mensagem, int[] base) {
+        int remetente = mensagem.cliente().getID();
+        int[] diferenca = mensagem.getDelta();
+        int tamanho = Math.max(base.length, remetente + 1);
+        for (int i = 1; i + 1 < diferenca.length; i += 2) {
+            tamanho = Math.max(tamanho, diferenca[i] + 1);
+        }
+        int[] vetor = Arrays.copyOf(base, tamanho);
+        vetor[remetente] = diferenca[0];
+        for (int i = 1; i + 1 < diferenca.length; i += 2) {
+            vetor[diferenca[i]] = diferenca[i + 1];
+        }
+        mensagem.setTimestamp(vetor);
+        bases[remetente] = vetor;
+        return mensagem;
+    }
+}
@@ -0,0 +1,464 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hospedeiro de vários grupos independentes (tópicos), como salas de chat, em um único nó.
+ *
+ * Cada tópico é um StableMulticast criado com {@link #topico}, com a sua própria visão, matriz
+ * de relógios, buffer e fila causal. Os tópicos dividem:
+ * - um único transporte, aberto pelo hospedeiro: o tópico vai no cabeçalho de cada datagrama,
+ *   e a recepção o usa para escolher o grupo, descartando os de tópicos não hospedados aqui;
+ * - uma única thread de núcleo, que executa as rodadas dos tópicos com trabalho, um por vez,
+ *   e acorda os que têm um prazo (publicação do retrato ou lote aberto) quando ele vence;
+ * - um único temporizador e um pool de entrega, em que as entregas de cada tópico são
+ *   executadas em série, na ordem causal; um tópico com as entregas acumuladas pausa a sua
+ *   recepção em vez de esperar na thread do núcleo;
+ * - os buffers de envio, já que todos os envios saem da thread do núcleo.
+ * Assim, uma sala a mais custa só o seu estado, sem sockets nem threads.
+ *
+ * Os IDs dos membros são atribuídos por tópico: o mesmo nó pode ter IDs diferentes em cada
+ * sala. Datagramas sem tópico (formato antigo ou serialização Java) pertencem ao tópico 0.
+ */
+class TopicHost implements Closeable {
+
+    // Slabs do buffer de cada tópico: menores que os de um nó avulso, mas ainda comportam a maior mensagem
+    static final int TAMANHO_SLAB = 128 * 1024;
+
+    private static final int TAMANHO_MAXIMO_DATAGRAMA = 64 * 1024;
+
+    // Rodadas de tópicos executadas antes de conferir os prazos, para que um tópico ocupado
+    // não atrase os que esperam por um prazo vencido
+    private static final int RODADAS_POR_VOLTA = 256;
+
+    // Maior espera do núcleo sem nenhum prazo pendente
+    private static final long ESPERA_MAXIMA_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // Threads do pool de entrega, divididas por todos os tópicos
+    private static final int THREADS_ENTREGA = 2;
+
+    // Máximo de entregas de um tópico executadas antes de ceder a thread do pool a outro
+    private static final int ENTREGAS_POR_VEZ = 256;
+
+    private final String endereco;
+    private final int porta;
+    private final String ipGrupo;
+    private final int portaGrupo;
+    private final Transport transporte;
+
+    // Tópicos indexados pelo ID. O array nunca é alterado depois de publicado: é substituído
+    // por uma cópia, e as threads de recepção o leem sem sincronização
+    private volatile Topico[] topicos = new Topico[0];
+
+    // Núcleo compartilhado: tópicos com trabalho, tarefas do próprio hospedeiro e tópicos com prazo
+    private final MpscQueue<Topico> prontos = new MpscQueue<>();
+    private final MpscQueue<Runnable> tarefas = new MpscQueue<>();
+    private final ArrayList<Topico> comPrazo = new ArrayList<>();
+    private final Thread nucleo;
+    private volatile boolean dormindo;
+    private volatile boolean encerrado;
+
+    private final ScheduledExecutorService temporizador;
+    private final ExecutorService poolEntrega;
+    private final ByteBuffer bufferEnvio;
+    private final ByteBuffer bufferFragmento;
+
+    /**
+     * Tópico hospedado: é o transporte do StableMulticast do tópico, que envia pelo transporte
+     * compartilhado, e guarda o seu agendamento na thread do núcleo.
+     */
+    final class Topico implements Transport {
+        final int id;
+        final StableMulticast no;
+        final Executor entregas = new ExecucaoEmSerie(poolEntrega);
+        private final AtomicBoolean agendado = new AtomicBoolean();
+        private volatile Receptor receptor;
+        private volatile boolean ativo;
+        private volatile boolean removido;
+
+        // Usados só pela thread do núcleo
+        private long prazo = Long.MAX_VALUE;
+        private boolean naListaDePrazos;
+        private boolean encerrado;
+
+        Topico(int id, StableMulticast no) {
+            this.id = id;
+            this.no = no;
+        }
+
+        /**
+         * Liga a recepção do tópico; o transporte compartilhado já está aberto nos mesmos endereços.
+         */
+        @Override
+        public void abrir(InetAddress grupo, int portaGrupo, InetAddress local, int portaLocal, Receptor receptor) {
+            this.receptor = receptor;
+        }
+
+        @Override
+        public void enviarParaGrupo(ByteBuffer dados) throws IOException {
+            transporte.enviarParaGrupo(dados);
+        }
+
+        @Override
+        public void enviar(ByteBuffer dados, InetAddress endereco, int porta) throws IOException {
+            transporte.enviar(dados, endereco, porta);
+        }
+
+        @Override
+        public boolean usaMemoriaNativa() {
+            return transporte.usaMemoriaNativa();
+        }
+
+        /**
+         * Passa a executar as rodadas do tópico na thread do núcleo, começando pelas tarefas que
+         * ele já tiver acumulado.
+         */
+        void iniciar() {
+            ativo = true;
+            acordar();
+        }
+
+        /**
+         * Coloca o tópico na fila da thread do núcleo, se ele ainda não estiver nela.
+         * Pode ser chamado de qualquer thread e nunca bloqueia.
+         */
+        void acordar() {
+            if (ativo && !removido && agendado.compareAndSet(false, true)) {
+                prontos.oferecer(this);
+                acordarNucleo();
+            }
+        }
+
+        /**
+         * Faz a última rodada do tópico na thread do núcleo, que envia o lote aberto e rejeita
+         * os envios restantes; depois disso o tópico não é mais executado.
+         * @return futuro completado quando a rodada final terminar
+         */
+        CompletableFuture<Void> encerrar() {
+            CompletableFuture<Void> feito = new CompletableFuture<>();
+            executarNoNucleo(() -> {
+                if (!encerrado) {
+                    encerrado = true;
+                    no.encerrarNucleo();
+                }
+                feito.complete(null);
+            });
+            return feito;
+        }
+
+        /**
+         * Retira o tópico do hospedeiro; os datagramas dele passam a ser descartados.
+         */
+        @Override
+        public void close() {
+            remover(this);
+        }
+    }
+
+    /**
+     * Executa as tarefas de um tópico em série, na ordem de chegada, usando as threads de um
+     * pool compartilhado. Assim as entregas de uma sala mantêm a ordem causal sem uma thread própria.
+     */
+    private static final class ExecucaoEmSerie implements Executor {
+        private final Executor pool;
+        private final ArrayDeque<Runnable> fila = new ArrayDeque<>();
+        private boolean executando;
+
+        ExecucaoEmSerie(Executor pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void execute(Runnable tarefa) {
+            synchronized (this) {
+                fila.add(tarefa);
+                if (executando) {
+                    return;
+                }
+                executando = true;
+            }
+            pool.execute(this::drenar);
+        }
+
+        private void drenar() {
+            for (int i = 0; i < ENTREGAS_POR_VEZ; i++) {
+                Runnable tarefa;
+                synchronized (this) {
+                    tarefa = fila.poll();
+                    if (tarefa == null) {
+                        executando = false;
+                        return;
+                    }
+                }
+                tarefa.run();
+            }
+            pool.execute(this::drenar); // Cede a thread aos outros tópicos e continua depois
+        }
+    }
+
+    /**
+     * Cria o hospedeiro com sockets no grupo padrão.
+     * @param endereco endereço IP local para comunicação unicast
+     * @param porta porta local para comunicação unicast
+     * @throws IOException se o transporte não puder ser aberto
+     */
+    public TopicHost(String endereco, int porta) throws IOException {
+        this(endereco, porta, "224.0.5.1", 1236, new SocketTransport());
+    }
+
+    /**
+     * Cria o hospedeiro, abre o transporte e inicia a thread do núcleo.
+     * @param endereco endereço IP local para comunicação unicast
+     * @param porta porta local para comunicação unicast
+     * @param ipGrupo endereço do grupo multicast
+     * @param portaGrupo porta do grupo multicast
+     * @param transporte transporte ainda não aberto, por exemplo um {@link ChannelTransport}
+     *                   em um laço de eventos ou um de uma {@link SimulatedNetwork}
+     * @throws IOException se o transporte não puder ser aberto
+     */
+    public TopicHost(String endereco, int porta, String ipGrupo, int portaGrupo, Transport transporte) throws IOException {
+        this.endereco = endereco;
+        this.porta = porta;
+        this.ipGrupo = ipGrupo;
+        this.portaGrupo = portaGrupo;
+        this.transporte = transporte;
+        boolean memoriaNativa = transporte.usaMemoriaNativa();
+        this.bufferEnvio = memoriaNativa ? ByteBuffer.allocateDirect(TAMANHO_MAXIMO_DATAGRAMA) : ByteBuffer.allocate(TAMANHO_MAXIMO_DATAGRAMA);
+        this.bufferFragmento = memoriaNativa ? ByteBuffer.allocateDirect(MessageCodec.TAMANHO_MTU) : ByteBuffer.allocate(MessageCodec.TAMANHO_MTU);
+
+        transporte.abrir(InetAddress.getByName(ipGrupo), portaGrupo, InetAddress.getByName(endereco), porta, this::receber);
+
+        this.temporizador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "temporizador-" + porta);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poolEntrega = Executors.newFixedThreadPool(THREADS_ENTREGA, tarefa -> {
+            Thread thread = new Thread(tarefa, "entrega-" + porta);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.nucleo = new Thread(this::executar, "nucleo-" + porta);
+        this.nucleo.setDaemon(true);
+        this.nucleo.start();
+    }
+
+    /**
+     * Cria a configuração de um tópico deste hospedeiro, com os endereços já definidos.
+     * O tópico entra no grupo quando a configuração for construída.
+     * @param id ID do tópico, entre 0 e {@link MessageCodec#MAXIMO_TOPICO}, igual em todos os nós da sala
+     * @return Builder do StableMulticast do tópico
+     */
+    public StableMulticast.Builder topico(int id) {
+        return StableMulticast.builder().hospedeiro(this, id);
+    }
+
+    /**
+     * Sai de todos os tópicos e encerra a thread do núcleo, o temporizador, o pool de entrega
+     * e o transporte.
+     */
+    @Override
+    public void close() {
+        if (encerrado) {
+            return;
+        }
+        for (Topico topico : topicos) {
+            if (topico != null) {
+                topico.no.close();
+            }
+        }
+        encerrado = true;
+        LockSupport.unpark(nucleo);
+        try {
+            nucleo.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        temporizador.shutdownNow();
+        poolEntrega.shutdown();
+        try {
+            transporte.close();
+        } catch (IOException ex) {
+            System.err.println("Falha ao fechar o transporte!");
+            ex.printStackTrace();
+        }
+    }
+
+    String endereco() {
+        return endereco;
+    }
+
+    int porta() {
+        return porta;
+    }
+
+    String ipGrupo() {
+        return ipGrupo;
+    }
+
+    int portaGrupo() {
+        return portaGrupo;
+    }
+
+    ScheduledExecutorService temporizador() {
+        return temporizador;
+    }
+
+    ByteBuffer bufferEnvio() {
+        return bufferEnvio;
+    }
+
+    ByteBuffer bufferFragmento() {
+        return bufferFragmento;
+    }
+
+    /**
+     * Registra o StableMulticast de um tópico. Chamado pelo seu construtor.
+     * @param id ID do tópico
+     * @param no middleware do tópico
+     * @return transporte do tópico
+     * @throws IllegalArgumentException se o ID for inválido ou já estiver em uso neste hospedeiro
+     * @throws IllegalStateException se o hospedeiro já foi encerrado
+     */
+    synchronized Topico registrar(int id, StableMulticast no) {
+        if (encerrado) {
+            throw new IllegalStateException("Hospedeiro encerrado.");
+        }
+        if (id < 0 || id > MessageCodec.MAXIMO_TOPICO) {
+            throw new IllegalArgumentException("Tópico inválido: " + id);
+        }
+        if (id < topicos.length && topicos[id] != null) {
+            throw new IllegalArgumentException("Tópico já hospedado: " + id);
+        }
+        Topico topico = new Topico(id, no);
+        Topico[] novos = Arrays.copyOf(topicos, Math.max(topicos.length, id + 1));
+        novos[id] = topico;
+        topicos = novos;
+        return topico;
+    }
+
+    private synchronized void remover(Topico topico) {
+        topico.removido = true;
+        if (topico.id < topicos.length && topicos[topico.id] == topico) {
+            Topico[] novos = topicos.clone();
+            novos[topico.id] = null;
+            topicos = novos;
+        }
+    }
+
+    /**
+     * Recebe um datagrama do transporte compartilhado e o passa ao tópico indicado no cabeçalho.
+     */
+    private void receber(ByteBuffer dados, SocketAddress origem) {
+        int id = MessageCodec.lerTopico(dados);
+        Topico[] atuais = topicos;
+        Topico topico = id >= 0 && id < atuais.length ? atuais[id] : null;
+        Transport.Receptor receptor = topico != null ? topico.receptor : null;
+        if (receptor != null) {
+            receptor.receber(dados, origem);
+        }
+    }
+
+    private void executarNoNucleo(Runnable tarefa) {
+        tarefas.oferecer(tarefa);
+        acordarNucleo();
+    }
+
+    private void acordarNucleo() {
+        if (dormindo) {
+            LockSupport.unpark(nucleo);
+        }
+    }
+
+    /**
+     * Corpo da thread do núcleo: executa as tarefas do hospedeiro, uma rodada de cada tópico
+     * com trabalho e as dos tópicos cujo prazo venceu. Sem trabalho, dorme até ser acordado ou
+     * até o prazo mais próximo.
+     */
+    private void executar() {
+        while (!encerrado) {
+            boolean trabalhou = false;
+            Runnable tarefa;
+            while ((tarefa = tarefas.retirar()) != null) {
+                try {
+                    tarefa.run();
+                } catch (RuntimeException ex) {
+                    System.err.println("Falha ao processar uma tarefa do hospedeiro!");
+                    ex.printStackTrace();
+                }
+                trabalhou = true;
+            }
+
+            Topico topico;
+            for (int i = 0; i < RODADAS_POR_VOLTA && (topico = prontos.retirar()) != null; i++) {
+                // Liberado antes da rodada: trabalho que chegar durante ela volta a agendar o tópico
+                topico.agendado.set(false);
+                executarRodada(topico);
+                trabalhou = true;
+            }
+
+            // Tópicos com prazo; a lista é percorrida de trás para frente para remover por troca com o último
+            long agora = System.nanoTime();
+            long espera = ESPERA_MAXIMA_NANOS;
+            for (int i = comPrazo.size() - 1; i >= 0; i--) {
+                topico = comPrazo.get(i);
+                long restante = topico.prazo - agora;
+                if (topico.encerrado || topico.prazo == Long.MAX_VALUE || restante <= 0) {
+                    Topico ultimo = comPrazo.remove(comPrazo.size() - 1);
+                    if (ultimo != topico) {
+                        comPrazo.set(i, ultimo);
+                    }
+                    topico.naListaDePrazos = false;
+                    if (restante <= 0 && topico.prazo != Long.MAX_VALUE) {
+                        executarRodada(topico);
+                        trabalhou = true;
+                    }
+                } else {
+                    espera = Math.min(espera, restante);
+                }
+            }
+            if (trabalhou) {
+                continue;
+            }
+
+            dormindo = true;
+            // Confere de novo depois de anunciar que vai dormir, como no núcleo de um nó avulso
+            if (prontos.vazia() && tarefas.vazia() && !encerrado) {
+                LockSupport.parkNanos(this, espera);
+            }
+            dormindo = false;
+        }
+    }
+
+    /**
+     * Executa uma rodada do núcleo de um tópico e agenda a próxima conforme o resultado.
+     */
+    private void executarRodada(Topico topico) {
+        if (topico.encerrado) {
+            return;
+        }
+        long espera;
+        try {
+            espera = topico.no.rodadaNucleo();
+        } catch (RuntimeException ex) {
+            System.err.println("Falha ao executar o nucleo do topico " + topico.id + "!");
+            ex.printStackTrace();
+            return;
+        }
+        if (espera == 0) {
+            topico.acordar(); // Ainda há trabalho: volta ao fim da fila, depois dos outros tópicos
+        } else if (espera == Long.MAX_VALUE) {
+            topico.prazo = Long.MAX_VALUE;
+        } else {
+            topico.prazo = System.nanoTime() + espera;
+            if (!topico.naListaDePrazos) {
+                topico.naListaDePrazos = true;
+                comPrazo.add(topico);
+            }
+        }
+    }
+}
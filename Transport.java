@@ -0,0 +1,85 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+
+/**
+ * Transporte de datagramas usado pelo StableMulticast: um endereço unicast próprio e a
+ * participação em um grupo multicast. O middleware só codifica e decodifica os bytes; como eles
+ * chegam aos outros nós fica a cargo da implementação:
+ * - {@link SocketTransport}: sockets bloqueantes, com uma thread de recepção por socket;
+ * - {@link ChannelTransport}: canais não bloqueantes registrados em um {@link EventLoop};
+ * - {@link SimulatedNetwork}: rede em memória, sem sockets, com perdas e atrasos sorteados a
+ *   partir de uma semente, para rodar muitos nós na mesma JVM.
+ * Um {@link TopicHost} abre um desses transportes e o divide entre vários grupos, pelo tópico
+ * do cabeçalho dos datagramas.
+ *
+ * Os envios são feitos só pela thread do núcleo. Como no multicast IP, um datagrama para o
+ * grupo também é recebido pelo próprio remetente.
+ */
+interface Transport extends Closeable {
+
+    /**
+     * Recebe os datagramas que chegam ao transporte.
+     */
+    interface Receptor {
+        /**
+         * Processa um datagrama recebido.
+         * @param dados conteúdo do datagrama, entre a posição e o limite do buffer, válido apenas durante a chamada
+         * @param origem endereço de quem enviou
+         */
+        void receber(ByteBuffer dados, SocketAddress origem);
+    }
+
+    /**
+     * Abre o endereço unicast, entra no grupo e passa a entregar os datagramas recebidos.
+     * @param grupo endereço do grupo multicast
+     * @param portaGrupo porta do grupo multicast
+     * @param local endereço IP para comunicação unicast
+     * @param portaLocal porta para comunicação unicast
+     * @param receptor quem processa os datagramas recebidos
+     * @throws IOException se o endereço ou o grupo não puderem ser abertos
+     */
+    void abrir(InetAddress grupo, int portaGrupo, InetAddress local, int portaLocal, Receptor receptor) throws IOException;
+
+    /**
+     * Envia um datagrama para todos os membros do grupo, inclusive este.
+     * @param dados conteúdo do datagrama, entre a posição e o limite do buffer
+     * @throws IOException se o envio falhar
+     */
+    void enviarParaGrupo(ByteBuffer dados) throws IOException;
+
+    /**
+     * Envia um datagrama para um único endereço.
+     * @param dados conteúdo do datagrama, entre a posição e o limite do buffer
+     * @param endereco IP de destino
+     * @param porta porta de destino
+     * @throws IOException se o envio falhar
+     */
+    void enviar(ByteBuffer dados, InetAddress endereco, int porta) throws IOException;
+
+    /**
+     * Indica se os buffers de envio devem ficar em memória nativa, para que o transporte os
+     * passe ao sistema sem cópia. Os sockets exigem um array de apoio.
+     * @return true para buffers diretos
+     */
+    default boolean usaMemoriaNativa() {
+        return false;
+    }
+
+    /**
+     * Procura uma interface de rede ativa, que não seja de loopback e suporte multicast.
+     * @return interface usada no grupo multicast
+     * @throws IOException se nenhuma interface adequada for encontrada
+     */
+    static NetworkInterface interfaceMulticast() throws IOException {
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces.hasMoreElements()) {
+            NetworkInterface iface = interfaces.nextElement();
+            if (iface.supportsMulticast() && !iface.isLoopback() && iface.isUp()) {
+                return iface;
+            }
+        }
+        throw new SocketException("Nenhuma interface de rede adequada foi encontrada!");
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Log de escrita antecipada do estado do nó, em segmentos mapeados em memória.
+ *
+ * Cada registro é uma mensagem no formato do {@link MessageCodec}, escrita pelo codec direto na
+ * região mapeada do segmento atual, sem cópia intermediária:
+ *   segmento -> [magia:4][versão:4][última escrita:8][registro...][zeros até o fim]
+ *   registro -> [tamanho:4][mensagem codificada]
+ * O tamanho é gravado por último, então um registro interrompido por uma queda do processo
+ * fica com tamanho zero e marca o fim do segmento na leitura. Os arquivos são criados com o
+ * tamanho do segmento e preenchidos com zeros pelo sistema.
+ *
+ * Um segmento fica cheio quando o próximo registro não cabe nele; quem usa o log recebe então
+ * um aviso para escrever um ponto de controle no início do novo segmento. Os segmentos antigos
+ * são apagados quando todas as mensagens "msg" que eles contêm se tornam estáveis, já que o
+ * estado dos relógios neles foi superado pelo ponto de controle dos seguintes.
+ *
+ * As escritas vão para o cache de páginas do sistema: o log sobrevive à queda do processo, mas
+ * só é forçado para o disco ao fechar. Não é thread-safe: deve ser usado apenas pela thread do núcleo.
+ */
+class WriteAheadLog implements Closeable {
+
+    private static final int MAGIA = 0x534D574C; // "SMWL"
+    private static final int VERSAO = 1;
+    private static final int TAMANHO_CABECALHO = 16;
+    private static final int POSICAO_ULTIMA_ESCRITA = 8;
+    private static final String PREFIXO = "segmento-";
+    private static final String SUFIXO = ".log";
+
+    private final Path diretorio;
+    private final int tamanhoSegmento;
+    private final MessageCodec codec;
+
+    // Segmentos do mais antigo ao mais novo; o último é o atual, se o log já foi iniciado
+    private final ArrayDeque<Segmento> segmentos = new ArrayDeque<>();
+    private Segmento atual;
+    private long proximoIndice;
+    private Runnable aoIniciarSegmento;
+    private boolean iniciandoSegmento;
+
+    /**
+     * Segmento do log, com a sequência seguinte à maior mensagem de cada remetente gravada nele.
+     */
+    private static final class Segmento {
+        final Path arquivo;
+        int[] limites = new int[0];
+        MappedByteBuffer dados; // Mapeamento para escrita, só no segmento atual
+
+        Segmento(Path arquivo) {
+            this.arquivo = arquivo;
+        }
+
+        void registrar(int remetente, int sequencia) {
+            if (remetente < 0) {
+                return;
+            }
+            if (remetente >= limites.length) {
+                limites = Arrays.copyOf(limites, Math.max(remetente + 1, limites.length * 2));
+            }
+            limites[remetente] = Math.max(limites[remetente], sequencia + 1);
+        }
+
+        /**
+         * Verifica se todas as mensagens do segmento estão abaixo da marca de estabilidade do
+         * seu remetente. As de remetentes que saíram do grupo já foram descartadas.
+         */
+        boolean estavel(ClockMatrix relogios) {
+            for (int remetente = 0; remetente < limites.length; remetente++) {
+                if (limites[remetente] > 0 && relogios.contem(remetente)
+                        && relogios.minimoColuna(remetente) < limites[remetente]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Abre o log em um diretório, criando-o se necessário. Os segmentos já existentes ficam
+     * disponíveis para {@link #reproduzir}; nada é escrito até {@link #iniciar}.
+     * @param diretorio diretório dos segmentos
+     * @param tamanhoSegmento tamanho de cada segmento, em bytes
+     * @param codec codec usado para escrever e ler as mensagens
+     * @throws IOException se o diretório não puder ser criado ou listado
+     */
+    public WriteAheadLog(Path diretorio, int tamanhoSegmento, MessageCodec codec) throws IOException {
+        this.diretorio = diretorio;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.codec = codec;
+        Files.createDirectories(diretorio);
+
+        TreeMap<Long, Path> existentes = new TreeMap<>();
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(diretorio, PREFIXO + "*" + SUFIXO)) {
+            for (Path arquivo : arquivos) {
+                String nome = arquivo.getFileName().toString();
+                try {
+                    existentes.put(Long.parseLong(nome.substring(PREFIXO.length(), nome.length() - SUFIXO.length())), arquivo);
+                } catch (NumberFormatException ex) {
+                    // Arquivo com o mesmo padrão de nome, mas que não é um segmento
+                }
+            }
+        }
+        for (Path arquivo : existentes.values()) {
+            segmentos.add(new Segmento(arquivo));
+        }
+        this.proximoIndice = existentes.isEmpty() ? 0 : existentes.lastKey() + 1;
+    }
+
+    /**
+     * Retorna o instante da última escrita no segmento mais novo encontrado ao abrir o log.
+     * @return instante em milissegundos de System.currentTimeMillis, ou 0 se não há segmentos
+     * @throws IOException se o segmento não puder ser lido
+     */
+    public long ultimaEscrita() throws IOException {
+        if (segmentos.isEmpty()) {
+            return 0;
+        }
+        try (FileChannel canal = FileChannel.open(segmentos.getLast().arquivo, StandardOpenOption.READ)) {
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+            while (cabecalho.hasRemaining() && canal.read(cabecalho) >= 0) {
+                // Lê o cabeçalho inteiro
+            }
+            cabecalho.flip();
+            if (cabecalho.remaining() < TAMANHO_CABECALHO || cabecalho.getInt(0) != MAGIA) {
+                return 0;
+            }
+            return cabecalho.getLong(POSICAO_ULTIMA_ESCRITA);
+        }
+    }
+
+    /**
+     * Lê os registros de todos os segmentos existentes, do mais antigo ao mais novo, e os
+     * passa em ordem ao leitor. Cada mensagem é decodificada depois que o leitor tratou a
+     * anterior, então o codec já conhece os membros que os registros anteriores instalaram.
+     * Um segmento corrompido é lido só até o último registro válido.
+     * @param leitor quem aplica cada mensagem ao estado do nó
+     * @throws IOException se algum segmento não puder ser lido
+     */
+    public void reproduzir(Consumer<Message> leitor) throws IOException {
+        for (Segmento segmento : segmentos) {
+            ByteBuffer dados;
+            try (FileChannel canal = FileChannel.open(segmento.arquivo, StandardOpenOption.READ)) {
+                dados = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            }
+            if (dados.limit() < TAMANHO_CABECALHO || dados.getInt(0) != MAGIA || dados.getInt(4) != VERSAO) {
+                System.err.println("Falha ao ler o segmento " + segmento.arquivo + ": cabeçalho inválido.");
+                continue;
+            }
+            dados.position(TAMANHO_CABECALHO);
+            while (dados.remaining() >= 4) {
+                int tamanho = dados.getInt();
+                if (tamanho <= 0 || tamanho > dados.remaining()) {
+                    break; // Fim do segmento ou registro interrompido
+                }
+                ByteBuffer registro = dados.slice();
+                registro.limit(tamanho);
+                dados.position(dados.position() + tamanho);
+                Message mensagem;
+                try {
+                    mensagem = codec.decodificar(registro);
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("Falha na leitura do segmento " + segmento.arquivo + ": " + ex.getMessage());
+                    break;
+                }
+                if ("msg".equals(mensagem.command()) && mensagem.timestamp() != null) {
+                    int remetente = mensagem.cliente().getID();
+                    segmento.registrar(remetente, mensagem.timestamp()[remetente]);
+                }
+                leitor.accept(mensagem);
+            }
+        }
+    }
+
+    /**
+     * Apaga todos os segmentos existentes, quando o estado gravado não deve ser recuperado.
+     * O cabeçalho do segmento atual é invalidado antes, para que ele não seja recuperado
+     * mesmo que algum arquivo não possa ser apagado.
+     * @throws IOException se algum arquivo não puder ser apagado
+     */
+    public void descartarTudo() throws IOException {
+        if (atual != null) {
+            atual.dados.putInt(0, 0);
+            atual.dados.force();
+        }
+        for (Segmento segmento : segmentos) {
+            Files.deleteIfExists(segmento.arquivo);
+        }
+        segmentos.clear();
+        atual = null;
+    }
+
+    /**
+     * Abre um novo segmento para as escritas seguintes.
+     * @param aoIniciarSegmento chamado no início de cada segmento seguinte, para gravar um ponto de controle
+     * @throws IOException se o segmento não puder ser criado
+     */
+    public void iniciar(Runnable aoIniciarSegmento) throws IOException {
+        this.aoIniciarSegmento = aoIniciarSegmento;
+        abrirSegmento();
+    }
+
+    /**
+     * Grava uma mensagem no segmento atual, codificando-a direto na região mapeada. Se ela não
+     * couber, o segmento é fechado, o seguinte recebe o ponto de controle e a mensagem é gravada nele.
+     * Se a codificação falhar no meio, o segmento volta ao fim do último registro válido.
+     * @param mensagem mensagem a ser gravada
+     */
+    public void anexar(Message mensagem) {
+        if (atual == null) {
+            return;
+        }
+        MappedByteBuffer dados = atual.dados;
+        int inicio = dados.position();
+        try {
+            dados.position(inicio + 4);
+            codec.codificar(mensagem, dados);
+        } catch (RuntimeException ex) {
+            // Zera o que a codificação interrompida escreveu: um registro gravado depois, mais
+            // curto, deixaria esses bytes onde a leitura espera o tamanho do registro seguinte
+            for (int posicao = dados.position() - 1; posicao >= inicio; posicao--) {
+                dados.put(posicao, (byte) 0);
+            }
+            dados.position(inicio);
+            if (ex instanceof BufferOverflowException && !iniciandoSegmento && inicio > TAMANHO_CABECALHO) {
+                trocarSegmento();
+                anexar(mensagem);
+                return;
+            }
+            System.err.println("Falha ao gravar a mensagem no log: " + (ex instanceof BufferOverflowException
+                    ? "maior que o segmento." : ex.getMessage()));
+            return;
+        }
+        dados.putInt(inicio, dados.position() - inicio - 4);
+        dados.putLong(POSICAO_ULTIMA_ESCRITA, System.currentTimeMillis());
+        if ("msg".equals(mensagem.command())) {
+            int remetente = mensagem.cliente().getID();
+            atual.registrar(remetente, mensagem.timestamp()[remetente]);
+        }
+    }
+
+    /**
+     * Apaga, a partir do mais antigo, os segmentos cujas mensagens já são todas estáveis.
+     * O segmento atual nunca é apagado.
+     * @param relogios matriz de relógios do grupo
+     */
+    public void descartarEstaveis(ClockMatrix relogios) {
+        while (segmentos.size() > 1 && segmentos.getFirst().estavel(relogios)) {
+            Segmento antigo = segmentos.removeFirst();
+            try {
+                Files.deleteIfExists(antigo.arquivo);
+            } catch (IOException ex) {
+                System.err.println("Falha ao apagar o segmento " + antigo.arquivo + "!");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Retorna quantos segmentos o log mantém, incluindo o atual.
+     * @return número de segmentos
+     */
+    public int segmentos() {
+        return segmentos.size();
+    }
+
+    /**
+     * Força o segmento atual para o disco. Os arquivos continuam no diretório para a próxima recuperação.
+     */
+    @Override
+    public void close() {
+        if (atual != null) {
+            atual.dados.force();
+            atual = null;
+        }
+    }
+
+    /**
+     * Fecha o segmento atual e abre o seguinte, gravando nele o ponto de controle.
+     */
+    private void trocarSegmento() {
+        try {
+            abrirSegmento();
+        } catch (IOException ex) {
+            System.err.println("Falha ao criar um novo segmento do log!");
+            ex.printStackTrace();
+        }
+    }
+
+    private void abrirSegmento() throws IOException {
+        Path arquivo = diretorio.resolve(String.format("%s%010d%s", PREFIXO, proximoIndice++, SUFIXO));
+        Segmento segmento = new Segmento(arquivo);
+        // O mapeamento continua válido depois de o canal ser fechado
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segmento.dados = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanhoSegmento);
+        }
+        segmento.dados.putInt(MAGIA);
+        segmento.dados.putInt(VERSAO);
+        segmento.dados.putLong(System.currentTimeMillis());
+        atual = segmento;
+        segmentos.add(segmento);
+
+        if (aoIniciarSegmento != null) {
+            iniciandoSegmento = true;
+            try {
+                aoIniciarSegmento.run();
+            } finally {
+                iniciandoSegmento = false;
+            }
+        }
+    }
+}
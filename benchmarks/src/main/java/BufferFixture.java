@@ -0,0 +1,55 @@
+import java.net.InetAddress;
+
+import benchmarks.BufferTarget;
+
+/**
+ * Alvo do StabilityBufferBenchmark: um buffer com as mensagens na área fora do heap, em que a
+ * marca de estabilidade de cada remetente fica sempre a uma distância fixa da última mensagem dele.
+ */
+public class BufferFixture implements BufferTarget {
+
+    private ClockMatrix relogios;
+    private StabilityBuffer buffer;
+    private Message[] mensagens; // Uma por remetente, com o timestamp reaproveitado
+    private int membros;
+    private int porRemetente;
+    private int proximo;
+
+    @Override
+    public void preparar(int membros, int profundidade) {
+        this.membros = membros;
+        this.porRemetente = Math.max(1, profundidade / membros);
+        this.relogios = new ClockMatrix();
+        this.mensagens = new Message[membros];
+        ClientInfo[] clientes = new ClientInfo[membros];
+        for (int id = 0; id < membros; id++) {
+            relogios.adicionarMembro(id);
+            clientes[id] = new ClientInfo(InetAddress.getLoopbackAddress(), 7000 + id, "membro" + id, null);
+            clientes[id].setID(id);
+            mensagens[id] = new Message(new int[membros], "mensagem de tamanho tipico no chat", clientes[id], "msg");
+        }
+        MessageCodec codec = new MessageCodec(id -> clientes[id]);
+        this.buffer = new StabilityBuffer(new OffHeapArena(codec, Long.MAX_VALUE));
+
+        for (int i = 0; i < porRemetente * membros; i++) {
+            int remetente = i % membros;
+            buffer.adicionar(mensagens[remetente]);
+            mensagens[remetente].timestamp()[remetente]++;
+        }
+    }
+
+    @Override
+    public int adicionarEDescartar() {
+        int remetente = proximo++ % membros;
+        int[] timestamp = mensagens[remetente].timestamp();
+        buffer.adicionar(mensagens[remetente]);
+        timestamp[remetente]++;
+
+        // Todos os membros entregaram as mensagens do remetente até a profundidade mantida
+        int marca = timestamp[remetente] - porRemetente;
+        for (int id = 0; id < membros; id++) {
+            relogios.elevar(id, remetente, marca);
+        }
+        return buffer.descartarEstaveis(relogios);
+    }
+}
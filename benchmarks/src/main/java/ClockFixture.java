@@ -0,0 +1,41 @@
+import benchmarks.ClockTarget;
+
+/**
+ * Alvo do ClockMatrixBenchmark: a matriz de um grupo em que os vetores de entregas avançam
+ * uma entrada por vez, como a cada heartbeat recebido.
+ */
+public class ClockFixture implements ClockTarget {
+
+    private ClockMatrix relogios;
+    private int[] vetor;
+    private int membros;
+    private int proxima;
+
+    @Override
+    public void preparar(int membros) {
+        this.membros = membros;
+        this.relogios = new ClockMatrix();
+        for (int id = 0; id < membros; id++) {
+            relogios.adicionarMembro(id);
+        }
+        this.vetor = new int[membros];
+    }
+
+    @Override
+    public int mesclarLinha() {
+        int entrada = proxima % membros;
+        vetor[entrada]++;
+        relogios.mesclarLinha(proxima++ % membros, vetor);
+        return vetor[entrada];
+    }
+
+    @Override
+    public int estabilizar() {
+        mesclarLinha();
+        int soma = 0;
+        for (int id = 0; id < membros; id++) {
+            soma += relogios.minimoColuna(id);
+        }
+        return soma;
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import benchmarks.CodecTarget;
+
+/**
+ * Alvo do CodecBenchmark: uma mensagem "msg" de um membro conhecido pelo codec.
+ */
+public class CodecFixture implements CodecTarget {
+
+    private MessageCodec codec;
+    private Message mensagem;
+    private ByteBuffer destino;
+    private ByteBuffer codificada;
+    private byte[] serializada;
+
+    @Override
+    public void preparar(int membros, int tamanhoTexto) {
+        ClientInfo remetente = new ClientInfo(InetAddress.getLoopbackAddress(), 7000, "remetente", null);
+        remetente.setID(membros / 2);
+        int[] timestamp = new int[membros];
+        for (int i = 0; i < membros; i++) {
+            timestamp[i] = 1000 + 37 * i;
+        }
+        char[] texto = new char[tamanhoTexto];
+        Arrays.fill(texto, 'a');
+        this.mensagem = new Message(timestamp, new String(texto), remetente, "msg");
+        this.codec = new MessageCodec(id -> remetente);
+        this.destino = ByteBuffer.allocate(64 * 1024);
+
+        codificar();
+        this.codificada = ByteBuffer.wrap(Arrays.copyOf(destino.array(), destino.position()));
+        this.serializada = serializar(mensagem);
+    }
+
+    @Override
+    public int codificar() {
+        destino.clear();
+        codec.codificar(mensagem, destino);
+        return destino.position();
+    }
+
+    @Override
+    public Object decodificar() {
+        codificada.rewind();
+        return codec.decodificar(codificada);
+    }
+
+    @Override
+    public int serializarJava() {
+        return serializar(mensagem).length;
+    }
+
+    @Override
+    public Object desserializarJava() {
+        // Mesma conversão que o middleware usa no modo de serialização Java
+        try (ObjectInputStream fluxoObjetos = new ObjectInputStream(new ByteArrayInputStream(serializada))) {
+            return fluxoObjetos.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] serializar(Object objeto) {
+        try (ByteArrayOutputStream fluxoSaida = new ByteArrayOutputStream();
+             ObjectOutputStream fluxoObjetos = new ObjectOutputStream(fluxoSaida)) {
+            fluxoObjetos.writeObject(objeto);
+            fluxoObjetos.flush();
+            return fluxoSaida.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
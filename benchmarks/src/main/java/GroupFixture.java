@@ -0,0 +1,80 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+
+import benchmarks.GroupTarget;
+
+/**
+ * Alvo do GroupThroughputBenchmark: nós completos, cada um com o seu núcleo e estágio de
+ * entrega, ligados por uma {@link SimulatedNetwork} sem falhas.
+ */
+public class GroupFixture implements GroupTarget {
+
+    private static final String TEXTO = "benchmark";
+    private static final long TEMPO_MAXIMO_ADESAO_MS = 30_000;
+    private static final long TEMPO_MAXIMO_ENTREGA_MS = 30_000;
+
+    // Portas diferentes a cada grupo, para que os nós de um trial não colidam com os do anterior no JMX
+    private static final AtomicInteger proximaPorta = new AtomicInteger(20000);
+
+    private SimulatedNetwork rede;
+    private final List<StableMulticast> nos = new ArrayList<>();
+    private AtomicLong[] entregues;
+    private long esperado;
+
+    @Override
+    public void iniciar(int membros) throws InterruptedException {
+        this.rede = new SimulatedNetwork(1);
+        this.entregues = new AtomicLong[membros];
+        for (int i = 0; i < membros; i++) {
+            AtomicLong contador = new AtomicLong();
+            entregues[i] = contador;
+            nos.add(StableMulticast.builder()
+                    .porta(proximaPorta.getAndIncrement())
+                    .nome("no" + i)
+                    .transporte(rede.transporte())
+                    .cliente(mensagem -> {
+                        if (mensagem.endsWith(TEXTO)) {
+                            contador.incrementAndGet();
+                        }
+                    })
+                    .construir());
+            // Um nó por vez: o próximo só pede adesão depois que este foi admitido
+            long limite = System.currentTimeMillis() + TEMPO_MAXIMO_ADESAO_MS;
+            while (nos.get(i).getClientes().size() != i + 1) {
+                if (System.currentTimeMillis() > limite) {
+                    throw new IllegalStateException("O no " + i + " nao foi admitido no grupo.");
+                }
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+    }
+
+    @Override
+    public void enviar(int quantidade) {
+        StableMulticast origem = nos.get(0);
+        for (int i = 0; i < quantidade; i++) {
+            origem.msendAsync(TEXTO, null);
+        }
+        esperado += quantidade;
+
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TEMPO_MAXIMO_ENTREGA_MS);
+        for (AtomicLong contador : entregues) {
+            while (contador.get() < esperado) {
+                if (System.nanoTime() > limite) {
+                    throw new IllegalStateException("Entregas nao concluidas: " + contador.get() + " de " + esperado + ".");
+                }
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @Override
+    public void encerrar() {
+        for (StableMulticast no : nos) {
+            no.close();
+        }
+        nos.clear();
+        rede.close();
+    }
+}
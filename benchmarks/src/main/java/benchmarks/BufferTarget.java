@@ -0,0 +1,21 @@
+package benchmarks;
+
+/**
+ * Buffer de estabilidade em regime: cada mensagem nova torna estável a mais antiga do remetente.
+ */
+public interface BufferTarget {
+
+    /**
+     * Monta o buffer já cheio até a profundidade informada.
+     * @param membros quantidade de remetentes
+     * @param profundidade mensagens não estáveis no buffer, somando todos os remetentes
+     */
+    void preparar(int membros, int profundidade);
+
+    /**
+     * Adiciona uma mensagem do próximo remetente, em rodízio, avança a coluna dele na matriz e
+     * descarta as mensagens estáveis.
+     * @return quantidade de mensagens descartadas
+     */
+    int adicionarEDescartar();
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Custo de mesclar o vetor de entregas de um membro na matriz de relógios e de recalcular as
+ * marcas de estabilidade de todos os remetentes depois disso, conforme o tamanho do grupo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClockMatrixBenchmark {
+
+    @Param({ "4", "16", "64", "256" })
+    int membros;
+
+    private ClockTarget alvo;
+
+    @Setup
+    public void preparar() {
+        alvo = Fixtures.criar("ClockFixture", ClockTarget.class);
+        alvo.preparar(membros);
+    }
+
+    @Benchmark
+    public int mesclarLinha() {
+        return alvo.mesclarLinha();
+    }
+
+    @Benchmark
+    public int estabilizar() {
+        return alvo.estabilizar();
+    }
+}
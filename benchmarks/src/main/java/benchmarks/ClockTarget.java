@@ -0,0 +1,25 @@
+package benchmarks;
+
+/**
+ * Atualizações da matriz de relógios e cálculo das marcas de estabilidade.
+ */
+public interface ClockTarget {
+
+    /**
+     * Monta a matriz com um grupo do tamanho informado.
+     * @param membros quantidade de membros
+     */
+    void preparar(int membros);
+
+    /**
+     * Mescla na próxima linha, em rodízio, um vetor de entregas com uma entrada nova.
+     * @return valor da entrada alterada
+     */
+    int mesclarLinha();
+
+    /**
+     * Mescla uma linha, como {@link #mesclarLinha}, e calcula a marca de estabilidade de todos os membros.
+     * @return soma das marcas
+     */
+    int estabilizar();
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Custo de codificar e decodificar uma mensagem "msg", no codec binário e na serialização Java
+ * usada por nós antigos, conforme o tamanho do grupo e do texto.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({ "4", "16", "64" })
+    int membros;
+
+    @Param({ "32", "512" })
+    int tamanhoTexto;
+
+    private CodecTarget alvo;
+
+    @Setup
+    public void preparar() {
+        alvo = Fixtures.criar("CodecFixture", CodecTarget.class);
+        alvo.preparar(membros, tamanhoTexto);
+    }
+
+    @Benchmark
+    public int codificar() {
+        return alvo.codificar();
+    }
+
+    @Benchmark
+    public Object decodificar() {
+        return alvo.decodificar();
+    }
+
+    @Benchmark
+    public int serializarJava() {
+        return alvo.serializarJava();
+    }
+
+    @Benchmark
+    public Object desserializarJava() {
+        return alvo.desserializarJava();
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+/**
+ * Codificação de uma mensagem "msg", no codec binário e na serialização Java.
+ */
+public interface CodecTarget {
+
+    /**
+     * Monta a mensagem e as suas formas já codificadas.
+     * @param membros tamanho do timestamp
+     * @param tamanhoTexto quantidade de caracteres do texto
+     */
+    void preparar(int membros, int tamanhoTexto);
+
+    /** @return bytes escritos pelo codec binário */
+    int codificar();
+
+    /** @return mensagem decodificada pelo codec binário */
+    Object decodificar();
+
+    /** @return bytes gerados pela serialização Java */
+    int serializarJava();
+
+    /** @return mensagem lida pela serialização Java */
+    Object desserializarJava();
+}
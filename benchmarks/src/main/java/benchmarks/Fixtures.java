@@ -0,0 +1,31 @@
+package benchmarks;
+
+/**
+ * Cria os alvos dos benchmarks.
+ *
+ * O middleware fica no pacote padrão, que não pode ser importado de um pacote com nome, e o JMH
+ * não aceita benchmarks no pacote padrão. Por isso cada benchmark fala com uma interface deste
+ * pacote, implementada por uma classe do pacote padrão que usa o middleware diretamente. Só a
+ * criação do alvo é feita por reflexão, no @Setup, fora da medição; as chamadas medidas são
+ * chamadas de interface comuns, com um único implementador.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Cria o alvo implementado por uma classe do pacote padrão.
+     * @param classe nome da classe, sem pacote
+     * @param tipo interface que ela implementa
+     * @param <T> tipo da interface
+     * @return nova instância da classe
+     */
+    static <T> T criar(String classe, Class<T> tipo) {
+        try {
+            return tipo.cast(Class.forName(classe).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Falha ao criar o alvo " + classe + ".", ex);
+        }
+    }
+}
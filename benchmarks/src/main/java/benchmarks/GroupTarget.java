@@ -0,0 +1,25 @@
+package benchmarks;
+
+/**
+ * Grupo de nós na mesma JVM, ligados por uma rede simulada sem falhas.
+ */
+public interface GroupTarget {
+
+    /**
+     * Cria os nós, um de cada vez, e espera que todos estejam na visão do grupo.
+     * @param membros quantidade de nós
+     * @throws InterruptedException se a espera for interrompida
+     */
+    void iniciar(int membros) throws InterruptedException;
+
+    /**
+     * Envia mensagens a partir do primeiro nó e espera que todos os nós as entreguem.
+     * @param quantidade mensagens enviadas
+     */
+    void enviar(int quantidade);
+
+    /**
+     * Fecha os nós e a rede.
+     */
+    void encerrar();
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Desempenho de ponta a ponta de um grupo na mesma JVM, sobre a rede simulada sem falhas:
+ * mensagens por segundo entregues a todos os nós, com envios em rajada, e a distribuição do
+ * tempo entre o envio de uma mensagem isolada e a sua entrega no último nó (use o p0.99 do
+ * modo SampleTime).
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupThroughputBenchmark {
+
+    private static final int RAJADA = 64;
+
+    @Param({ "3", "8" })
+    int membros;
+
+    private GroupTarget alvo;
+
+    @Setup(Level.Trial)
+    public void iniciar() throws InterruptedException {
+        alvo = Fixtures.criar("GroupFixture", GroupTarget.class);
+        alvo.iniciar(membros);
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() {
+        alvo.encerrar();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(RAJADA)
+    public void vazao() {
+        alvo.enviar(RAJADA);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latenciaEntrega() {
+        alvo.enviar(1);
+    }
+}
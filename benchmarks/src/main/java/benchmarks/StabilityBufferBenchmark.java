@@ -0,0 +1,36 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Custo, por mensagem, de guardar uma mensagem no buffer de estabilidade e descartar as que se
+ * tornaram estáveis, com o buffer mantido em diferentes profundidades.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StabilityBufferBenchmark {
+
+    @Param({ "8" })
+    int membros;
+
+    @Param({ "64", "4096", "262144" })
+    int profundidade;
+
+    private BufferTarget alvo;
+
+    @Setup
+    public void preparar() {
+        alvo = Fixtures.criar("BufferFixture", BufferTarget.class);
+        alvo.preparar(membros, profundidade);
+    }
+
+    @Benchmark
+    public int adicionarEDescartar() {
+        return alvo.adicionarEDescartar();
+    }
+}
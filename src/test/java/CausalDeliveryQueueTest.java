@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.*;
+import java.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes da fila de entrega causal.
+ */
+class CausalDeliveryQueueTest {
+
+    private static final int LOCAL = 2;
+
+    private final ClientInfo[] membros = new ClientInfo[3];
+    private ClockMatrix relogios;
+    private CausalDeliveryQueue fila;
+    private List<String> entregues;
+
+    @BeforeEach
+    void criar() {
+        relogios = new ClockMatrix();
+        for (int id = 0; id < membros.length; id++) {
+            membros[id] = new ClientInfo(InetAddress.getLoopbackAddress(), 5000 + id, "m" + id, null);
+            membros[id].setID(id);
+            relogios.adicionarMembro(id);
+        }
+        fila = new CausalDeliveryQueue();
+        entregues = new ArrayList<>();
+    }
+
+    private Message mensagem(int remetente, String texto, int... timestamp) {
+        return new Message(timestamp, texto, membros[remetente], "msg");
+    }
+
+    private int receber(Message mensagem) {
+        return fila.receber(mensagem, relogios, LOCAL, m -> {
+            entregues.add(m.message());
+            relogios.incrementar(LOCAL, m.cliente().getID());
+        });
+    }
+
+    @Test
+    void entregaEmOrdemCausal() {
+        assertEquals(0, receber(mensagem(1, "b", 1, 0, 0))); // Depende de "a"
+        assertEquals(1, fila.tamanho());
+        assertEquals(2, receber(mensagem(0, "a", 0, 0, 0)));
+
+        assertEquals(List.of("a", "b"), entregues);
+        assertEquals(0, fila.tamanho());
+    }
+
+    @Test
+    void copiasRetidasDaMesmaMensagemSaoEntreguesUmaVez() {
+        receber(mensagem(0, "a2", 1, 0, 0));
+        receber(mensagem(0, "a2", 1, 0, 0));
+        receber(mensagem(1, "b", 2, 0, 0));
+        receber(mensagem(1, "b", 2, 0, 0));
+        assertEquals(2, fila.tamanho());
+
+        assertEquals(3, receber(mensagem(0, "a1", 0, 0, 0)));
+
+        assertEquals(List.of("a1", "a2", "b"), entregues);
+        assertEquals(0, fila.tamanho());
+    }
+
+    @Test
+    void copiaRetidaSobOutraDependenciaNaoEEntregueDeNovo() {
+        // A primeira cópia fica retida aguardando "a"; a segunda chega depois de "a" e
+        // aguarda "c"; ao acordar, a primeira cai na mesma chave da segunda
+        receber(mensagem(1, "b", 1, 0, 1));
+        receber(mensagem(0, "a", 0, 0, 0));
+        receber(mensagem(1, "b", 1, 0, 1));
+        assertEquals(1, fila.tamanho());
+
+        assertEquals(2, receber(mensagem(LOCAL, "c", 0, 0, 0)));
+
+        assertEquals(List.of("a", "c", "b"), entregues);
+        assertEquals(0, fila.tamanho());
+    }
+
+    @Test
+    void mensagemJaEntregueEDescartada() {
+        receber(mensagem(0, "a", 0, 0, 0));
+        assertEquals(0, receber(mensagem(0, "a", 0, 0, 0)));
+        assertEquals(List.of("a"), entregues);
+    }
+}
@@ -0,0 +1,52 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes do cache de mínimos da matriz de relógios e do registro das colunas alteradas.
+ */
+class ClockMatrixTest {
+
+    private static ClockMatrix matriz(int membros) {
+        ClockMatrix relogios = new ClockMatrix();
+        for (int id = 0; id < membros; id++) {
+            relogios.adicionarMembro(id);
+        }
+        return relogios;
+    }
+
+    @Test
+    void registraSoAsColunasComOMinimoInvalidado() {
+        ClockMatrix relogios = matriz(3);
+        assertEquals(-1, relogios.retirarColunaAlterada());
+
+        relogios.elevar(0, 1, 4);
+        relogios.elevar(1, 1, 4); // Mesma coluna: registrada uma única vez
+        assertEquals(1, relogios.retirarColunaAlterada());
+        assertEquals(-1, relogios.retirarColunaAlterada());
+        assertEquals(0, relogios.minimoColuna(1));
+
+        // Com o mínimo em cache definido pela linha 2, subir outra linha não altera a coluna
+        relogios.elevar(0, 1, 6);
+        assertEquals(-1, relogios.retirarColunaAlterada());
+
+        relogios.elevar(2, 1, 5);
+        assertEquals(1, relogios.retirarColunaAlterada());
+        assertEquals(4, relogios.minimoColuna(1));
+    }
+
+    @Test
+    void remocaoRegistraTodasAsColunasEAQueSaiu() {
+        ClockMatrix relogios = matriz(3);
+        relogios.elevar(0, 2, 1);
+
+        relogios.removerMembro(0);
+        int[] retiradas = new int[3];
+        for (int i = 0; i < 3; i++) {
+            retiradas[i] = relogios.retirarColunaAlterada();
+        }
+        java.util.Arrays.sort(retiradas);
+        assertArrayEquals(new int[] {0, 1, 2}, retiradas);
+        assertEquals(-1, relogios.retirarColunaAlterada());
+    }
+}
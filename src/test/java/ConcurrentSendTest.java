@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes de envios feitos por várias threads ao mesmo tempo, todos serializados pelo núcleo.
+ */
+class ConcurrentSendTest {
+
+    private static final int THREADS = 4;
+    private static final int POR_THREAD = 100;
+
+    @Test
+    void enviosDeVariasThreadsChegamTodosEmOrdemASemRepeticao() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(15)) {
+            assertTrue(grupo.formar(3, 5000));
+            ExecutorService produtores = Executors.newFixedThreadPool(THREADS * 3);
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (StableMulticast no : grupo.nos) {
+                for (int t = 0; t < THREADS; t++) {
+                    String prefixo = "t" + t + "-";
+                    tarefas.add(produtores.submit(() -> {
+                        for (int i = 0; i < POR_THREAD; i++) {
+                            no.msendAsync(prefixo + i, null).get(10, TimeUnit.SECONDS);
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> tarefa : tarefas) {
+                tarefa.get(60, TimeUnit.SECONDS);
+            }
+            produtores.shutdown();
+
+            // Cada nó recebe as mensagens de todos, inclusive as próprias
+            for (int no = 0; no < 3; no++) {
+                int indice = no;
+                assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(indice, "N0: t") + grupo.entregues(indice, "N1: t")
+                        + grupo.entregues(indice, "N2: t") == 3 * THREADS * POR_THREAD, 10000));
+            }
+            for (int no = 0; no < 3; no++) {
+                assertEquals(List.of(), grupo.repetidas(no));
+                // Cada thread envia em sequência, então suas mensagens chegam na mesma ordem
+                Map<String, Integer> proxima = new HashMap<>();
+                synchronized (grupo.entregas.get(no)) {
+                    for (String texto : grupo.entregas.get(no)) {
+                        if (!texto.contains(": t")) {
+                            continue; // Boas-vindas
+                        }
+                        String origem = texto.substring(0, texto.lastIndexOf('-'));
+                        int indice = Integer.parseInt(texto.substring(texto.lastIndexOf('-') + 1));
+                        assertEquals(proxima.getOrDefault(origem, 0), indice, "Fora de ordem: " + texto);
+                        proxima.put(origem, indice + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void envioConcorrenteAoEncerramentoNaoEEnviadoEFalhoAoMesmoTempo() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(16)) {
+            assertTrue(grupo.formar(2, 5000));
+            StableMulticast origem = grupo.nos.get(0);
+            Map<String, CompletableFuture<SentMessage>> futuros = new ConcurrentHashMap<>();
+            CountDownLatch largada = new CountDownLatch(1);
+            ExecutorService produtores = Executors.newFixedThreadPool(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                String prefixo = "t" + t + "-";
+                produtores.execute(() -> {
+                    try {
+                        largada.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = 0; i < 2000; i++) {
+                        futuros.put(prefixo + i, origem.msendAsync(prefixo + i, null));
+                    }
+                });
+            }
+            largada.countDown();
+            Thread.sleep(5);
+            origem.close();
+            produtores.shutdown();
+            assertTrue(produtores.awaitTermination(10, TimeUnit.SECONDS));
+
+            for (CompletableFuture<SentMessage> futuro : futuros.values()) {
+                try {
+                    futuro.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException ex) {
+                    assertInstanceOf(IllegalStateException.class, ex.getCause());
+                }
+            }
+            Thread.sleep(500);
+            // Nenhuma mensagem entregue ao outro nó pode ter sido reportada como falha
+            synchronized (grupo.entregas.get(1)) {
+                for (String texto : grupo.entregas.get(1)) {
+                    if (texto.startsWith("N0: t")) {
+                        CompletableFuture<SentMessage> futuro = futuros.get(texto.substring(4));
+                        assertFalse(futuro.isCompletedExceptionally(), "Entregue e reportada como falha: " + texto);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Transporte de teste que repassa tudo a outro, mas pode recusar os envios ao grupo ou isolar
+ * o nó, descartando em silêncio tudo o que ele envia e recebe.
+ */
+class ControlledTransport implements Transport {
+    private final Transport real;
+    volatile boolean falhando; // Envios ao grupo lançam IOException
+    volatile boolean isolado;  // Nada entra nem sai
+
+    ControlledTransport(Transport real) {
+        this.real = real;
+    }
+
+    @Override
+    public void abrir(InetAddress grupo, int portaGrupo, InetAddress local, int portaLocal, Receptor receptor) throws IOException {
+        real.abrir(grupo, portaGrupo, local, portaLocal, (dados, origem) -> {
+            if (!isolado) {
+                receptor.receber(dados, origem);
+            }
+        });
+    }
+
+    @Override
+    public void enviarParaGrupo(ByteBuffer dados) throws IOException {
+        if (falhando) {
+            throw new IOException("Falha simulada");
+        }
+        if (!isolado) {
+            real.enviarParaGrupo(dados);
+        }
+    }
+
+    @Override
+    public void enviar(ByteBuffer dados, InetAddress endereco, int porta) throws IOException {
+        if (!isolado) {
+            real.enviar(dados, endereco, porta);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        real.close();
+    }
+}
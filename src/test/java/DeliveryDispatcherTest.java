@@ -0,0 +1,27 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes do estágio de entrega entre o núcleo e o cliente.
+ */
+class DeliveryDispatcherTest {
+
+    @Test
+    void executorQueRecusaNaoPerdeAEntrega() {
+        List<String> entregues = new ArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown(); // Recusa toda tarefa nova
+
+        try (DeliveryDispatcher estagio = new DeliveryDispatcher(entregues::add, 1, executor, "entrega")) {
+            estagio.entregar("a");
+            estagio.entregar("b"); // Só não bloqueia se a vaga da primeira foi devolvida
+
+            assertEquals(List.of("a", "b"), entregues);
+            assertEquals(2, estagio.entregues());
+            assertEquals(0, estagio.pendentes());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Testes do filtro de duplicatas e da recuperação de perdas que passa por ele.
+ */
+class DuplicateFilterTest {
+
+    private static final int MENSAGENS = 1500;
+
+    @Test
+    void soAsSequenciasEntreguesSaoDescartadas() {
+        LongAdder descartadas = new LongAdder();
+        DuplicateFilter filtro = new DuplicateFilter(descartadas);
+        assertFalse(filtro.duplicada(1, 0));
+
+        // Cópias que chegaram mas ainda não foram entregues não deixam marca
+        filtro.registrar(1, 5);
+        assertFalse(filtro.duplicada(1, 4));
+        assertFalse(filtro.duplicada(1, 6));
+        assertTrue(filtro.duplicada(1, 5));
+        assertEquals(1, descartadas.sum());
+
+        // Anteriores à janela passam: a matriz decide
+        filtro.registrar(1, 5 + DuplicateFilter.TAMANHO_JANELA);
+        assertFalse(filtro.duplicada(1, 5));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {1, 2, 3})
+    void retransmissoesPedidasPorNackCompletamAEntregaDepoisDasPerdas(long semente) throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(semente)) {
+            assertTrue(grupo.formar(3, 10000), "As visões não convergiram");
+
+            // Com perdas, os diferenciais de um remetente rápido se acumulam à espera dos que faltam
+            grupo.rede.perda(0.05);
+            for (int i = 0; i < MENSAGENS; i++) {
+                grupo.nos.get(0).msendAsync("m" + i, null);
+            }
+            Thread.sleep(1000);
+
+            // Sem perdas, os NACKs recuperam tudo o que faltou
+            grupo.rede.perda(0);
+            for (int no = 0; no < 3; no++) {
+                int destino = no;
+                assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(destino, "N0: m") == MENSAGENS, 15000),
+                        "N" + no + " entregou " + grupo.entregues(no, "N0: m"));
+                assertEquals(List.of(), grupo.repetidas(no));
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes do laço de eventos compartilhado pelos canais.
+ */
+class EventLoopTest {
+
+    @Test
+    void tarefaQueFalhaNaoDerrubaOLaco() throws Exception {
+        try (EventLoop laco = new EventLoop("laco-teste")) {
+            CountDownLatch executada = new CountDownLatch(1);
+            laco.executarNoLaco(() -> {
+                throw new IllegalStateException("falha proposital");
+            });
+            laco.executarNoLaco(executada::countDown);
+
+            assertTrue(executada.await(5, TimeUnit.SECONDS), "O laço parou depois da tarefa que falhou");
+        }
+    }
+}
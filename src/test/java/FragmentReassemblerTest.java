@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes da remontagem de mensagens fragmentadas.
+ */
+class FragmentReassemblerTest {
+
+    private static final SocketAddress ORIGEM = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5000);
+
+    private final MessageCodec codec = new MessageCodec(id -> null);
+
+    private ByteBuffer fragmento(int id, int indice, int total, byte[] dados, int inicio, int tamanho) {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.TAMANHO_MTU);
+        codec.iniciarFragmento(buffer, 0, id, indice, total);
+        buffer.put(dados, inicio, tamanho);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Entrega ao remontador todos os fragmentos de um conteúdo, na ordem inversa.
+     */
+    private ByteBuffer remontar(FragmentReassembler remontador, int id, byte[] conteudo) {
+        int total = (conteudo.length + MessageCodec.DADOS_POR_FRAGMENTO - 1) / MessageCodec.DADOS_POR_FRAGMENTO;
+        ByteBuffer completo = null;
+        for (int indice = total - 1; indice >= 0; indice--) {
+            int inicio = indice * MessageCodec.DADOS_POR_FRAGMENTO;
+            int tamanho = Math.min(MessageCodec.DADOS_POR_FRAGMENTO, conteudo.length - inicio);
+            completo = remontador.receber(fragmento(id, indice, total, conteudo, inicio, tamanho), ORIGEM);
+        }
+        return completo;
+    }
+
+    @Test
+    void remontaMensagemComOMaximoDeFragmentos() {
+        byte[] conteudo = new byte[MessageCodec.MAXIMO_FRAGMENTOS * MessageCodec.DADOS_POR_FRAGMENTO];
+        new Random(9).nextBytes(conteudo);
+        FragmentReassembler remontador = new FragmentReassembler(2000);
+
+        ByteBuffer completo = remontar(remontador, 1, conteudo);
+
+        assertNotNull(completo);
+        byte[] lido = new byte[completo.remaining()];
+        completo.get(lido);
+        assertArrayEquals(conteudo, lido);
+        remontador.liberar(completo);
+        assertEquals(0, remontador.emAndamento());
+    }
+
+    @Test
+    void limitaAsRemontagensIncompletas() {
+        FragmentReassembler remontador = new FragmentReassembler(60_000);
+        byte[] dados = new byte[MessageCodec.DADOS_POR_FRAGMENTO];
+        for (int id = 0; id < FragmentReassembler.MAXIMO_EM_ANDAMENTO + 10; id++) {
+            assertNull(remontador.receber(fragmento(id, 0, 2, dados, 0, dados.length), ORIGEM));
+        }
+        assertEquals(FragmentReassembler.MAXIMO_EM_ANDAMENTO, remontador.emAndamento());
+
+        // As mais antigas foram descartadas; as mais recentes ainda completam
+        int recente = FragmentReassembler.MAXIMO_EM_ANDAMENTO + 9;
+        assertNotNull(remontador.receber(fragmento(recente, 1, 2, dados, 0, 10), ORIGEM));
+        assertNull(remontador.receber(fragmento(0, 1, 2, dados, 0, 10), ORIGEM));
+    }
+
+    @Test
+    void mensagemGrandeChegaAoGrupoEAMaiorQueOLimiteERecusada() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(9)) {
+            assertTrue(grupo.formar(2, 5000));
+            StableMulticast origem = grupo.nos.get(0);
+
+            String grande = "g".repeat(StableMulticast.TAMANHO_MAXIMO_TEXTO);
+            origem.msendAsync(grande, null).get(5, TimeUnit.SECONDS);
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(1, "N0: g") == 1, 5000));
+
+            CompletableFuture<SentMessage> recusada = origem.msendAsync(grande + "g", null);
+            ExecutionException erro = assertThrows(ExecutionException.class, () -> recusada.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, erro.getCause());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Nó executado em um processo próprio pelo {@link MultiProcessTest}, com sockets reais.
+ * Espera o grupo completo, envia as mensagens de várias threads e confere se recebeu as de
+ * todos os membros, sem repetições e na ordem de cada thread de origem.
+ * Argumentos: porta, nome, número de membros, mensagens por thread, porta do grupo.
+ * Termina com código 0 e imprime "OK" se tudo chegou.
+ */
+class GroupProcess {
+
+    static final int THREADS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int porta = Integer.parseInt(args[0]);
+        String nome = args[1];
+        int membros = Integer.parseInt(args[2]);
+        int porThread = Integer.parseInt(args[3]);
+        int portaGrupo = Integer.parseInt(args[4]);
+
+        List<String> recebidas = Collections.synchronizedList(new ArrayList<>());
+        StableMulticast no = StableMulticast.builder()
+                .endereco("localhost")
+                .porta(porta)
+                .nome(nome)
+                .grupo("224.0.5.7", portaGrupo)
+                .cliente(texto -> recebidas.add(texto.replaceAll("\u001B\\[[0-9;]*m", "")))
+                .construir();
+        if (!SimulatedGroup.aguardar(() -> no.getClientes().size() == membros, 20000)) {
+            sair(no, "FALHA visão com " + no.getClientes().size() + " membros");
+        }
+
+        ExecutorService produtores = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> tarefas = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String prefixo = "t" + t + "-";
+            tarefas.add(produtores.submit(() -> {
+                for (int i = 0; i < porThread; i++) {
+                    no.msendAsync(prefixo + i, null).get(10, TimeUnit.SECONDS);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> tarefa : tarefas) {
+            tarefa.get(30, TimeUnit.SECONDS);
+        }
+        produtores.shutdown();
+
+        int esperadas = membros * THREADS * porThread;
+        if (!SimulatedGroup.aguardar(() -> contar(recebidas) == esperadas, 20000)) {
+            sair(no, "FALHA " + contar(recebidas) + " de " + esperadas + " mensagens");
+        }
+        Set<String> vistas = new HashSet<>();
+        Map<String, Integer> proxima = new HashMap<>();
+        synchronized (recebidas) {
+            for (String texto : recebidas) {
+                if (!texto.contains(": t")) {
+                    continue; // Boas-vindas
+                }
+                if (!vistas.add(texto)) {
+                    sair(no, "FALHA repetida: " + texto);
+                }
+                String origem = texto.substring(0, texto.lastIndexOf('-'));
+                int indice = Integer.parseInt(texto.substring(texto.lastIndexOf('-') + 1));
+                if (proxima.getOrDefault(origem, 0) != indice) {
+                    sair(no, "FALHA fora de ordem: " + texto);
+                }
+                proxima.put(origem, indice + 1);
+            }
+        }
+        // Os demais podem ainda estar reparando lacunas com a ajuda deste nó
+        Thread.sleep(2000);
+        sair(no, "OK " + esperadas);
+    }
+
+    private static int contar(List<String> recebidas) {
+        synchronized (recebidas) {
+            int quantidade = 0;
+            for (String texto : recebidas) {
+                if (texto.contains(": t")) {
+                    quantidade++;
+                }
+            }
+            return quantidade;
+        }
+    }
+
+    private static void sair(StableMulticast no, String resultado) {
+        System.out.println(resultado);
+        System.out.flush();
+        no.close();
+        System.exit(resultado.startsWith("OK") ? 0 : 1);
+    }
+}
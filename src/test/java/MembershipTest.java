@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes da atribuição de IDs e das mudanças de visão.
+ */
+class MembershipTest {
+
+    /**
+     * Verifica que cada ID corresponde ao mesmo endereço em todas as visões.
+     */
+    private static void assertIdsConsistentes(SimulatedGroup grupo) {
+        Map<Integer, Integer> portaPorId = new HashMap<>();
+        for (StableMulticast no : grupo.nos) {
+            for (ClientInfo membro : no.getClientes()) {
+                Integer anterior = portaPorId.putIfAbsent(membro.getID(), membro.getPort());
+                assertTrue(anterior == null || anterior.equals(membro.getPort()),
+                        "ID " + membro.getID() + " atribuído às portas " + anterior + " e " + membro.getPort());
+            }
+        }
+    }
+
+    @Test
+    void adesoesSimultaneasRecebemOMesmoIdEmTodosOsMembros() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(12)) {
+            grupo.rede.latencia(1, 15, java.util.concurrent.TimeUnit.MILLISECONDS);
+            grupo.fundar();
+            grupo.adicionar();
+            grupo.adicionar();
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(3), 5000));
+
+            // Vários joins ao mesmo tempo, vistos em ordens diferentes por cada membro
+            for (int i = 0; i < 6; i++) {
+                grupo.adicionar();
+            }
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(9), 10000));
+            assertIdsConsistentes(grupo);
+        }
+    }
+
+    @Test
+    void membroRemovidoPorEnganoAdereDeNovo() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(13)) {
+            grupo.fundar();
+            grupo.adicionar();
+            ControlledTransport transporte = new ControlledTransport(grupo.rede.transporte());
+            StableMulticast isolado = grupo.adicionar(b -> b.transporte(transporte));
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(3), 5000));
+            int idAntigo = isolado.getClientInfo().getID();
+
+            // Calado por mais que o tempo de suspeita, o nó é removido pelos demais
+            transporte.isolado = true;
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.nos.get(0).getClientes().size() == 2, 10000));
+            transporte.isolado = false;
+
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(3), 10000));
+            assertNotEquals(idAntigo, isolado.getClientInfo().getID());
+            assertIdsConsistentes(grupo);
+
+            isolado.msendAsync("voltei", null);
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(0, "N2: voltei") == 1
+                    && grupo.entregues(1, "N2: voltei") == 1, 5000));
+        }
+    }
+}
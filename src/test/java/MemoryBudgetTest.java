@@ -0,0 +1,39 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes do orçamento de memória do buffer de estabilidade.
+ */
+class MemoryBudgetTest {
+
+    @Test
+    void acimaDoOrcamentoSoAsMensagensNovasEsperam() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(22)) {
+            // Qualquer mensagem no buffer já passa do orçamento
+            StableMulticast origem = grupo.fundar(b -> b.memoriaBuffer(1).tempoMaximoBloqueio(5, TimeUnit.SECONDS));
+            ControlledTransport transporte = new ControlledTransport(grupo.rede.transporte());
+            grupo.adicionar(b -> b.transporte(transporte));
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(2), 5000));
+
+            // Sem a confirmação do membro isolado, a primeira mensagem não se torna estável
+            transporte.isolado = true;
+            SentMessage primeira = origem.msendAsync("primeira", null).get(5, TimeUnit.SECONDS);
+
+            CompletableFuture<SentMessage> retida = origem.msendAsync("retida", null);
+            Thread.sleep(300);
+            assertFalse(retida.isDone());
+
+            // O reenvio de uma mensagem já carimbada não aumenta o buffer e segue
+            assertSame(primeira, origem.reenviarAsync(primeira, null).get(2, TimeUnit.SECONDS));
+
+            // O leave também segue: o encerramento não espera o tempo máximo de bloqueio
+            long inicio = System.nanoTime();
+            origem.close();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) < 2000);
+            ExecutionException erro = assertThrows(ExecutionException.class, () -> retida.get(1, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, erro.getCause());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes de ida e volta do codec binário.
+ */
+class MessageCodecTest {
+
+    private static ClientInfo cliente(int id, int porta) throws UnknownHostException {
+        ClientInfo cliente = new ClientInfo(InetAddress.getLoopbackAddress(), porta, "membro" + id, null);
+        cliente.setID(id);
+        return cliente;
+    }
+
+    @Test
+    void mensagemComTimestampCompletoVoltaIgual() throws Exception {
+        ClientInfo remetente = cliente(2, 5002);
+        MessageCodec codec = new MessageCodec(id -> id == 2 ? remetente : null);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+
+        codec.codificar(new Message(new int[] {3, 0, 7}, "olá, mundo", remetente, "msg"), buffer);
+        buffer.flip();
+        Message lida = codec.decodificar(buffer);
+
+        assertEquals("msg", lida.command());
+        assertEquals("olá, mundo", lida.message());
+        assertArrayEquals(new int[] {3, 0, 7}, lida.timestamp());
+        assertSame(remetente, lida.cliente());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void timestampDiferencialCarregaApenasAsEntradasQueMudaram() throws Exception {
+        ClientInfo remetente = cliente(1, 5001);
+        MessageCodec codec = new MessageCodec(id -> remetente);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+
+        codec.codificar(new Message(new int[] {4, 9, 6}, "x", remetente, "msg"), new int[] {4, 8, 4}, buffer);
+        buffer.flip();
+        Message lida = codec.decodificar(buffer);
+
+        int[] diferenca = lida.getDelta();
+        assertNotNull(diferenca);
+        assertNull(lida.timestamp());
+        // Sequência do remetente seguida do único outro par (id, relógio) alterado
+        assertArrayEquals(new int[] {9, 2, 6}, diferenca);
+    }
+
+    @Test
+    void joinTransportaOEnderecoDoCliente() throws Exception {
+        ClientInfo novo = cliente(-1, 6000);
+        MessageCodec codec = new MessageCodec(id -> null);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+
+        codec.codificar(new Message(null, null, novo, "join"), buffer);
+        buffer.flip();
+        Message lida = codec.decodificar(buffer);
+
+        assertEquals("join", lida.command());
+        assertEquals("membro-1", lida.cliente().getName());
+        assertEquals(6000, lida.cliente().getPort());
+        assertEquals(InetAddress.getLoopbackAddress(), lida.cliente().getIP());
+    }
+
+    @Test
+    void vetorOcupaSoAsEntradasNaoNulas() throws Exception {
+        ClientInfo remetente = cliente(60000, 5000);
+        MessageCodec codec = new MessageCodec(id -> remetente);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+
+        // IDs altos de um grupo com muitas adesões passadas, mas só dois membros com relógio
+        int[] vetor = new int[60001];
+        vetor[3] = 5;
+        vetor[60000] = 9;
+        codec.codificar(new Message(vetor, "", remetente, "heartbeat"), buffer);
+        buffer.flip();
+        assertTrue(buffer.remaining() < 24, "Heartbeat com " + buffer.remaining() + " bytes");
+        assertArrayEquals(vetor, codec.decodificar(buffer).timestamp());
+
+        buffer.clear();
+        assertThrows(IllegalArgumentException.class, () -> codec.codificar(
+                new Message(new int[MessageCodec.MAXIMO_ID_MEMBRO + 2], "", remetente, "heartbeat"), buffer));
+    }
+
+    @Test
+    void vetorDensoDaVersaoAnteriorAindaELido() throws Exception {
+        ClientInfo remetente = cliente(1, 5001);
+        MessageCodec codec = new MessageCodec(id -> remetente);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put(MessageCodec.MAGIA).put(MessageCodec.VERSAO_VETORES_DENSOS).put(MessageCodec.COMANDO_HEARTBEAT);
+        MessageCodec.escreverInt(buffer, 0); // Tópico
+        MessageCodec.escreverInt(buffer, 1); // Remetente
+        MessageCodec.escreverInt(buffer, 3);
+        for (int valor : new int[] {4, 0, 2}) {
+            MessageCodec.escreverInt(buffer, valor);
+        }
+        buffer.flip();
+
+        assertArrayEquals(new int[] {4, 0, 2}, codec.decodificar(buffer).timestamp());
+    }
+
+    @Test
+    void tamanhoDeEnderecoInvalidoNoJoinERecusado() throws Exception {
+        MessageCodec codec = new MessageCodec(id -> null);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        codec.codificar(new Message(null, null, cliente(-1, 6000), "join"), buffer);
+        buffer.flip();
+        byte[] valido = new byte[buffer.remaining()];
+        buffer.get(valido);
+
+        // O tamanho do IPv4 (4, ou 8 em zigzag) vem logo antes dos bytes do loopback
+        int posicao = -1;
+        for (int i = 0; i + 4 < valido.length && posicao < 0; i++) {
+            if (valido[i] == 8 && valido[i + 1] == 127 && valido[i + 2] == 0 && valido[i + 3] == 0 && valido[i + 4] == 1) {
+                posicao = i;
+            }
+        }
+        assertTrue(posicao > 0);
+        for (int tamanho : new int[] {-1, 5, Integer.MAX_VALUE}) {
+            ByteBuffer corrompido = ByteBuffer.allocate(valido.length + 8);
+            corrompido.put(valido, 0, posicao);
+            MessageCodec.escreverInt(corrompido, tamanho);
+            corrompido.put(valido, posicao + 1, valido.length - posicao - 1);
+            corrompido.flip();
+            assertThrows(IllegalArgumentException.class, () -> codec.decodificar(corrompido));
+        }
+    }
+
+    @Test
+    void topicoDoCabecalhoELidoSemConsumirOBuffer() throws Exception {
+        ClientInfo remetente = cliente(0, 5000);
+        MessageCodec codec = new MessageCodec(id -> remetente, 300);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+
+        codec.codificar(new Message(new int[] {1}, "a", remetente, "msg"), buffer);
+        buffer.flip();
+
+        assertEquals(300, MessageCodec.lerTopico(buffer));
+        assertEquals(0, buffer.position());
+        assertEquals("a", codec.decodificar(buffer).message());
+    }
+
+    @Test
+    void loteDecodificaTodosOsRegistros() throws Exception {
+        ClientInfo remetente = cliente(0, 5000);
+        MessageCodec codec = new MessageCodec(id -> remetente);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        int posicaoQuantidade = codec.iniciarLote(buffer, remetente);
+        for (int i = 1; i <= 3; i++) {
+            codec.codificarRegistro(new Message(new int[] {i}, "m" + i, remetente, "msg"), null, buffer);
+        }
+        buffer.putShort(posicaoQuantidade, (short) 3);
+        buffer.flip();
+
+        List<Message> lidas = new ArrayList<>();
+        codec.decodificar(buffer, lidas);
+
+        assertEquals(3, lidas.size());
+        for (int i = 1; i <= 3; i++) {
+            assertEquals("m" + i, lidas.get(i - 1).message());
+            assertArrayEquals(new int[] {i}, lidas.get(i - 1).timestamp());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes com cada nó em uma JVM própria, trocando mensagens por sockets reais no loopback.
+ */
+class MultiProcessTest {
+
+    private static final int MEMBROS = 3;
+    private static final int PORTA_BASE = 47100;
+
+    /**
+     * Inicia um {@link GroupProcess} com o mesmo Java e o mesmo classpath dos testes.
+     * A saída vai para um arquivo, para que o processo nunca bloqueie escrevendo nela.
+     */
+    private static Process iniciar(int indice, int porThread, File saida) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "GroupProcess",
+                String.valueOf(PORTA_BASE + indice), "P" + indice, String.valueOf(MEMBROS),
+                String.valueOf(porThread), String.valueOf(PORTA_BASE - 1))
+                .redirectErrorStream(true)
+                .redirectOutput(saida)
+                .start();
+    }
+
+    @Test
+    void processosSeparadosRecebemTodasAsMensagensEmOrdem() throws Exception {
+        List<Process> processos = new ArrayList<>();
+        List<File> saidas = new ArrayList<>();
+        try {
+            for (int i = 0; i < MEMBROS; i++) {
+                File saida = File.createTempFile("processo" + i, ".log");
+                saida.deleteOnExit();
+                saidas.add(saida);
+                processos.add(iniciar(i, 200, saida));
+                Thread.sleep(i == 0 ? 1500 : 300); // O primeiro funda o grupo
+            }
+            for (int i = 0; i < MEMBROS; i++) {
+                Process processo = processos.get(i);
+                assertTrue(processo.waitFor(90, TimeUnit.SECONDS), "Processo não terminou");
+                String saida = Files.readString(saidas.get(i).toPath(), StandardCharsets.UTF_8);
+                assertEquals(0, processo.exitValue(), saida);
+                assertTrue(saida.contains("OK " + MEMBROS * GroupProcess.THREADS * 200), saida);
+            }
+        } finally {
+            for (Process processo : processos) {
+                processo.destroyForcibly();
+            }
+        }
+    }
+}
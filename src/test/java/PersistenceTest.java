@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testes do reinício de um nó com persistência em log.
+ */
+class PersistenceTest {
+
+    @TempDir
+    Path diretorio;
+
+    /**
+     * Cria um nó na porta informada da rede do grupo, fora da lista de nós do grupo.
+     */
+    private static StableMulticast reiniciar(SimulatedGroup grupo, int indice, Path log, List<String> recebidas) {
+        return StableMulticast.builder()
+                .porta(SimulatedGroup.PORTA_BASE + indice)
+                .nome("N" + indice)
+                .transporte(grupo.rede.transporte())
+                .persistencia(log.toString())
+                .cliente(texto -> recebidas.add(texto.replaceAll("\u001B\\[[0-9;]*m", "")))
+                .construir();
+    }
+
+    private static Set<Integer> ids(StableMulticast no) {
+        Set<Integer> ids = new TreeSet<>();
+        for (ClientInfo membro : no.getClientes()) {
+            ids.add(membro.getID());
+        }
+        return ids;
+    }
+
+    @Test
+    void saidaAnunciadaApagaOLogEOReinicioAdereDoZero() throws Exception {
+        Path log = diretorio.resolve("n1");
+        try (SimulatedGroup grupo = new SimulatedGroup(19)) {
+            StableMulticast coordenador = grupo.fundar();
+            StableMulticast no = grupo.adicionar(b -> b.persistencia(log.toString()));
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(2), 5000));
+            int idAntigo = no.getClientInfo().getID();
+
+            no.close();
+            try (Stream<Path> arquivos = Files.list(log)) {
+                assertEquals(0, arquivos.count());
+            }
+            assertTrue(SimulatedGroup.aguardar(() -> coordenador.getClientes().size() == 1, 5000));
+
+            // Reiniciado dentro do tempo de suspeita, o nó não retoma o ID que anunciou ter deixado
+            List<String> recebidas = Collections.synchronizedList(new ArrayList<>());
+            try (StableMulticast reiniciado = reiniciar(grupo, 1, log, recebidas)) {
+                assertTrue(SimulatedGroup.aguardar(() -> ids(reiniciado).size() == 2
+                        && ids(reiniciado).equals(ids(coordenador)), 5000));
+                assertNotEquals(idAntigo, reiniciado.getClientInfo().getID());
+                assertFalse(recebidas.stream().anyMatch(texto -> texto.contains("de volta")));
+            }
+        }
+    }
+
+    @Test
+    void idRecuperadoSemConfirmacaoDoGrupoAdereDeNovo() throws Exception {
+        Path log = diretorio.resolve("n1");
+        Path copia = diretorio.resolve("copia");
+        try (SimulatedGroup grupo = new SimulatedGroup(20)) {
+            grupo.fundar();
+            StableMulticast no = grupo.adicionar(b -> b.persistencia(log.toString()));
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(2), 5000));
+            no.msendAsync("antes", null).get();
+
+            // Imagem do log como ficaria depois de uma queda do processo
+            Files.createDirectories(copia);
+            try (Stream<Path> arquivos = Files.list(log)) {
+                for (Path arquivo : (Iterable<Path>) arquivos::iterator) {
+                    Files.copy(arquivo, copia.resolve(arquivo.getFileName()));
+                }
+            }
+        }
+
+        // Um grupo novo, que nunca conheceu o ID do log, ocupa os mesmos endereços
+        try (SimulatedGroup grupo = new SimulatedGroup(21)) {
+            StableMulticast coordenador = grupo.fundar();
+            List<String> recebidas = Collections.synchronizedList(new ArrayList<>());
+            try (StableMulticast reiniciado = reiniciar(grupo, 1, copia, recebidas)) {
+                assertTrue(SimulatedGroup.aguardar(() -> recebidas.stream().anyMatch(texto -> texto.contains("de volta")), 5000),
+                        "O estado não foi recuperado do log");
+                assertTrue(SimulatedGroup.aguardar(() -> ids(reiniciado).size() == 2
+                        && ids(reiniciado).equals(ids(coordenador)), 10000));
+
+                reiniciado.msendAsync("depois", null);
+                assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(0, "N1: depois") == 1, 5000));
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes de envios que falham depois de a mensagem ser carimbada.
+ */
+class SendFailureTest {
+
+    @Test
+    void mensagemCujoEnvioFalhouERecuperadaPorNack() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(8)) {
+            ControlledTransport transporte = new ControlledTransport(grupo.rede.transporte());
+            StableMulticast origem = grupo.fundar(b -> b.transporte(transporte));
+            grupo.adicionar();
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(2), 5000));
+
+            transporte.falhando = true;
+            SentMessage enviada = origem.msendAsync("perdida", null).get(5, TimeUnit.SECONDS);
+            assertEquals("perdida", enviada.texto());
+            transporte.falhando = false;
+
+            // Sem outra mensagem atrás dela, só o heartbeat revela a lacuna
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(1, "N0: perdida") == 1, 5000));
+            origem.msendAsync("seguinte", null).get(5, TimeUnit.SECONDS);
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(1, "N0: seguinte") == 1, 5000));
+            assertEquals(1, grupo.entregues(1, "N0: perdida"));
+
+            // O remetente entrega a própria mensagem mesmo sem a cópia voltar, antes da seguinte
+            for (int no = 0; no < 2; no++) {
+                List<String> recebidas = grupo.entregas.get(no);
+                synchronized (recebidas) {
+                    int perdida = recebidas.indexOf("N0: perdida");
+                    assertTrue(perdida >= 0, "N" + no + " não entregou a mensagem perdida");
+                    assertTrue(perdida < recebidas.indexOf("N0: seguinte"));
+                    assertEquals(1, Collections.frequency(recebidas, "N0: perdida"));
+                }
+            }
+            assertTrue(origem.metricas().get("FalhasEnvio") > 0);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Grupo de nós ligados por uma {@link SimulatedNetwork}, para os testes de ponta a ponta.
+ * Guarda, para cada nó, os textos entregues, já sem as cores do terminal.
+ */
+class SimulatedGroup implements AutoCloseable {
+
+    static final int PORTA_BASE = 9000;
+
+    final SimulatedNetwork rede;
+    final List<StableMulticast> nos = new ArrayList<>();
+    final List<List<String>> entregas = new ArrayList<>();
+
+    SimulatedGroup(long semente) {
+        this.rede = new SimulatedNetwork(semente);
+    }
+
+    /**
+     * Cria um nó na próxima porta livre, com a configuração padrão.
+     * @return o nó criado
+     */
+    StableMulticast adicionar() {
+        return adicionar(b -> b);
+    }
+
+    /**
+     * Cria um nó na próxima porta livre, ajustando a configuração antes de construí-lo.
+     * @param ajuste função que recebe o Builder já preenchido e o devolve
+     * @return o nó criado
+     */
+    StableMulticast adicionar(UnaryOperator<StableMulticast.Builder> ajuste) {
+        int indice = nos.size();
+        List<String> recebidas = Collections.synchronizedList(new ArrayList<>());
+        StableMulticast.Builder builder = StableMulticast.builder()
+                .porta(PORTA_BASE + indice)
+                .nome("N" + indice)
+                .transporte(rede.transporte())
+                .cliente(texto -> recebidas.add(texto.replaceAll("\u001B\\[[0-9;]*m", "")));
+        StableMulticast no = ajuste.apply(builder).construir();
+        nos.add(no);
+        entregas.add(recebidas);
+        return no;
+    }
+
+    /**
+     * Cria os nós um a um, esperando o primeiro fundar o grupo, e aguarda todos se verem.
+     * @param quantidade número de nós
+     * @param limiteMs tempo máximo para as visões convergirem
+     * @return true se todas as visões chegaram ao tamanho do grupo
+     */
+    boolean formar(int quantidade, long limiteMs) throws InterruptedException {
+        fundar();
+        for (int i = 1; i < quantidade; i++) {
+            adicionar();
+            Thread.sleep(50);
+        }
+        return aguardar(() -> visoesConvergiram(quantidade), limiteMs);
+    }
+
+    /**
+     * Cria o primeiro nó e espera que ele funde o grupo.
+     * @return o nó criado
+     */
+    StableMulticast fundar() throws InterruptedException {
+        return fundar(b -> b);
+    }
+
+    /**
+     * Cria o primeiro nó com a configuração ajustada e espera que ele funde o grupo.
+     * @param ajuste função que recebe o Builder já preenchido e o devolve
+     * @return o nó criado
+     */
+    StableMulticast fundar(UnaryOperator<StableMulticast.Builder> ajuste) throws InterruptedException {
+        StableMulticast no = adicionar(ajuste);
+        if (!aguardar(() -> !no.getClientes().isEmpty(), 5000)) {
+            throw new IllegalStateException("O primeiro nó não fundou o grupo.");
+        }
+        return no;
+    }
+
+    /**
+     * Verifica se todos os nós ativos veem exatamente os mesmos membros, no tamanho informado.
+     */
+    boolean visoesConvergiram(int tamanho) {
+        Set<Integer> referencia = null;
+        for (StableMulticast no : nos) {
+            Set<Integer> ids = new TreeSet<>();
+            for (ClientInfo membro : no.getClientes()) {
+                ids.add(membro.getID());
+            }
+            if (ids.size() != tamanho || (referencia != null && !referencia.equals(ids))) {
+                return false;
+            }
+            referencia = ids;
+        }
+        return true;
+    }
+
+    /**
+     * Conta as entregas de um nó cujo texto começa com o prefixo informado.
+     */
+    int entregues(int no, String prefixo) {
+        List<String> recebidas = entregas.get(no);
+        synchronized (recebidas) {
+            int quantidade = 0;
+            for (String texto : recebidas) {
+                if (texto.startsWith(prefixo)) {
+                    quantidade++;
+                }
+            }
+            return quantidade;
+        }
+    }
+
+    /**
+     * Retorna os textos entregues por um nó que aparecem mais de uma vez.
+     */
+    List<String> repetidas(int no) {
+        List<String> recebidas = entregas.get(no);
+        synchronized (recebidas) {
+            Set<String> vistas = new HashSet<>();
+            List<String> repetidas = new ArrayList<>();
+            for (String texto : recebidas) {
+                if (!vistas.add(texto)) {
+                    repetidas.add(texto);
+                }
+            }
+            return repetidas;
+        }
+    }
+
+    /**
+     * Espera a condição se tornar verdadeira, consultando-a periodicamente.
+     * @return o último valor da condição
+     */
+    static boolean aguardar(BooleanSupplier condicao, long limiteMs) throws InterruptedException {
+        long fim = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limiteMs);
+        while (!condicao.getAsBoolean()) {
+            if (System.nanoTime() > fim) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (StableMulticast no : nos) {
+            no.close();
+        }
+        rede.close();
+    }
+}
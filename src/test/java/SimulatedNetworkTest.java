@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Testes da rede simulada e do grupo rodando sobre ela com perdas, duplicações e reordenações.
+ */
+class SimulatedNetworkTest {
+
+    private static final int NOS = 4;
+    private static final int POR_NO = 50;
+
+    /**
+     * Envia datagramas numerados de um ponto a outro e retorna os números que chegaram.
+     */
+    private static Set<Integer> sobreviventes(long semente, InetAddress local) throws Exception {
+        try (SimulatedNetwork rede = new SimulatedNetwork(semente).perda(0.5)) {
+            InetAddress grupo = InetAddress.getByName("224.0.5.1");
+            Set<Integer> recebidos = Collections.synchronizedSet(new TreeSet<>());
+            Transport origem = rede.transporte();
+            Transport destino = rede.transporte();
+            origem.abrir(grupo, 8999, local, 9100, (dados, de) -> { });
+            destino.abrir(grupo, 8999, local, 9101, (dados, de) -> recebidos.add(dados.getInt()));
+            for (int i = 0; i < 200; i++) {
+                origem.enviar(ByteBuffer.allocate(4).putInt(0, i), local, 9101);
+            }
+            assertTrue(SimulatedGroup.aguardar(() -> recebidos.size() + rede.perdidos() == 200, 5000));
+            return recebidos;
+        }
+    }
+
+    @Test
+    void mesmaSementeSorteiaOMesmoDestinoIndependenteDoNomeDoEndereco() throws Exception {
+        InetAddress semNome = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        InetAddress comNome = InetAddress.getByAddress("localhost", new byte[] {127, 0, 0, 1});
+        Set<Integer> primeira = sobreviventes(7, semNome);
+        assertTrue(primeira.size() > 50 && primeira.size() < 150);
+        assertEquals(primeira, sobreviventes(7, comNome));
+        assertNotEquals(primeira, sobreviventes(8, semNome));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {1, 2, 3})
+    void grupoComFalhasNaRedeEntregaTudoUmaVezEConvergeAVisao(long semente) throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(semente)) {
+            grupo.rede.perda(0.05)
+                    .duplicacao(0.05)
+                    .reordenacao(0.05, 20, TimeUnit.MILLISECONDS)
+                    .latencia(1, 5, TimeUnit.MILLISECONDS);
+            assertTrue(grupo.formar(NOS, 15000), "As visões não convergiram");
+
+            for (int i = 0; i < POR_NO; i++) {
+                for (StableMulticast no : grupo.nos) {
+                    no.msendAsync("m" + i, null);
+                }
+            }
+            for (int no = 0; no < NOS; no++) {
+                for (int origem = 0; origem < NOS; origem++) {
+                    int destino = no;
+                    String prefixo = "N" + origem + ": m";
+                    assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(destino, prefixo) == POR_NO, 20000),
+                            "N" + no + " entregou " + grupo.entregues(no, prefixo) + " de " + prefixo);
+                }
+                assertEquals(List.of(), grupo.repetidas(no));
+            }
+            assertTrue(grupo.visoesConvergiram(NOS));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes do buffer de estabilidade e dos limites das suas filas por remetente.
+ */
+class StabilityBufferTest {
+
+    private ClientInfo remetente;
+    private OffHeapArena arena;
+    private StabilityBuffer buffer;
+
+    @BeforeEach
+    void criar() {
+        remetente = new ClientInfo(InetAddress.getLoopbackAddress(), 5000, "a", null);
+        remetente.setID(0);
+        arena = new OffHeapArena(new MessageCodec(id -> remetente), Long.MAX_VALUE);
+        buffer = new StabilityBuffer(arena);
+    }
+
+    @AfterEach
+    void liberar() {
+        buffer.esvaziar();
+    }
+
+    private Message mensagem(int sequencia) {
+        return new Message(new int[] {sequencia}, "m" + sequencia, remetente, "msg");
+    }
+
+    @Test
+    void guardaForaDeOrdemEDescartaAsEstaveis() {
+        buffer.adicionar(mensagem(2));
+        buffer.adicionar(mensagem(0));
+        buffer.adicionar(mensagem(1));
+        buffer.adicionar(mensagem(1));
+
+        assertEquals(3, buffer.tamanho());
+        assertEquals("m2", buffer.obter(0, 2).message());
+
+        assertEquals(2, buffer.descartarEstaveis(0, 2));
+        assertNull(buffer.obter(0, 1));
+        assertEquals(1, buffer.tamanho());
+
+        buffer.adicionar(mensagem(0)); // Abaixo da marca: ignorada
+        assertEquals(1, buffer.tamanho());
+    }
+
+    @Test
+    void sequenciaAlemDaJanelaEIgnorada() {
+        buffer.adicionar(mensagem(StabilityBuffer.JANELA_MAXIMA));
+        buffer.adicionar(mensagem(Integer.MAX_VALUE));
+
+        assertEquals(0, buffer.tamanho());
+        assertEquals(0, arena.ocupados());
+
+        buffer.adicionar(mensagem(StabilityBuffer.JANELA_MAXIMA - 1));
+        assertEquals(1, buffer.tamanho());
+    }
+
+    @Test
+    void janelaEContadaAPartirDaBaseAtual() {
+        buffer.adicionar(mensagem(0));
+        buffer.descartarEstaveis(0, 1000);
+        buffer.adicionar(mensagem(1000 + StabilityBuffer.JANELA_MAXIMA - 1));
+        buffer.adicionar(mensagem(1000 + StabilityBuffer.JANELA_MAXIMA));
+
+        assertEquals(1, buffer.tamanho());
+    }
+
+    @Test
+    void coletaPelaMatrizConfereOsRemetentesAlterados() {
+        ClientInfo outro = new ClientInfo(InetAddress.getLoopbackAddress(), 5001, "b", null);
+        outro.setID(1);
+        ClockMatrix relogios = new ClockMatrix();
+        relogios.adicionarMembro(0);
+        relogios.adicionarMembro(1);
+        for (int sequencia = 0; sequencia < 3; sequencia++) {
+            buffer.adicionar(new Message(new int[] {sequencia, 0}, "a", remetente, "msg"));
+            buffer.adicionar(new Message(new int[] {0, sequencia}, "b", outro, "msg"));
+        }
+        assertEquals(0, buffer.descartarEstaveis(relogios));
+
+        // Só a coluna do remetente 0 sobe em todas as linhas
+        relogios.elevar(0, 0, 2);
+        relogios.elevar(1, 0, 2);
+        assertEquals(2, buffer.descartarEstaveis(relogios));
+        assertEquals(1, buffer.tamanho(0));
+        assertEquals(3, buffer.tamanho(1));
+
+        // A coluna foi conferida com a fila vazia; a mensagem que chega depois ainda é coletada
+        relogios.elevar(0, 0, 5);
+        relogios.elevar(1, 0, 5);
+        buffer.descartarEstaveis(0, 3);
+        assertEquals(0, buffer.descartarEstaveis(relogios));
+        buffer.adicionar(new Message(new int[] {4, 0}, "a", remetente, "msg"));
+        assertEquals(1, buffer.descartarEstaveis(relogios));
+        assertEquals(0, buffer.tamanho(0));
+
+        // O remetente que sai da matriz tem as mensagens descartadas
+        relogios.removerMembro(1);
+        assertEquals(3, buffer.descartarEstaveis(relogios));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void coletaComOutraMatrizConfereTodasAsFilas() {
+        buffer.adicionar(mensagem(0));
+        ClockMatrix primeira = new ClockMatrix();
+        primeira.adicionarMembro(0);
+        assertEquals(0, buffer.descartarEstaveis(primeira));
+
+        // A nova matriz já chega com a coluna adiante e sem nenhuma alteração registrada
+        ClockMatrix segunda = new ClockMatrix();
+        segunda.adicionarMembro(0);
+        segunda.elevar(0, 0, 1);
+        while (segunda.retirarColunaAlterada() >= 0) {
+            // Esvazia o registro
+        }
+        assertEquals(1, buffer.descartarEstaveis(segunda));
+    }
+
+    @Test
+    void compactarLiberaOSlabSeguradoPorUmaMensagem() {
+        int tamanhoSlab = 4096;
+        OffHeapArena pequena = new OffHeapArena(new MessageCodec(id -> remetente), Long.MAX_VALUE, tamanhoSlab);
+        StabilityBuffer compactado = new StabilityBuffer(pequena);
+        ClientInfo lento = new ClientInfo(InetAddress.getLoopbackAddress(), 5001, "b", null);
+        lento.setID(1);
+        String texto = "x".repeat(100);
+
+        // A primeira mensagem do remetente lento fica no primeiro slab, que as demais enchem
+        compactado.adicionar(new Message(new int[] {0, 0}, "retida", lento, "msg"));
+        for (int sequencia = 0; sequencia < 100; sequencia++) {
+            compactado.adicionar(new Message(new int[] {sequencia, 1}, texto, remetente, "msg"));
+        }
+        compactado.descartarEstaveis(0, 99); // A última continua no slab atual
+        assertEquals(2L * tamanhoSlab, pequena.ocupados());
+
+        assertEquals(1, compactado.compactar());
+        assertEquals(tamanhoSlab, pequena.ocupados());
+        assertEquals("retida", compactado.obter(1, 0).message());
+        assertEquals(0, compactado.compactar());
+
+        compactado.esvaziar();
+        assertEquals(0, pequena.ocupados());
+    }
+}
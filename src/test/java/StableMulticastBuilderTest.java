@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes da construção do middleware e da API assíncrona de envio.
+ */
+class StableMulticastBuilderTest {
+
+    @Test
+    void falhaAoAbrirOTransporteLancaExcecao() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(1)) {
+            grupo.adicionar();
+
+            StableMulticast.Builder repetido = StableMulticast.builder()
+                    .porta(SimulatedGroup.PORTA_BASE)
+                    .nome("repetido")
+                    .transporte(grupo.rede.transporte())
+                    .cliente(texto -> { });
+            UncheckedIOException erro = assertThrows(UncheckedIOException.class, repetido::construir);
+            assertInstanceOf(BindException.class, erro.getCause());
+        }
+    }
+
+    @Test
+    void mensagemEnviadaPodeSerReenviadaSemNovoTimestamp() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(2)) {
+            assertTrue(grupo.formar(2, 5000));
+            StableMulticast origem = grupo.nos.get(0);
+            ClientInfo destino = grupo.nos.get(1).getClientInfo();
+
+            SentMessage enviada = origem.msendAsync("oi", List.of(destino)).get(5, TimeUnit.SECONDS);
+            assertEquals("oi", enviada.texto());
+            assertEquals(0, enviada.timestamp()[origem.getClientInfo().getID()]);
+
+            SentMessage reenviada = origem.reenviarAsync(enviada, null).get(5, TimeUnit.SECONDS);
+            assertSame(enviada, reenviada);
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(0, "N0: oi") == 1
+                    && grupo.entregues(1, "N0: oi") == 1, 5000));
+            Thread.sleep(200);
+            assertEquals(1, grupo.entregues(1, "N0: oi"));
+        }
+    }
+
+    @Test
+    void serializacaoJavaEntregaAsMensagensPropriasUmaVez() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(14)) {
+            StableMulticast origem = grupo.fundar(b -> b.serializacaoJava(true));
+            grupo.adicionar(b -> b.serializacaoJava(true));
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(2), 5000));
+
+            // As cópias que voltam são objetos novos, com o ID em outro Integer
+            for (int i = 0; i < 3; i++) {
+                origem.msendAsync("s" + i, null).get(5, TimeUnit.SECONDS);
+            }
+            assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(1, "N0: s") == 3, 5000));
+            Thread.sleep(200);
+            assertEquals(3, grupo.entregues(0, "N0: s"));
+            assertEquals(List.of(), grupo.repetidas(0));
+        }
+    }
+
+    @Test
+    void capacidadeZeroComExecutorERecusada() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(3)) {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                assertThrows(IllegalArgumentException.class,
+                        () -> grupo.adicionar(b -> b.capacidadeEntrega(0).executorEntrega(executor)));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void msendDentroDoDeliverNaoTravaONucleo() throws Exception {
+        // Direto, o deliver roda no núcleo; com capacidade 1, o núcleo logo espera pelo deliver
+        for (int capacidade : new int[] {0, 1}) {
+            try (SimulatedGroup grupo = new SimulatedGroup(4 + capacidade)) {
+                StableMulticast origem = grupo.fundar();
+                StableMulticast[] respondente = new StableMulticast[1];
+                respondente[0] = grupo.adicionar(b -> b.capacidadeEntrega(capacidade).cliente(texto -> {
+                    if (texto.contains("ping")) {
+                        respondente[0].msend("pong");
+                    }
+                }));
+                assertTrue(SimulatedGroup.aguardar(() -> grupo.visoesConvergiram(2), 5000));
+
+                for (int i = 0; i < 20; i++) {
+                    origem.msendAsync("ping", null);
+                }
+                assertTrue(SimulatedGroup.aguardar(() -> grupo.entregues(0, "N1: pong") == 20, 10000),
+                        "capacidade " + capacidade);
+            }
+        }
+    }
+
+    @Test
+    void rastreamentoDepoisDoEncerramentoLancaIllegalStateException() throws Exception {
+        try (SimulatedGroup grupo = new SimulatedGroup(6)) {
+            StableMulticast no = grupo.fundar();
+            no.ativarRastreamento(1, TimeUnit.HOURS);
+            no.desativarRastreamento();
+            assertTrue(no.diagnostico().toString().contains("mais antiga há "));
+
+            no.close();
+            assertThrows(IllegalStateException.class, () -> no.ativarRastreamento(1, TimeUnit.SECONDS));
+        }
+    }
+}
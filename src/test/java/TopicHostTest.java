@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes de vários tópicos dividindo o núcleo de um hospedeiro.
+ */
+class TopicHostTest {
+
+    private static final int PORTA_BASE = 9200;
+
+    private static TopicHost hospedeiro(SimulatedNetwork rede, int indice) throws Exception {
+        return new TopicHost("127.0.0.1", PORTA_BASE + indice, "224.0.5.1", 1236, rede.transporte());
+    }
+
+    @Test
+    void topicoComClienteLentoNaoAtrasaOsOutros() throws Exception {
+        CountDownLatch liberar = new CountDownLatch(1);
+        List<String> lentas = Collections.synchronizedList(new ArrayList<>());
+        List<String> saudaveis = Collections.synchronizedList(new ArrayList<>());
+        try (SimulatedNetwork rede = new SimulatedNetwork(24);
+             TopicHost a = hospedeiro(rede, 0);
+             TopicHost b = hospedeiro(rede, 1)) {
+            // No hospedeiro A, o cliente do tópico 1 trava em cada mensagem até ser liberado
+            StableMulticast lentoA = a.topico(1).nome("A1").capacidadeEntrega(8).cliente(texto -> {
+                if (texto.contains("lenta")) {
+                    try {
+                        liberar.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    lentas.add(texto);
+                }
+            }).construir();
+            StableMulticast saudavelA = a.topico(2).nome("A2").cliente(texto -> {
+                if (texto.contains("rapida")) {
+                    saudaveis.add(texto);
+                }
+            }).construir();
+            assertTrue(SimulatedGroup.aguardar(() -> !lentoA.getClientes().isEmpty() && !saudavelA.getClientes().isEmpty(), 5000));
+            StableMulticast lentoB = b.topico(1).nome("B1").cliente(texto -> { }).construir();
+            StableMulticast saudavelB = b.topico(2).nome("B2").cliente(texto -> { }).construir();
+            assertTrue(SimulatedGroup.aguardar(() -> lentoA.getClientes().size() == 2 && lentoB.getClientes().size() == 2
+                    && saudavelA.getClientes().size() == 2 && saudavelB.getClientes().size() == 2, 5000));
+
+            // Bem mais mensagens do que cabem no estágio de entrega do tópico lento
+            for (int i = 0; i < 100; i++) {
+                lentoB.msendAsync("lenta" + i, null);
+            }
+            Thread.sleep(300);
+
+            // O tópico saudável do mesmo hospedeiro continua entregando
+            for (int i = 0; i < 10; i++) {
+                saudavelB.msendAsync("rapida" + i, null);
+            }
+            assertTrue(SimulatedGroup.aguardar(() -> saudaveis.size() == 10, 3000),
+                    "O tópico saudável entregou " + saudaveis.size() + " mensagens");
+            assertTrue(lentas.isEmpty());
+
+            // Liberado o cliente, o tópico lento retoma a recepção e entrega tudo
+            liberar.countDown();
+            assertTrue(SimulatedGroup.aguardar(() -> lentas.size() == 100, 10000),
+                    "O tópico lento entregou " + lentas.size() + " mensagens");
+        } finally {
+            liberar.countDown();
+        }
+    }
+}
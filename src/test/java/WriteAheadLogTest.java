@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testes do log de escrita antecipada.
+ */
+class WriteAheadLogTest {
+
+    private static final int TAMANHO_SEGMENTO = 64 * 1024;
+
+    @TempDir
+    Path diretorio;
+
+    private final ClientInfo local = criarLocal();
+    private final MessageCodec codec = new MessageCodec(id -> id == 0 ? local : null);
+
+    private static ClientInfo criarLocal() {
+        ClientInfo cliente = new ClientInfo(InetAddress.getLoopbackAddress(), 5000, "local", null);
+        cliente.setID(0);
+        return cliente;
+    }
+
+    private Message leave(int id) {
+        Message leave = new Message(null, "", local, "leave");
+        leave.setArguments(id);
+        return leave;
+    }
+
+    @Test
+    void codificacaoInterrompidaVoltaAoUltimoRegistroValido() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(diretorio, TAMANHO_SEGMENTO, codec);
+        log.iniciar(null);
+        log.anexar(leave(1));
+
+        // O vetor é escrito antes de a codificação falhar no membro sem endereço
+        int[] vetor = new int[500];
+        Arrays.fill(vetor, 7);
+        Message hello = new Message(vetor, "", local, "hello");
+        hello.setClientList(new ArrayList<>(List.of(local, new ClientInfo(null, 1, "sem endereco", null))));
+        log.anexar(hello);
+        log.anexar(leave(2));
+        log.close();
+
+        // Depois dos registros válidos, o segmento só tem zeros
+        ByteBuffer dados = ByteBuffer.wrap(Files.readAllBytes(diretorio.resolve("segmento-0000000000.log")));
+        dados.position(16);
+        int registros = 0;
+        int tamanho;
+        while ((tamanho = dados.getInt()) > 0) {
+            dados.position(dados.position() + tamanho);
+            registros++;
+        }
+        assertEquals(2, registros);
+        while (dados.hasRemaining()) {
+            assertEquals(0, dados.get(), "Resto da codificação interrompida na posição " + (dados.position() - 1));
+        }
+
+        List<Integer> lidos = new ArrayList<>();
+        new WriteAheadLog(diretorio, TAMANHO_SEGMENTO, codec).reproduzir(mensagem -> lidos.add(mensagem.getArguments()[0]));
+        assertEquals(List.of(1, 2), lidos);
+    }
+
+    @Test
+    void descartarTudoImpedeARecuperacao() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(diretorio, TAMANHO_SEGMENTO, codec);
+        log.iniciar(null);
+        log.anexar(leave(1));
+        log.descartarTudo();
+        log.close();
+
+        WriteAheadLog reaberto = new WriteAheadLog(diretorio, TAMANHO_SEGMENTO, codec);
+        assertEquals(0, reaberto.segmentos());
+        assertEquals(0, reaberto.ultimaEscrita());
+    }
+}